@@ -0,0 +1,55 @@
+package com.example.sample.benchmark;
+
+import com.google.common.base.Splitter;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+
+/*
+ * AllocationBudget runs ProxyPathBenchmark with the GC profiler of JMH(-prof gc) and fails with exit code 1 if a proxied
+ * request allocates more than its budget, so a change which brings garbage back onto the request path fails the build
+ * which runs it
+ *
+ * gc.alloc.rate.norm of every payload is compared with the budget. Most of what is left is parsing the response head of
+ * upstream-server(a String and a buffer per header) and the headers sent upstream, the body is streamed through pooled
+ * buffers so a bigger payload must not allocate more.
+ *
+ * --budget   bytes a request may allocate, default 4096
+ * --payloads payloadBytes of ProxyPathBenchmark, default 64,16384
+ *
+ * mvn -Pbenchmarks,loadtest test-compile exec:exec -Dloadtest.main=com.example.sample.benchmark.AllocationBudget
+ */
+public final class AllocationBudget {
+    private static final String ALLOCATED_PER_REQUEST = "gc.alloc.rate.norm";
+
+    private AllocationBudget() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+        long budget = Long.parseLong(options.getOrDefault("budget", "4096"));
+        String[] payloads = Splitter.on(',').trimResults().splitToList(options.getOrDefault("payloads", "64,16384"))
+            .toArray(new String[0]);
+        Options jmhOptions = new OptionsBuilder()
+            .include(ProxyPathBenchmark.class.getName() + ".relay$")
+            .param("payloadBytes", payloads)
+            .addProfiler(GCProfiler.class)
+            .build();
+        boolean overBudget = false;
+        for(RunResult result: new Runner(jmhOptions).run()) {
+            double allocated = result.getSecondaryResults().get(ALLOCATED_PER_REQUEST).getScore();
+            boolean within = allocated <= budget;
+            System.out.printf("payloadBytes %6s %8.0f B/request budget %d %s%n", result.getParams().getParam("payloadBytes"),
+                allocated, budget, within ? "ok" : "OVER BUDGET");
+            overBudget |= !within;
+        }
+        if(overBudget) {
+            System.exit(1);
+        }
+    }
+}
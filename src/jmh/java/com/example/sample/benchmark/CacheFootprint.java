@@ -0,0 +1,90 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.cache.CachedResponse;
+import com.example.sample.cache.ResponseCache;
+import com.google.common.base.Splitter;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * CacheFootprint measures the memory a CachedSites entry keeps for as long as it is cached, on top of its body
+ *
+ * For every store the cache is filled with --entries responses of --bodyBytes, each with a body and key of its own, and the
+ * heap in use after a full GC is compared with the heap in use before. Direct memory of the off-heap slabs is taken
+ * from the direct BufferPoolMXBean. Retained heap and off-heap memory per entry are printed along with what an entry
+ * costs above its body(key, CachedResponse, headers, cache node or off-heap record and index entry).
+ * Unlike gc.alloc.rate.norm of ResponseCacheBenchmark.put() this leaves out garbage of building the response and of eviction.
+ *
+ * --stores  default heap,offHeap
+ * --entries default 10000, --bodyBytes default 64,16384
+ *
+ * mvn -Pbenchmarks,loadtest test-compile exec:exec -Dloadtest.main=com.example.sample.benchmark.CacheFootprint
+ */
+public final class CacheFootprint {
+    private static final String HEADER = String.format("%-8s %10s %12s %14s %14s", "store", "bodyBytes", "heap B/entry",
+        "offHeap B/entry", "overhead B/entry");
+    private static final int GC_ROUNDS = 5;
+
+    private CacheFootprint() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+        int entries = Integer.parseInt(options.getOrDefault("entries", "10000"));
+        System.out.printf("%d entries per cache%n", entries);
+        System.out.println(HEADER);
+        for(String store: Splitter.on(',').trimResults().split(options.getOrDefault("stores", "heap,offHeap"))) {
+            for(String bodyBytes: Splitter.on(',').trimResults().split(options.getOrDefault("bodyBytes", "64,16384"))) {
+                System.out.println(measure(store, entries, Integer.parseInt(bodyBytes)));
+            }
+        }
+    }
+
+    private static String measure(String store, int entries, int bodyBytes) throws InterruptedException {
+        //bounds are far above what is stored so nothing is evicted
+        long maxBytes = (long) entries * (bodyBytes + 4096) * 2;
+        ResponseCache responseCache = new ResponseCache(true, entries * 2L, maxBytes, Math.max(bodyBytes, 1 << 20), 3600, 0,
+            store, maxBytes, 4 << 20, null, "secondChance");
+        try {
+            long heapBefore = usedHeap();
+            long directBefore = usedDirect();
+            for(int i = 0; i < entries; i++) {
+                responseCache.put("my-reverse-proxy-service GET /my-reverse-proxy-service?proxyType=roundRobin&page=" + i,
+                    new CachedResponse(200, "application/json", "max-age=3600", null, new byte[bodyBytes],
+                        TimeUnit.HOURS.toNanos(1), 0));
+            }
+            long heapPerEntry = (usedHeap() - heapBefore) / entries;
+            long directPerEntry = (usedDirect() - directBefore) / entries;
+            //keeps the cache reachable until it has been measured
+            CachedResponse first = responseCache.get("my-reverse-proxy-service GET /my-reverse-proxy-service?proxyType=roundRobin&page=0");
+            if(first == null) {
+                return String.format("%-8s %10d entries were evicted", store, bodyBytes);
+            }
+            first.release();
+            return String.format("%-8s %10d %12d %14d %14d", store, bodyBytes, heapPerEntry, directPerEntry,
+                heapPerEntry + directPerEntry - bodyBytes);
+        } finally {
+            responseCache.close();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for(int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for(BufferPoolMXBean pool: ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if(pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.cache.CachedResponse;
+import com.example.sample.cache.ResponseCache;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.HdrHistogram.Histogram;
+import org.springframework.util.unit.DataSize;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * CacheGcComparison compares GC pauses of the CachedSites response cache kept on the heap(proxy.cache.store=heap) and kept
+ * off-heap(proxy.cache.store=offHeap)
+ *
+ * Every store runs in a JVM of its own with the same heap(--heap, G1), the cache is filled with --cacheBytes of responses of
+ * --bodyBytes and then --threads threads get(and write to a discarding response) or put(--putRatio) random keys out of twice
+ * as many keys as fit for --duration seconds, so the cache keeps evicting. Pause of every collection is taken from the GC
+ * notifications of the JVM, the line printed per store has throughput, number of pauses, their p99/max/total and old gen
+ * in use at the end.
+ *
+ * --stores     default heap,offHeap
+ * --cacheBytes default 512MB, --bodyBytes default 16384, --heap default 2g
+ * --threads    default 4, --putRatio default 0.1, --duration default 30
+ *
+ * mvn -Pbenchmarks,loadtest test-compile exec:exec -Dloadtest.main=com.example.sample.benchmark.CacheGcComparison
+ */
+public final class CacheGcComparison {
+    private static final String HEADER = String.format("%-8s %12s %8s %12s %12s %12s %12s", "store", "ops/s", "pauses",
+        "p99 ms", "max ms", "total ms", "old gen MB");
+    private static final String RESULT = "result ";
+
+    private CacheGcComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+        if(options.containsKey("store")) {
+            System.out.println(RESULT + run(options));
+            return;
+        }
+        long cacheBytes = DataSize.parse(options.getOrDefault("cacheBytes", "512MB")).toBytes();
+        String heap = options.getOrDefault("heap", "2g");
+        System.out.printf("cache of %d MB in a heap of %s%n", cacheBytes >> 20, heap);
+        List<String> results = new ArrayList<>();
+        for(String store: Splitter.on(',').trimResults().split(options.getOrDefault("stores", "heap,offHeap"))) {
+            List<String> command = new ArrayList<>(ImmutableList.of(System.getProperty("java.home") + "/bin/java",
+                "-Xms" + heap, "-Xmx" + heap, "-XX:+UseG1GC", "-XX:MaxDirectMemorySize=" + (cacheBytes + (256L << 20)),
+                "-cp", System.getProperty("java.class.path"), CacheGcComparison.class.getName(), "--store=" + store));
+            options.forEach((key, value) -> command.add("--" + key + "=" + value));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = output.readLine()) != null) {
+                    if(line.startsWith(RESULT)) {
+                        results.add(line.substring(RESULT.length()));
+                    }
+                }
+            }
+            if(process.waitFor() != 0) {
+                results.add(String.format("%-8s failed with exit code %d", store, process.exitValue()));
+            }
+        }
+        System.out.println(HEADER);
+        results.forEach(System.out::println);
+    }
+
+    private static String run(Map<String, String> options) throws InterruptedException {
+        String store = options.get("store");
+        long cacheBytes = DataSize.parse(options.getOrDefault("cacheBytes", "512MB")).toBytes();
+        int bodyBytes = Integer.parseInt(options.getOrDefault("bodyBytes", "16384"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        double putRatio = Double.parseDouble(options.getOrDefault("putRatio", "0.1"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        int keys = (int) (2 * cacheBytes / bodyBytes);
+
+        ResponseCache responseCache = new ResponseCache(true, keys, cacheBytes, bodyBytes, 3600, 0, store, cacheBytes,
+            4 << 20, null, "secondChance");
+        for(int i = 0; i < keys / 2; i++) {
+            responseCache.put(key(i), newResponse(bodyBytes));
+        }
+        System.gc();
+
+        Histogram pauses = new Histogram(TimeUnit.MINUTES.toMillis(1), 3);
+        LongAdder totalPauseMillis = new LongAdder();
+        for(GarbageCollectorMXBean collector: ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    long duration = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+                        .getGcInfo().getDuration();
+                    synchronized(pauses) {
+                        pauses.recordValue(Math.min(duration, pauses.getHighestTrackableValue()));
+                    }
+                    totalPauseMillis.add(duration);
+                }
+            }, null, null);
+        }
+
+        LongAdder operations = new LongAdder();
+        long end = System.nanoTime() + durationNanos;
+        List<Thread> workers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while(System.nanoTime() < end) {
+                    String key = key(random.nextInt(keys));
+                    if(random.nextDouble() < putRatio) {
+                        responseCache.put(key, newResponse(bodyBytes));
+                    } else {
+                        CachedResponse cachedResponse = responseCache.get(key);
+                        if(cachedResponse != null) {
+                            try {
+                                cachedResponse.writeTo(new DiscardingResponse());
+                            } catch(IOException e) {
+                                throw new IllegalStateException(e);
+                            } finally {
+                                cachedResponse.release();
+                            }
+                        }
+                    }
+                    operations.increment();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for(Thread worker: workers) {
+            worker.join();
+        }
+        responseCache.close();
+
+        long oldGenBytes = 0;
+        for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP && pool.getName().contains("Old Gen")) {
+                oldGenBytes += pool.getUsage().getUsed();
+            }
+        }
+        synchronized(pauses) {
+            return String.format("%-8s %12.0f %8d %12d %12d %12d %12d", store,
+                operations.sum() / (double) TimeUnit.NANOSECONDS.toSeconds(durationNanos), pauses.getTotalCount(),
+                pauses.getValueAtPercentile(99), pauses.getMaxValue(), totalPauseMillis.sum(), oldGenBytes >> 20);
+        }
+    }
+
+    private static String key(int i) {
+        return "my-reverse-proxy-service GET /my-reverse-proxy-service?proxyType=roundRobin&page=" + i;
+    }
+
+    private static CachedResponse newResponse(int bodyBytes) {
+        return new CachedResponse(200, "application/json", "max-age=3600", null, new byte[bodyBytes],
+            TimeUnit.HOURS.toNanos(1), 0);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.sample.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * CannedBackend answers every request on a keep-alive connection with the same 200 response, which is written from a
+ * byte[] made up front
+ *
+ * It reads a request till the blank line after its headers(a request body is not supported) into a buffer of the
+ * connection and allocates nothing per request, so gc.alloc.rate.norm of -prof gc of a benchmark calling it is what the
+ * proxy allocates. HttpServer of the JDK allocates a few KB per exchange which would hide it. A thread serves each connection.
+ */
+public final class CannedBackend implements AutoCloseable {
+    private final ServerSocket serverSocket;
+    private final byte[] response;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+
+    public CannedBackend(int bodyBytes) throws IOException {
+        byte[] body = new byte[bodyBytes];
+        Arrays.fill(body, (byte) 'x');
+        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nCache-Control: no-store\r\n"
+            + "Content-Length: " + bodyBytes + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.response = Arrays.copyOf(head, head.length + bodyBytes);
+        System.arraycopy(body, 0, this.response, head.length, bodyBytes);
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "canned-backend");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while(!this.serverSocket.isClosed()) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                this.connections.add(socket);
+                Thread connection = new Thread(() -> serve(socket), "canned-backend-" + socket.getPort());
+                connection.setDaemon(true);
+                connection.start();
+            } catch(IOException e) {
+                //closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        byte[] buffer = new byte[8192];
+        try (InputStream inputStream = socket.getInputStream(); OutputStream outputStream = socket.getOutputStream()) {
+            //last 4 bytes read, \r\n\r\n ends the head of a request
+            int last = 0;
+            int read;
+            while((read = inputStream.read(buffer)) != -1) {
+                for(int i = 0; i < read; i++) {
+                    last = last << 8 | (buffer[i] & 0xff);
+                    if(last == 0x0d0a0d0a) {
+                        outputStream.write(this.response);
+                        last = 0;
+                    }
+                }
+            }
+        } catch(SocketException e) {
+            //connection closed by the proxy or close()
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            this.connections.remove(socket);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+        for(Socket socket: this.connections) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.sample.benchmark;
+
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/*
+ * DiscardingResponse is a HttpServletResponse whose body is thrown away so that a benchmark measures the proxy
+ * and not copying of the body into MockHttpServletResponse
+ */
+public class DiscardingResponse extends MockHttpServletResponse {
+    private static final ServletOutputStream DISCARD = new ServletOutputStream() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return DISCARD;
+    }
+}
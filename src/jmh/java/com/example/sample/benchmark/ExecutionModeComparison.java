@@ -0,0 +1,104 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.DemoApplication;
+import com.example.sample.execution.ExecutorFactory;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/*
+ * ExecutionModeComparison finds the highest load reverseProxy sustains in platform and in virtual execution
+ * mode(proxy.execution.mode)
+ *
+ * Every mode starts DemoApplication in this JVM with backends which take backend.latency(constant:50 unless given) to answer,
+ * so a request holds a proxy thread and a backend thread for at least that long. LoadGenerator then runs at every rate of
+ * --rates, a rate is sustained while p99 stays under --sloMillis and less than 1% of requests fail. Requests in flight at
+ * the highest rate sustained(rate * mean latency, Little's law) is the concurrency the mode sustains.
+ *
+ * Before that the first rate is sent for --startupSeconds(default 15) and not measured, a proxy which has just started is
+ * still being compiled by the JIT and would fall behind an open-loop load it can easily take once warm.
+ *
+ * --rates     arrival rates tried one after another, default 100,200,400,800,1600,3200
+ * --sloMillis p99 a rate has to stay under, default 250
+ * --warmup, --duration as for LoadGenerator, default 3 and 10 seconds per rate
+ * --modes     default platform,virtual
+ * every other --key=value is passed to the application e.g. --backend.threads=3 --server.tomcat.threads.max=200
+ *
+ * Virtual mode needs Java 21, on an older JVM it is skipped
+ * mvn -Pjava21,benchmarks,loadtest test-compile exec:exec -Dloadtest.main=com.example.sample.benchmark.ExecutionModeComparison
+ */
+public final class ExecutionModeComparison {
+    private static final List<String> OWN_OPTIONS = ImmutableList.of("rates", "sloMillis", "warmup", "duration", "modes",
+        "startupSeconds");
+    private static final double MAX_FAILED_RATIO = 0.01;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private ExecutionModeComparison() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+        double sloMillis = Double.parseDouble(options.getOrDefault("sloMillis", "250"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "3")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "10")));
+        Duration startup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("startupSeconds", "15")));
+        List<String> applicationArgs = new ArrayList<>(ImmutableList.of("--server.port=0", "--backend.latency=constant:50",
+            "--logging.level.root=WARN", "--spring.main.banner-mode=off", "--proxy.cache.enabled=false"));
+        options.forEach((key, value) -> {
+            if(!OWN_OPTIONS.contains(key)) {
+                applicationArgs.add("--" + key + "=" + value);
+            }
+        });
+
+        List<String> summary = new ArrayList<>();
+        for(String mode: Splitter.on(',').trimResults().split(options.getOrDefault("modes", "platform,virtual"))) {
+            if(ExecutorFactory.VIRTUAL_MODE.equals(mode) && Runtime.version().feature() < 21) {
+                summary.add(String.format("%-8s skipped, virtual threads need Java 21(running %s)", mode, Runtime.version()));
+                continue;
+            }
+            List<String> modeArgs = new ArrayList<>(applicationArgs);
+            modeArgs.add("--proxy.execution.mode=" + mode);
+            List<Integer> rates = Splitter.on(',').trimResults().splitToList(options.getOrDefault("rates", "100,200,400,800,1600,3200"))
+                .stream().map(Integer::valueOf).collect(Collectors.toList());
+            summary.add(run(mode, modeArgs, rates, sloMillis, startup, warmup, duration));
+        }
+        System.out.println();
+        System.out.printf("highest rate with p99 under %.0f ms and under %.0f%% failed%n", sloMillis, MAX_FAILED_RATIO * 100);
+        summary.forEach(System.out::println);
+    }
+
+    private static String run(String mode, List<String> applicationArgs, List<Integer> rates, double sloMillis, Duration startup,
+        Duration warmup, Duration duration) throws InterruptedException {
+        System.out.println("proxy.execution.mode=" + mode + " " + applicationArgs);
+        System.out.println(LoadGenerator.Result.HEADER);
+        LoadGenerator.Result sustained = null;
+        try (ConfigurableApplicationContext context = SpringApplication.run(DemoApplication.class,
+            applicationArgs.toArray(new String[0]));
+            LoadGenerator loadGenerator = new LoadGenerator()) {
+            URI uri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port")
+                + "/my-reverse-proxy-service");
+            loadGenerator.run(mode + " startup", uri, "GET", new byte[0], rates.get(0), startup, Duration.ZERO, TIMEOUT);
+            for(int rate: rates) {
+                LoadGenerator.Result result = loadGenerator.run(mode + " " + rate, uri, "GET", new byte[0], rate, warmup, duration,
+                    TIMEOUT);
+                System.out.println(result);
+                if(result.getPercentileMillis(99) > sloMillis || result.getFailedRatio() >= MAX_FAILED_RATIO) {
+                    break;
+                }
+                sustained = result;
+            }
+        }
+        return sustained == null ? String.format("%-8s sustained none of the rates", mode)
+            : String.format("%-8s %d requests/s, %.0f requests in flight, p99 %.2f ms", mode, sustained.getRate(),
+                sustained.getRate() * sustained.getMeanMillis() / 1000,
+                sustained.getPercentileMillis(99));
+    }
+}
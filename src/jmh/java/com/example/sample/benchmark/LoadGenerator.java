@@ -0,0 +1,197 @@
+package com.example.sample.benchmark;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * LoadGenerator sends requests to a running reverseProxy at a constant arrival rate and reports latency percentiles
+ * of every proxyType
+ *
+ * It is an open-loop generator: request i is due at start + i / rate whatever happened to the requests before it, so a
+ * stalled proxy gets the backlog real clients would have sent instead of being given a break. Latency of a request is
+ * measured from the time it was due and not from the time it could actually be sent, so time spent behind a stall is
+ * counted(coordinated omission is corrected). Requests go out through the non-blocking java.net.http client, a slow
+ * response never holds back the requests due after it. Latencies are recorded in an HdrHistogram with 3 significant digits.
+ *
+ * --target     url requests are sent to(proxyType is appended), default http://localhost:8080/my-reverse-proxy-service
+ * --proxyTypes proxyType values run one after another, default all of them
+ * --rate       requests per second, default 1000
+ * --warmup     seconds sent before measuring starts, default 5
+ * --duration   seconds measured per proxyType, default 20
+ * --method     GET by default, --bodySize bytes of body sent along e.g. with --method=POST
+ * --timeout    seconds after which a request fails, default 10
+ *
+ * Start the proxy(e.g. with backend.latency=lognormal:20:0.8) and run
+ * mvn -Pbenchmarks,loadtest test-compile exec:exec -Dloadtest.args="--rate=2000 --duration=30"
+ */
+public final class LoadGenerator implements AutoCloseable {
+    static final String DEFAULT_TARGET = "http://localhost:8080/my-reverse-proxy-service";
+    private static final String ALL_PROXY_TYPES = "roundRobin,random,leastOutstanding,powerOfTwo,weightedRoundRobin,consistentHash";
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+
+    public LoadGenerator() {
+        //completions only record a value, a few threads keep up with any rate the proxy can take
+        this.executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "load-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(this.executor)
+            .build();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        String target = options.getOrDefault("target", DEFAULT_TARGET);
+        int rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "20")));
+        Duration timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "10")));
+        String method = options.getOrDefault("method", "GET");
+        byte[] body = Strings.repeat("x", Integer.parseInt(options.getOrDefault("bodySize", "0"))).getBytes(StandardCharsets.UTF_8);
+
+        System.out.printf("%d requests/s for %ds(after %ds warmup) of %s %s%n", rate, duration.getSeconds(),
+            warmup.getSeconds(), method, target);
+        System.out.println(Result.HEADER);
+        try (LoadGenerator loadGenerator = new LoadGenerator()) {
+            for(String proxyType: Splitter.on(',').trimResults().split(options.getOrDefault("proxyTypes", ALL_PROXY_TYPES))) {
+                URI uri = URI.create(target + (target.contains("?") ? "&" : "?") + "proxyType=" + proxyType);
+                System.out.println(loadGenerator.run(proxyType, uri, method, body, rate, warmup, duration, timeout));
+            }
+        }
+    }
+
+    /*
+     * sends method uri at rate requests per second for warmup + duration and returns what was measured after the warmup,
+     * waits for requests still in flight(at most timeout) before returning
+     */
+    public Result run(String name, URI uri, String method, byte[] body, int rate, Duration warmup, Duration duration,
+        Duration timeout) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+            .timeout(timeout)
+            .method(method, body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+        Histogram histogram = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        LongAdder failed = new LongAdder();
+        AtomicLong inFlight = new AtomicLong();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        long sent = 0;
+        for(long due = start; due < end; due = start + ++sent * intervalNanos) {
+            long wait = due - System.nanoTime();
+            if(wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = due >= measureFrom;
+            long dueAt = due;
+            inFlight.incrementAndGet();
+            this.httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+                if(measured) {
+                    histogram.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS,
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueAt)));
+                    if(e != null || response.statusCode() >= 400) {
+                        failed.increment();
+                    }
+                }
+                inFlight.decrementAndGet();
+            });
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while(inFlight.get() > 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return new Result(name, rate, histogram, failed.sum(), inFlight.get());
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    //--key=value arguments
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for(String arg: args) {
+            List<String> option = Splitter.on('=').limit(2).splitToList(arg);
+            if(!arg.startsWith("--") || option.size() != 2) {
+                throw new IllegalArgumentException("argument " + arg + " is not --key=value");
+            }
+            options.put(option.get(0).substring(2), option.get(1));
+        }
+        return options;
+    }
+
+    //latency percentiles of a run, a request still in flight at the end counts as failed
+    public static final class Result {
+        static final String HEADER = String.format("%-20s %8s %8s %7s %9s %9s %9s %9s %9s %9s", "run", "rate/s", "requests",
+            "failed", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "p99.99 ms", "max ms");
+        private final String name;
+        private final int rate;
+        private final Histogram histogram;
+        private final long failed;
+        private final long unfinished;
+
+        private Result(String name, int rate, Histogram histogram, long failed, long unfinished) {
+            this.name = name;
+            this.rate = rate;
+            this.histogram = histogram;
+            this.failed = failed + unfinished;
+            this.unfinished = unfinished;
+        }
+
+        public int getRate() {
+            return this.rate;
+        }
+
+        public long getRequests() {
+            return this.histogram.getTotalCount() + this.unfinished;
+        }
+
+        public double getFailedRatio() {
+            return getRequests() == 0 ? 1 : (double) this.failed / getRequests();
+        }
+
+        public double getPercentileMillis(double percentile) {
+            return this.histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        public double getMeanMillis() {
+            return this.histogram.getMean() / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder(String.format("%-20s %8d %8d %7d", this.name, this.rate, getRequests(), this.failed));
+            for(double percentile: PERCENTILES) {
+                line.append(String.format(" %9.2f", getPercentileMillis(percentile)));
+            }
+            return line.append(String.format(" %9.2f", this.histogram.getMaxValue() / 1000.0)).toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.EntryPoint;
+import com.example.sample.ReverseProxyConfigurations;
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.model.Host;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ProxyPathBenchmark measures the whole proxied request the way Tomcat hands it to EntryPoint.getServiceResponse(): Router,
+ * RateLimiter, round-robin selection, concurrency permits, a pooled keep-alive connection to upstream-server and the body
+ * streamed back through a pooled buffer
+ *
+ * Upstream-server is a CannedBackend, which allocates nothing per request, so gc.alloc.rate.norm of -prof gc is what the
+ * proxy allocates per request. The client request is reused and the response drops headers like a recycled Tomcat response
+ * does, MockHttpServletRequest still allocates enumerations of its headers which Tomcat would not. ResponseCache is off so
+ * every request reaches upstream-server. AllocationBudget runs it and fails when a request allocates more than its budget.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="ProxyPathBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyPathBenchmark {
+    private static final String SERVICE = "benchmark-service";
+
+    @Param({"64", "16384"})
+    private int payloadBytes;
+
+    private CannedBackend backend;
+    private AnnotationConfigApplicationContext context;
+    private EntryPoint entryPoint;
+    private MockHttpServletRequest request;
+    private HeaderlessResponse response;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.backend = new CannedBackend(this.payloadBytes);
+        this.context = new AnnotationConfigApplicationContext();
+        this.context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark",
+            ImmutableMap.of("proxy.cache.enabled", "false", "proxy.health.enabled", "false", "upstream.buffer.count", "64")));
+        this.context.register(ReverseProxyConfigurations.class, EntryPoint.class);
+        this.context.scan("com.example.sample.loadBalance", "com.example.sample.reverseProxy", "com.example.sample.upstream",
+            "com.example.sample.retry", "com.example.sample.cache", "com.example.sample.compression", "com.example.sample.metrics",
+            "com.example.sample.routing", "com.example.sample.rateLimit");
+        this.context.refresh();
+        this.context.getBean(HostIndex.class).update(ImmutableList.of(Host.builder().serviceName(SERVICE)
+            .serviceIP("127.0.0.1").port(String.valueOf(this.backend.getPort())).build()));
+        this.entryPoint = this.context.getBean(EntryPoint.class);
+        this.request = new MockHttpServletRequest("GET", "/" + SERVICE + "/orders/42");
+        this.request.setQueryString("proxyType=roundRobin");
+        this.request.addHeader("Host", "proxy.example.com");
+        this.request.addHeader("Accept", "application/json");
+        this.request.addHeader("User-Agent", "ProxyPathBenchmark");
+        this.response = new HeaderlessResponse();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.context.close();
+        this.backend.close();
+    }
+
+    @Benchmark
+    public int relay() throws IOException {
+        this.entryPoint.getServiceResponse(this.request, this.response);
+        return this.response.getStatus();
+    }
+
+    //response of Tomcat keeps headers in recycled arrays, these are dropped instead of being put in a map of MockHttpServletResponse
+    private static final class HeaderlessResponse extends DiscardingResponse {
+        @Override
+        public void setHeader(String name, String value) {
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+        }
+
+        @Override
+        public void setContentLength(int contentLength) {
+        }
+
+        @Override
+        public void setContentLengthLong(long contentLength) {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.ReverseProxyConfigurations;
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.model.Host;
+import com.example.sample.rateLimit.RateLimiter;
+import com.example.sample.routing.Route;
+import com.example.sample.routing.Router;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * RateLimiterBenchmark measures what RateLimiter.check() adds to every request at 1, 8 and 64 threads
+ *
+ * limits  - off(proxy.rateLimit.enabled=false), client(bucket per client IP) or clientAndRoute(a route bucket shared by
+ *           all threads as well)
+ * clients - client IPs the threads cycle over. 1 puts every thread on the same bucket and stripe, 10000 spreads them over
+ *           the stripes and 1000000 is 10 times MAX_KEYS so nearly every request evicts a bucket for a new client
+ * Rates are so high that no request is rejected, only admission is measured. gc.alloc.rate.norm of -prof gc is 0 unless
+ * buckets are evicted.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="RateLimiterBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+    private static final int MAX_KEYS = 100000;
+
+    @Param({"off", "client", "clientAndRoute"})
+    private String limits;
+
+    @Param({"1", "10000", "1000000"})
+    private int clients;
+
+    private AnnotationConfigApplicationContext context;
+    private RateLimiter rateLimiter;
+    private Route route;
+    private String[] clientIPs;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Client {
+        private MockHttpServletRequest request;
+        private int next;
+
+        @Setup
+        public void setUp(RateLimiterBenchmark benchmark) {
+            this.request = new MockHttpServletRequest("GET", "/" + benchmark.route.getServiceName());
+            //threads start apart so they do not walk the same clients in step
+            this.next = benchmark.threads.getAndIncrement() * 7919;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        this.context = new AnnotationConfigApplicationContext(ReverseProxyConfigurations.class, HostIndex.class);
+        Router router = new Router(this.context.getBean(HostIndex.class), "", true);
+        String serviceName = ((List<Host>) this.context.getBean("hostList")).get(0).getServiceName();
+        this.route = router.route(new MockHttpServletRequest("GET", "/" + serviceName));
+        this.rateLimiter = new RateLimiter(!"off".equals(this.limits), "clientIp", "X-Api-Key", 1e9, 1000000,
+            "clientAndRoute".equals(this.limits) ? 1e9 : 0, 1000000, MAX_KEYS, 64);
+        this.clientIPs = new String[this.clients];
+        for(int i = 0; i < this.clients; i++) {
+            this.clientIPs[i] = "10." + (i >>> 16 & 0xff) + "." + (i >>> 8 & 0xff) + "." + (i & 0xff);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void check1Thread(Client client) {
+        check(client);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void check8Threads(Client client) {
+        check(client);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void check64Threads(Client client) {
+        check(client);
+    }
+
+    private void check(Client client) {
+        client.next = client.next + 1 == Integer.MAX_VALUE ? 0 : client.next + 1;
+        client.request.setRemoteAddr(this.clientIPs[client.next % this.clients]);
+        this.rateLimiter.check(client.request, this.route);
+    }
+}
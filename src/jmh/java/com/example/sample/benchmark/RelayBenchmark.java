@@ -0,0 +1,124 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.ReverseProxyConfigurations;
+import com.example.sample.cache.ResponseCache;
+import com.example.sample.httpServer.HttpServer;
+import com.example.sample.loadBalance.ConcurrencyLimiter;
+import com.example.sample.loadBalance.HostCircuitBreaker;
+import com.example.sample.loadBalance.HostHealthChecker;
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.loadBalance.HostStateRegistry;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import com.example.sample.retry.HedgePolicy;
+import com.example.sample.retry.RetryPolicy;
+import com.example.sample.compression.ResponseCompressor;
+import com.example.sample.reverseProxy.UpstreamForwarder;
+import com.example.sample.upstream.AsyncUpstreamClient;
+import com.example.sample.upstream.BufferPool;
+import com.example.sample.upstream.Http2ConnectionPool;
+import com.example.sample.upstream.UpstreamConnectionPool;
+import com.google.common.collect.ImmutableMap;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RelayBenchmark measures latency of a full upstream call through UpstreamForwarder against an embedded HttpServer backend
+ * at several payload sizes
+ *
+ * relay()   - streaming relay mode, body goes through a pooled buffer of BufferPool
+ * forward() - buffered relay mode, body is read into a byte[]
+ *
+ * protocol is upstream.protocol, with h2c the backend is the Tomcat of HttpServer.runH2c() and calls are streams of
+ * Http2ConnectionPool. A single caller only sees the cost of a stream against a pooled connection, the connections saved
+ * show with many requests in flight.
+ *
+ * ResponseCache and active health checks are disabled so every call reaches the backend. Backend runs in the same JVM, allocation rate reported by
+ * -prof gc(gc.alloc.rate.norm) includes the few allocations of HttpServer per exchange as well.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="RelayBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayBenchmark {
+    private static final String SERVICE = "benchmark-service";
+
+    @Param({"64", "16384", "1048576"})
+    private int payloadBytes;
+
+    @Param({Http2ConnectionPool.HTTP1_PROTOCOL, Http2ConnectionPool.H2C_PROTOCOL})
+    private String protocol;
+
+    private ExecutorService backendExecutor;
+    private com.sun.net.httpserver.HttpServer backend;
+    private Tomcat h2cBackend;
+    private AnnotationConfigApplicationContext context;
+    private UpstreamForwarder upstreamForwarder;
+    private Host host;
+
+    @Setup
+    public void setUp() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        this.backendExecutor = Executors.newFixedThreadPool(4);
+        if(Http2ConnectionPool.H2C_PROTOCOL.equals(this.protocol)) {
+            this.h2cBackend = new HttpServer(this.payloadBytes).runH2c(SERVICE, "127.0.0.1", String.valueOf(port), this.backendExecutor);
+        } else {
+            this.backend = new HttpServer(this.payloadBytes).run(SERVICE, "127.0.0.1", String.valueOf(port), this.backendExecutor);
+        }
+        this.host = Host.builder().serviceName(SERVICE).serviceIP("127.0.0.1").port(String.valueOf(port)).build();
+
+        this.context = new AnnotationConfigApplicationContext();
+        this.context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark",
+            ImmutableMap.of("proxy.cache.enabled", "false", "upstream.buffer.count", "64", "proxy.health.enabled", "false",
+                "upstream.protocol", this.protocol)));
+        this.context.register(ReverseProxyConfigurations.class, HostIndex.class, UpstreamConnectionPool.class, Http2ConnectionPool.class,
+            BufferPool.class,
+            HostStateRegistry.class, ConcurrencyLimiter.class, HostHealthChecker.class, ResponseCache.class,
+            HostCircuitBreaker.class, AsyncUpstreamClient.class, RetryPolicy.class, HedgePolicy.class, ProxyMetrics.class,
+            ResponseCompressor.class, UpstreamForwarder.class);
+        this.context.refresh();
+        this.upstreamForwarder = this.context.getBean(UpstreamForwarder.class);
+    }
+
+    @TearDown
+    public void tearDown() throws LifecycleException {
+        this.context.close();
+        if(this.h2cBackend != null) {
+            this.h2cBackend.stop();
+            this.h2cBackend.destroy();
+        } else {
+            this.backend.stop(0);
+        }
+        this.backendExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int relay() throws IOException {
+        DiscardingResponse response = new DiscardingResponse();
+        this.upstreamForwarder.relay(this.host, service -> this.host, new MockHttpServletRequest("GET", "/" + SERVICE), response);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public ResponseEntity forward() throws IOException {
+        return this.upstreamForwarder.forward(this.host, service -> this.host, new MockHttpServletRequest("GET", "/" + SERVICE));
+    }
+}
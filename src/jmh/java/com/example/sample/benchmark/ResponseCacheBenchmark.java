@@ -0,0 +1,114 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.cache.CachedResponse;
+import com.example.sample.cache.ResponseCache;
+import com.example.sample.compression.ContentEncoding;
+import com.example.sample.compression.ResponseCompressor;
+import com.example.sample.reverseProxy.SingleFlightForwarder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ResponseCacheBenchmark measures the CachedSites hit path and the cost of storing a response
+ *
+ * hit()     - SingleFlightForwarder.serve() of a cached request, what EntryPoint does for a cache hit
+ * gzipHit() - hit() of a client sending Accept-Encoding: gzip, the entry has been compressed when it was stored so this
+ *             should cost no more than hit()(a body under proxy.compression.minBytes is served uncompressed)
+ * lookup()  - building the cache key of the request and looking it up
+ * put()     - storing a response under keys which cycle over twice the entry bound, so puts evict as well.
+ *             gc.alloc.rate.norm of -prof gc is what a put allocates including the response it stores and the garbage of
+ *             eviction, it is not what an entry keeps, CacheFootprint measures that
+ *
+ * store is proxy.cache.store, with offHeap a put serializes the response into a slab and a hit is written from it. Tomcat
+ * takes the slab as a ByteBuffer, DiscardingResponse does not so the body is copied out in chunks here.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="ResponseCacheBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseCacheBenchmark {
+    private static final int MAX_ENTRIES = 10000;
+
+    @Param({"64", "16384"})
+    private int bodyBytes;
+
+    @Param({"heap", "offHeap"})
+    private String store;
+
+    private ResponseCache responseCache;
+    private ResponseCompressor responseCompressor;
+    private SingleFlightForwarder singleFlightForwarder;
+    private MockHttpServletRequest request;
+    private MockHttpServletRequest gzipRequest;
+    private byte[] body;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.responseCache = new ResponseCache(true, MAX_ENTRIES, 1L << 30, 1 << 20, 3600, 0, this.store, 256L << 20, 4 << 20,
+            null, "secondChance");
+        this.responseCompressor = new ResponseCompressor(true, "gzip,deflate", 1024, 6, "application/json", 1, 1, 4);
+        //upstream is never called on a hit
+        this.singleFlightForwarder = new SingleFlightForwarder(this.responseCache, null, this.responseCompressor, 1, 1);
+        this.request = new MockHttpServletRequest("GET", "/my-reverse-proxy-service");
+        this.request.setQueryString("proxyType=roundRobin");
+        this.gzipRequest = new MockHttpServletRequest("GET", "/my-reverse-proxy-service");
+        this.gzipRequest.setQueryString("proxyType=roundRobin");
+        this.gzipRequest.addHeader("Accept-Encoding", "gzip, deflate, br");
+        this.body = new byte[this.bodyBytes];
+        CachedResponse cachedResponse = newResponse();
+        this.responseCompressor.compress(cachedResponse, ContentEncoding.GZIP);
+        this.responseCache.put(this.request, cachedResponse);
+        this.keys = new String[2 * MAX_ENTRIES];
+        for(int i = 0; i < this.keys.length; i++) {
+            this.keys[i] = "my-reverse-proxy-service GET /my-reverse-proxy-service?proxyType=roundRobin&page=" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.responseCache.close();
+        this.singleFlightForwarder.close();
+        this.responseCompressor.close();
+    }
+
+    @Benchmark
+    public int hit() throws IOException {
+        DiscardingResponse response = new DiscardingResponse();
+        this.singleFlightForwarder.serve(null, this.request, response, true);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public int gzipHit() throws IOException {
+        DiscardingResponse response = new DiscardingResponse();
+        this.singleFlightForwarder.serve(null, this.gzipRequest, response, true);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public CachedResponse lookup() {
+        CachedResponse cachedResponse = this.responseCache.get(this.responseCache.getCacheKey(this.request));
+        cachedResponse.release();
+        return cachedResponse;
+    }
+
+    @Benchmark
+    public void put() {
+        this.next = (this.next + 1) % this.keys.length;
+        this.responseCache.put(this.keys[this.next], newResponse());
+    }
+
+    private CachedResponse newResponse() {
+        return new CachedResponse(200, "application/json", "max-age=3600", null, this.body,
+            TimeUnit.HOURS.toNanos(1), 0);
+    }
+}
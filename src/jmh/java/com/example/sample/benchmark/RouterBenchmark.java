@@ -0,0 +1,98 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.ReverseProxyConfigurations;
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.routing.Route;
+import com.example.sample.routing.Router;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RouterBenchmark measures matching a request against a routing table of 1000 and 10000 routes
+ *
+ * routes are /api/v{0-9}/resource{n}/** and exact /api/v{0-9}/resource{n}/items, every tenth one bound to a host and
+ * every fifth one to GET|HEAD, so the trie is wide at the third segment and the matched route is filtered by host and method
+ *
+ * match() - a request of a route picked out of REQUESTS of them, matched below its prefix route(/api/v1/resource7/orders/42)
+ * exact() - a request matching an exact route
+ * miss()  - a request no route matches, it stops at the second segment
+ * gc.alloc.rate.norm of -prof gc shows a match allocates nothing
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="RouterBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+    private static final int REQUESTS = 1024;
+    private static final String HOST = "api.example.com";
+
+    @Param({"1000", "10000"})
+    private int routes;
+
+    private AnnotationConfigApplicationContext context;
+    private Router router;
+    private MockHttpServletRequest[] requests;
+    private MockHttpServletRequest exactRequest;
+    private MockHttpServletRequest missRequest;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.context = new AnnotationConfigApplicationContext(ReverseProxyConfigurations.class, HostIndex.class);
+        StringJoiner definitions = new StringJoiner(",");
+        for(int i = 0; i < this.routes / 2; i++) {
+            String path = "/api/v" + (i % 10) + "/resource" + i;
+            String methods = i % 5 == 0 ? "GET|HEAD " : "";
+            String host = i % 10 == 0 ? HOST : "";
+            definitions.add(methods + host + path + "/**=service" + (i % 50));
+            definitions.add(path + "/items=service" + (i % 50));
+        }
+        this.router = new Router(this.context.getBean(HostIndex.class), definitions.toString(), true);
+        this.requests = new MockHttpServletRequest[REQUESTS];
+        for(int i = 0; i < REQUESTS; i++) {
+            int route = (int) ((i * 2654435761L) % (this.routes / 2));
+            this.requests[i] = newRequest("/api/v" + (route % 10) + "/resource" + route + "/orders/" + i);
+        }
+        this.exactRequest = newRequest("/api/v3/resource3/items");
+        this.missRequest = newRequest("/static/js/app.js");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public Route match() {
+        this.next = (this.next + 1) & (REQUESTS - 1);
+        return this.router.route(this.requests[this.next]);
+    }
+
+    @Benchmark
+    public Route exact() {
+        return this.router.route(this.exactRequest);
+    }
+
+    @Benchmark
+    public Route miss() {
+        return this.router.route(this.missRequest);
+    }
+
+    //MockHttpServletRequest looks the Host header up in a case insensitive map which lower-cases the name, Tomcat does not
+    private static MockHttpServletRequest newRequest(String uri) {
+        return new MockHttpServletRequest("GET", uri) {
+            @Override
+            public String getServerName() {
+                return HOST;
+            }
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.sample.benchmark;
+
+import com.example.sample.ReverseProxyConfigurations;
+import com.example.sample.loadBalance.ConsistentHashSelector;
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.loadBalance.HostStateRegistry;
+import com.example.sample.loadBalance.LeastOutstandingRequests;
+import com.example.sample.loadBalance.PowerOfTwoChoices;
+import com.example.sample.loadBalance.RandomForward;
+import com.example.sample.loadBalance.RoundRobin;
+import com.example.sample.loadBalance.RoundRobinSelector;
+import com.example.sample.loadBalance.SmoothWeightedRoundRobin;
+import com.example.sample.model.Host;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ * SelectorBenchmark measures host selection throughput of every load-balancing strategy at 1, 8 and 64 threads
+ * over hostList of application.properties. No request is in flight so every host has capacity.
+ * consistentHash looks up keys drawn at random out of 1024 user ids.
+ * legacyRoundRobin is the former RoundRobin as a baseline for roundRobin. Its cycling iterator and Multiset are not
+ * thread-safe so every pick holds its monitor, and its threshold is lifted so no host is ever reported busy.
+ *
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="SelectorBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectorBenchmark {
+    //keys of consistentHash e.g. user ids
+    private static final String[] KEYS = new String[1024];
+
+    static {
+        for(int i = 0; i < KEYS.length; i++) {
+            KEYS[i] = "user-" + i;
+        }
+    }
+
+    @Param({"roundRobin", "legacyRoundRobin", "random", "leastOutstanding", "powerOfTwo", "weightedRoundRobin", "consistentHash"})
+    private String strategy;
+
+    private AnnotationConfigApplicationContext context;
+    private Function<String, Host> selector;
+    private String serviceName;
+
+    @Setup
+    public void setUp() {
+        this.context = new AnnotationConfigApplicationContext(ReverseProxyConfigurations.class, HostIndex.class,
+            HostStateRegistry.class, RoundRobinSelector.class, RandomForward.class, LeastOutstandingRequests.class,
+            PowerOfTwoChoices.class, SmoothWeightedRoundRobin.class, ConsistentHashSelector.class);
+        this.serviceName = ((List<Host>) this.context.getBean("hostList")).get(0).getServiceName();
+        switch(this.strategy) {
+            case "roundRobin":
+                this.selector = this.context.getBean(RoundRobinSelector.class)::getHostUsingRoundRobin;
+                break;
+            case "legacyRoundRobin":
+                RoundRobin roundRobin = new RoundRobin((List<Host>) this.context.getBean("hostList"), Integer.MAX_VALUE);
+                this.selector = serviceName -> {
+                    synchronized(roundRobin) {
+                        return roundRobin.getHostUsingRoundRobin(serviceName);
+                    }
+                };
+                break;
+            case "random":
+                this.selector = this.context.getBean(RandomForward.class)::getRandomlySelectedHost;
+                break;
+            case "leastOutstanding":
+                this.selector = this.context.getBean(LeastOutstandingRequests.class)::getLeastLoadedHost;
+                break;
+            case "powerOfTwo":
+                this.selector = this.context.getBean(PowerOfTwoChoices.class)::getHostUsingPowerOfTwoChoices;
+                break;
+            case "weightedRoundRobin":
+                this.selector = this.context.getBean(SmoothWeightedRoundRobin.class)::getHostUsingWeightedRoundRobin;
+                break;
+            case "consistentHash":
+                ConsistentHashSelector consistentHashSelector = this.context.getBean(ConsistentHashSelector.class);
+                this.selector = serviceName -> consistentHashSelector.getHostUsingConsistentHash(serviceName,
+                    KEYS[ThreadLocalRandom.current().nextInt(KEYS.length)]);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown strategy " + this.strategy);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Host select1Thread() {
+        return this.selector.apply(this.serviceName);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Host select8Threads() {
+        return this.selector.apply(this.serviceName);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Host select64Threads() {
+        return this.selector.apply(this.serviceName);
+    }
+}
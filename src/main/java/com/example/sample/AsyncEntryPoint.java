@@ -0,0 +1,109 @@
+package com.example.sample;
+
+import com.example.sample.cache.ResponseCache;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.rateLimit.RateLimiter;
+import com.example.sample.model.Host;
+import com.example.sample.reverseProxy.ReverseProxy;
+import com.example.sample.reverseProxy.SingleFlightForwarder;
+import com.example.sample.routing.Route;
+import com.example.sample.routing.Router;
+import com.google.common.collect.ImmutableMap;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * AsyncEntryPoint replaces EntryPoint when proxy.async.enabled=true
+ *
+ * Same routing(Router) and rate limiting(RateLimiter) as EntryPoint but the Tomcat worker thread is given back as soon as
+ * the upstream call is sent. Handler returns CompletableFuture, Spring puts the request in Servlet async mode and writes
+ * the response once the future completes on a thread of AsyncUpstreamClient. Number of requests in flight is then bounded
+ * by ConcurrencyLimiter and not by Tomcat's thread pool.
+ *
+ * Body of upstream-server is read into memory(no streaming relay), cacheable requests go through SingleFlightForwarder.
+ * A request body is streamed upstream by a thread of AsyncUpstreamClient while it is read from the client.
+ * spring.mvc.async.request-timeout bounds how long a request may stay in async mode.
+ *
+ * proxy.request of ProxyMetrics is recorded when the returned future completes.
+ *
+ */
+@Log4j2
+@RestController
+@ConditionalOnProperty(name = "proxy.async.enabled", havingValue = "true")
+public class AsyncEntryPoint {
+
+    private Map<String, ReverseProxy> reverseProxyMap;
+    private ResponseCache responseCache;
+    private SingleFlightForwarder singleFlightForwarder;
+    private Router router;
+    private RateLimiter rateLimiter;
+    private ProxyMetrics proxyMetrics;
+    private String defaultProxyType;
+    private String[] proxyTypes;
+
+    @Autowired
+    public AsyncEntryPoint(List<ReverseProxy> reverseProxies, ResponseCache responseCache,
+        SingleFlightForwarder singleFlightForwarder, Router router, RateLimiter rateLimiter, ProxyMetrics proxyMetrics,
+        @Value("${proxy.routing.defaultProxyType:roundRobin}") String defaultProxyType) {
+        this.reverseProxyMap = ImmutableMap.copyOf(reverseProxies.stream()
+            .collect(Collectors.toMap(ReverseProxy::getProxyType, Function.identity())));
+        this.proxyTypes = this.reverseProxyMap.keySet().toArray(new String[0]);
+        this.responseCache = responseCache;
+        this.singleFlightForwarder = singleFlightForwarder;
+        this.router = router;
+        this.rateLimiter = rateLimiter;
+        this.proxyMetrics = proxyMetrics;
+        this.defaultProxyType = defaultProxyType;
+    }
+
+    @RequestMapping(value="/**")
+    public CompletableFuture<ResponseEntity<byte[]>> getServiceResponse(HttpServletRequest headers) {
+        log.debug("inside getStatus method");
+        long start = System.nanoTime();
+        ReverseProxy reverseProxy = this.reverseProxyMap.get(EntryPoint.getProxyType(headers.getQueryString(),
+            this.defaultProxyType, this.proxyTypes));
+        if(reverseProxy == null) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        Route route = this.router.route(headers);
+        this.proxyMetrics.recordRouteMatch(System.nanoTime() - start);
+        if(route == null) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        }
+        this.rateLimiter.check(headers, route);
+        CompletableFuture<ResponseEntity<byte[]>> result;
+        try {
+            if(this.responseCache.isCacheable(headers)) {
+                result = this.singleFlightForwarder.serveAsync(reverseProxy, headers);
+            } else {
+                Host host = reverseProxy.getHost(headers);
+                result = reverseProxy.runReverseProxyAsync(host, headers);
+            }
+        } catch(RuntimeException e) {
+            //e.g. shed before any upstream call was sent
+            this.proxyMetrics.recordRequest(route.getServiceName(), reverseProxy.getProxyType(), System.nanoTime() - start);
+            throw e;
+        }
+        return result.whenComplete((response, e) ->
+            this.proxyMetrics.recordRequest(route.getServiceName(), reverseProxy.getProxyType(), System.nanoTime() - start));
+    }
+
+    @RequestMapping(value="/",method= RequestMethod.GET)
+    public ResponseEntity getService(HttpServletRequest headers) {
+        log.debug("inside getStatus method");
+        String success = "Hello!!";
+        return new ResponseEntity(success, HttpStatus.OK);
+    }
+}
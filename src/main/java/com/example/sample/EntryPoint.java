@@ -1,57 +1,151 @@
 package com.example.sample;
 
+import com.example.sample.cache.ResponseCache;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.rateLimit.RateLimiter;
 import com.example.sample.model.Host;
 import com.example.sample.reverseProxy.ReverseProxy;
+import com.example.sample.reverseProxy.SingleFlightForwarder;
+import com.example.sample.routing.Route;
+import com.example.sample.routing.Router;
+import com.google.common.collect.ImmutableMap;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /*
- * RestController is to map all GET/POST requests to all apis available. In this project one api is included which is "/my-service/my-company"
- * for the sake of simplicity only GET method is considered. It can be extended to POST/DELETE/PATCH requests as well.
+ * RestController maps requests of every path and method, Router decides which service a request goes to by its path, Host
+ * header and method(proxy.routes, and /serviceName/** for every service). A request no route matches gets 404.
+ * Every method is passed upstream with its headers, query string and body(UpstreamRequest), the body is streamed.
  *
  * HttpServletRequest is used for all header fields such as content-type, request_uri, method-type(GET/POST etc.), HTTP scheme such as according to project
  * requirement HTTP/1.1 is supported.
  *
- * proxyType QueryParam is kept to choose reverse-proxy strategy either to be roundRobin or random
+ * proxyType QueryParam is kept to choose reverse-proxy strategy, it can be roundRobin, random, leastOutstanding, powerOfTwo,
+ * weightedRoundRobin or consistentHash
+ * every ReverseProxy bean is registered under its getProxyType(), proxy.routing.defaultProxyType is used if it is not sent.
+ * It is read from the query string itself, getParameter() would read a form body which is to be streamed upstream.
+ * A proxyType no ReverseProxy is registered under gets 400 Bad Request.
+ *
+ * proxy.relay.mode decides how response of upstream-server is sent back
+ * streaming - body is streamed straight to the client, memory used stays the same no matter how big the body is
+ * buffered  - body is read into memory
+ *
+ * a GET request goes through SingleFlightForwarder, it is first looked up in ResponseCache(CachedSites) and on a hit no Host
+ * is selected at all. On a miss concurrent identical requests share a single upstream call.
+ *
+ * a Tomcat worker thread is blocked for the whole upstream call, AsyncEntryPoint takes over when proxy.async.enabled=true
+ *
+ * A routed request is admitted by RateLimiter(proxy.rateLimit.*) first, one over the limit of its client or route gets 429.
+ *
+ * Route match(proxy.route.match) and the whole request of a routed service(proxy.request) are timed in ProxyMetrics.
  *
  */
 @Log4j2
 @RestController
+@ConditionalOnProperty(name = "proxy.async.enabled", havingValue = "false", matchIfMissing = true)
 public class EntryPoint {
 
-    private ReverseProxy roundRobinReverseProxy;
-    private ReverseProxy randomReverseProxy;
+    private static final String STREAMING_RELAY_MODE = "streaming";
+    private static final String PROXY_TYPE_PARAMETER = "proxyType=";
+    private Map<String, ReverseProxy> reverseProxyMap;
+    private String[] proxyTypes;
+    private boolean streaming;
+    private ResponseCache responseCache;
+    private SingleFlightForwarder singleFlightForwarder;
+    private Router router;
+    private RateLimiter rateLimiter;
+    private ProxyMetrics proxyMetrics;
+    private String defaultProxyType;
 
     @Autowired
-    public EntryPoint(@Qualifier("roundRobinReverseProxy") ReverseProxy roundRobinReverseProxy,
-        @Qualifier("randomForwardReverseProxy") ReverseProxy randomReverseProxy){
-        this.roundRobinReverseProxy = roundRobinReverseProxy;
-        this.randomReverseProxy = randomReverseProxy;
+    public EntryPoint(List<ReverseProxy> reverseProxies, ResponseCache responseCache, SingleFlightForwarder singleFlightForwarder,
+        Router router, RateLimiter rateLimiter, ProxyMetrics proxyMetrics, @Value("${proxy.relay.mode:streaming}") String relayMode,
+        @Value("${proxy.routing.defaultProxyType:roundRobin}") String defaultProxyType){
+        this.reverseProxyMap = ImmutableMap.copyOf(reverseProxies.stream()
+            .collect(Collectors.toMap(ReverseProxy::getProxyType, Function.identity())));
+        this.proxyTypes = this.reverseProxyMap.keySet().toArray(new String[0]);
+        this.streaming = STREAMING_RELAY_MODE.equals(relayMode);
+        this.responseCache = responseCache;
+        this.singleFlightForwarder = singleFlightForwarder;
+        this.router = router;
+        this.rateLimiter = rateLimiter;
+        this.proxyMetrics = proxyMetrics;
+        this.defaultProxyType = defaultProxyType;
+    }
+    @RequestMapping(value="/**")
+    public ResponseEntity getServiceResponse(HttpServletRequest headers, HttpServletResponse response) throws IOException {
+        log.debug("inside getStatus method");
+        long start = System.nanoTime();
+        ReverseProxy reverseProxy = this.reverseProxyMap.get(getProxyType(headers.getQueryString(), this.defaultProxyType,
+            this.proxyTypes));
+        if(reverseProxy == null) {
+            return new ResponseEntity(HttpStatus.BAD_REQUEST);
+        }
+        Route route = this.router.route(headers);
+        this.proxyMetrics.recordRouteMatch(System.nanoTime() - start);
+        if(route == null) {
+            return new ResponseEntity(HttpStatus.NOT_FOUND);
+        }
+        this.rateLimiter.check(headers, route);
+        try {
+            //response is already written by SingleFlightForwarder or relayReverseProxy() when null is returned
+            if(this.responseCache.isCacheable(headers)) {
+                this.singleFlightForwarder.serve(reverseProxy, headers, response, this.streaming);
+                return null;
+            }
+
+            Host host = reverseProxy.getHost(headers);
+            if(this.streaming) {
+                reverseProxy.relayReverseProxy(host, headers, response);
+                return null;
+            }
+            return reverseProxy.runReverseProxy(host, headers);
+        } finally {
+            this.proxyMetrics.recordRequest(route.getServiceName(), reverseProxy.getProxyType(), System.nanoTime() - start);
+        }
     }
-    @GetMapping(value="/my-reverse-proxy-service")
-    public ResponseEntity getServiceResponse(HttpServletRequest headers, @RequestParam String proxyType) throws IOException {
-        log.info("inside getStatus method");
-        if(proxyType.equals("roundRobin")) {
-            Host host =  this.roundRobinReverseProxy.getHost(headers);
-            return this.roundRobinReverseProxy.runReverseProxy(host);
-        } else if(proxyType.equals("random")) {
-            Host host =  this.randomReverseProxy.getHost(headers);
-            return this.randomReverseProxy.runReverseProxy(host);
-        } else
-            return new ResponseEntity(HttpStatus.OK);
 
+    /*
+     * value of proxyType in the query string, defaultProxyType if it is not sent. A value which is one of proxyTypes is
+     * returned as that String, the query string is scanned in place so a request allocates nothing here.
+     */
+    static String getProxyType(String queryString, String defaultProxyType, String[] proxyTypes) {
+        if(queryString == null) {
+            return defaultProxyType;
+        }
+        for(int start = 0; start < queryString.length(); ) {
+            int end = queryString.indexOf('&', start);
+            end = end < 0 ? queryString.length() : end;
+            if(queryString.startsWith(PROXY_TYPE_PARAMETER, start)) {
+                int valueStart = start + PROXY_TYPE_PARAMETER.length();
+                for(String proxyType: proxyTypes) {
+                    if(proxyType.length() == end - valueStart && queryString.startsWith(proxyType, valueStart)) {
+                        return proxyType;
+                    }
+                }
+                return queryString.substring(valueStart, end);
+            }
+            start = end + 1;
+        }
+        return defaultProxyType;
     }
 
     @RequestMapping(value="/",method= RequestMethod.GET)
     public ResponseEntity getService(HttpServletRequest headers) throws IOException {
-        log.info("inside getStatus method");
+        log.debug("inside getStatus method");
         String success = "Hello!!";
         return new ResponseEntity(success, HttpStatus.OK);
     }
@@ -0,0 +1,62 @@
+package com.example.sample;
+
+import com.example.sample.loadBalance.ServiceOverloadedException;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.rateLimit.RateLimitedException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/*
+ * ProxyExceptionHandler turns errors of the reverse-proxy into HTTP responses
+ *
+ * ServiceOverloadedException - all nodes of a service are busy, 503 Service Unavailable is sent right away along with
+ * Retry-After header(proxy.limit.retryAfterSeconds) so that clients back off instead of retrying immediately.
+ * Shed requests are counted as proxy.requests.shed of the service in ProxyMetrics.
+ *
+ * RateLimitedException - a token bucket of the client or route is empty(RateLimiter), 429 Too Many Requests is sent with
+ * RateLimit-Limit(burst of the bucket), RateLimit-Remaining(0) and RateLimit-Reset/Retry-After(seconds till a token is back)
+ * of the IETF RateLimit header fields draft. Rejected requests are counted as proxy.requests.limited in ProxyMetrics.
+ */
+@Log4j2
+@RestControllerAdvice
+public class ProxyExceptionHandler {
+    static final String RATE_LIMIT_LIMIT = "RateLimit-Limit";
+    static final String RATE_LIMIT_REMAINING = "RateLimit-Remaining";
+    static final String RATE_LIMIT_RESET = "RateLimit-Reset";
+
+    private final String retryAfterSeconds;
+    private final ProxyMetrics proxyMetrics;
+
+    @Autowired
+    public ProxyExceptionHandler(ProxyMetrics proxyMetrics, @Value("${proxy.limit.retryAfterSeconds:1}") int retryAfterSeconds) {
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity handleServiceOverloaded(ServiceOverloadedException e) {
+        log.debug("shedding request of service {}", e.getServiceName());
+        this.proxyMetrics.recordShed(e.getServiceName());
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.set(HttpHeaders.RETRY_AFTER, this.retryAfterSeconds);
+        return new ResponseEntity(httpHeaders, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler(RateLimitedException.class)
+    public ResponseEntity handleRateLimited(RateLimitedException e) {
+        this.proxyMetrics.recordLimited(e.getServiceName(), e.getScope());
+        String resetSeconds = String.valueOf(e.getResetSeconds());
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.set(RATE_LIMIT_LIMIT, String.valueOf(e.getLimit()));
+        httpHeaders.set(RATE_LIMIT_REMAINING, "0");
+        httpHeaders.set(RATE_LIMIT_RESET, resetSeconds);
+        httpHeaders.set(HttpHeaders.RETRY_AFTER, resetSeconds);
+        return new ResponseEntity(httpHeaders, HttpStatus.TOO_MANY_REQUESTS);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.sample.cache;
+
+import com.example.sample.compression.ContentEncoding;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * CachedResponse is a response of upstream-server kept in CachedSites
+ *
+ * Only what is sent back to the client is kept: status, Content-Type, Cache-Control, Vary, the other end-to-end headers of
+ * upstream-server(headers e.g. Location, ETag) and the body. Content-Length is that of the body, except for a response to HEAD
+ * whose headers keep Content-Length of upstream-server as it has no body.
+ * expiresAtNanos is computed from Cache-Control/Expires of upstream-server when the response is stored, till staleUntilNanos
+ * the response can still be served while it is being revalidated. A response which must not be cached(cacheable = false)
+ * is only shared with requests which were waiting for the same upstream fetch.
+ *
+ * Body compressed with a ContentEncoding is kept next to the identity body once ResponseCompressor has made it, a client
+ * accepting that encoding is sent it as it is. Such a response varies on Accept-Encoding, a strong ETag is weakened for the
+ * encoded body as it is not the same bytes.
+ */
+@Getter
+public class CachedResponse {
+    private final int status;
+    private final String contentType;
+    private final String cacheControl;
+    private final String vary;
+    private final HttpHeaders headers;
+    private final byte[] body;
+    private final boolean cacheable;
+    private final long storedAtNanos;
+    private final long expiresAtNanos;
+    private final long staleUntilNanos;
+    @Getter(AccessLevel.NONE)
+    private final AtomicReferenceArray<byte[]> encodedBodies = new AtomicReferenceArray<>(ContentEncoding.values().length);
+
+    public CachedResponse(int status, String contentType, String cacheControl, String vary, byte[] body,
+        long timeToLiveNanos, long staleNanos) {
+        this(status, contentType, cacheControl, vary, HttpHeaders.EMPTY, body, timeToLiveNanos, staleNanos);
+    }
+
+    public CachedResponse(int status, String contentType, String cacheControl, String vary, HttpHeaders headers, byte[] body,
+        long timeToLiveNanos, long staleNanos) {
+        this.status = status;
+        this.contentType = contentType;
+        this.cacheControl = cacheControl;
+        this.vary = vary;
+        this.headers = headers;
+        this.body = body;
+        this.cacheable = timeToLiveNanos > 0;
+        this.storedAtNanos = System.nanoTime();
+        this.expiresAtNanos = this.storedAtNanos + Math.max(0, timeToLiveNanos);
+        this.staleUntilNanos = this.expiresAtNanos + Math.max(0, staleNanos);
+    }
+
+    //response kept elsewhere e.g. by OffHeapStore, with the times it was stored with
+    protected CachedResponse(int status, String contentType, String cacheControl, String vary, HttpHeaders headers, byte[] body,
+        long storedAtNanos, long expiresAtNanos, long staleUntilNanos) {
+        this.status = status;
+        this.contentType = contentType;
+        this.cacheControl = cacheControl;
+        this.vary = vary;
+        this.headers = headers;
+        this.body = body;
+        this.cacheable = expiresAtNanos - storedAtNanos > 0;
+        this.storedAtNanos = storedAtNanos;
+        this.expiresAtNanos = expiresAtNanos;
+        this.staleUntilNanos = staleUntilNanos;
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return nowNanos - this.expiresAtNanos >= 0;
+    }
+
+    //hands a response returned by ResponseCache.get() back once it has been written, nothing to do for an on-heap response
+    public void release() {
+    }
+
+    //body compressed with encoding or null if it has not been compressed with it(yet)
+    public byte[] getEncodedBody(ContentEncoding encoding) {
+        return this.encodedBodies.get(encoding.ordinal());
+    }
+
+    public void setEncodedBody(ContentEncoding encoding, byte[] encodedBody) {
+        this.encodedBodies.set(encoding.ordinal(), encodedBody);
+    }
+
+    //bytes of the encoded bodies, they are weighed along with the body in ResponseCache
+    public int getEncodedBytes() {
+        int encodedBytes = 0;
+        for(int i = 0; i < this.encodedBodies.length(); i++) {
+            byte[] encodedBody = this.encodedBodies.get(i);
+            encodedBytes += encodedBody == null ? 0 : encodedBody.length;
+        }
+        return encodedBytes;
+    }
+
+    public void writeTo(HttpServletResponse response) throws IOException {
+        writeTo(response, null);
+    }
+
+    //accepted - encoding negotiated with the client or null, identity body is written if it has not been compressed with it
+    public void writeTo(HttpServletResponse response, ContentEncoding accepted) throws IOException {
+        byte[] encodedBody = accepted == null ? null : getEncodedBody(accepted);
+        response.setStatus(this.status);
+        this.headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name,
+            encodedBody != null ? weakenETag(name, value) : value)));
+        if(this.contentType != null) {
+            response.setHeader(HttpHeaders.CONTENT_TYPE, this.contentType);
+        }
+        if(this.cacheControl != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, this.cacheControl);
+        }
+        if(getEncodedBytes() > 0) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        response.setHeader(HttpHeaders.AGE, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.storedAtNanos)));
+        byte[] body = this.body;
+        if(encodedBody != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, accepted.getToken());
+            body = encodedBody;
+        }
+        if(!this.headers.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+            response.setContentLength(body.length);
+        }
+        response.getOutputStream().write(body);
+    }
+
+    //same response as writeTo() for a handler which hands its response back to Spring e.g. asynchronously
+    public ResponseEntity<byte[]> toResponseEntity() {
+        return toResponseEntity(null);
+    }
+
+    public ResponseEntity<byte[]> toResponseEntity(ContentEncoding accepted) {
+        byte[] encodedBody = accepted == null ? null : getEncodedBody(accepted);
+        HttpHeaders httpHeaders = new HttpHeaders();
+        this.headers.forEach((name, values) -> values.forEach(value -> httpHeaders.add(name,
+            encodedBody != null ? weakenETag(name, value) : value)));
+        if(this.contentType != null) {
+            httpHeaders.set(HttpHeaders.CONTENT_TYPE, this.contentType);
+        }
+        if(this.cacheControl != null) {
+            httpHeaders.setCacheControl(this.cacheControl);
+        }
+        if(getEncodedBytes() > 0) {
+            httpHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        httpHeaders.set(HttpHeaders.AGE, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.storedAtNanos)));
+        byte[] body = this.body;
+        if(encodedBody != null) {
+            httpHeaders.set(HttpHeaders.CONTENT_ENCODING, accepted.getToken());
+            body = encodedBody;
+        }
+        if(!httpHeaders.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+            httpHeaders.setContentLength(body.length);
+        }
+        return ResponseEntity.status(this.status).headers(httpHeaders).body(body);
+    }
+
+    //ETag of an encoded body, its bytes differ from the identity body the strong ETag was given to
+    public static String weakenETag(String name, String value) {
+        return HttpHeaders.ETAG.equalsIgnoreCase(name) && !value.startsWith("W/") ? "W/" + value : value;
+    }
+}
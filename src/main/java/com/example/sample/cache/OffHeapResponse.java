@@ -0,0 +1,192 @@
+package com.example.sample.cache;
+
+import com.example.sample.compression.ContentEncoding;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/*
+ * OffHeapResponse is the on-heap index entry of a response kept by OffHeapStore
+ *
+ * It holds where the record is(slab, generation of the slab it was written in and offset) along with status and times, its
+ * headers and bodies stay in the slab. getHeaders(), getBody() and the other fields of CachedResponse are not filled, the
+ * response is only written with writeTo()/toResponseEntity() while ResponseCache.get() keeps its slab pinned.
+ *
+ * writeTo() hands the body to Tomcat as a ByteBuffer view of the slab, it is copied into the socket buffer straight from
+ * off-heap memory without a byte[] in between. toResponseEntity() has to copy the body into a byte[].
+ */
+public final class OffHeapResponse extends CachedResponse {
+    private static final int COPY_CHUNK_BYTES = 8192;
+
+    private final OffHeapStore.Slab slab;
+    private final int generation;
+    private final int offset;
+    private volatile boolean accessed;
+
+    OffHeapResponse(OffHeapStore.Slab slab, int generation, int offset, int status, long storedAtNanos, long expiresAtNanos,
+        long staleUntilNanos) {
+        super(status, null, null, null, HttpHeaders.EMPTY, null, storedAtNanos, expiresAtNanos, staleUntilNanos);
+        this.slab = slab;
+        this.generation = generation;
+        this.offset = offset;
+    }
+
+    OffHeapStore.Slab getSlab() {
+        return this.slab;
+    }
+
+    int getGeneration() {
+        return this.generation;
+    }
+
+    int getOffset() {
+        return this.offset;
+    }
+
+    boolean isAccessed() {
+        return this.accessed;
+    }
+
+    void markAccessed() {
+        if(!this.accessed) {
+            this.accessed = true;
+        }
+    }
+
+    //same entry for the record copied to offset of slab
+    OffHeapResponse moveTo(OffHeapStore.Slab slab, int generation, int offset) {
+        return new OffHeapResponse(slab, generation, offset, getStatus(), getStoredAtNanos(), getExpiresAtNanos(),
+            getStaleUntilNanos());
+    }
+
+    @Override
+    public void release() {
+        this.slab.unpin();
+    }
+
+    @Override
+    public void writeTo(HttpServletResponse response, ContentEncoding accepted) throws IOException {
+        Record record = new Record(this.slab.buffer, this.offset, accepted);
+        response.setStatus(getStatus());
+        record.forEachHeader(response::addHeader);
+        if(record.contentType != null) {
+            response.setHeader(HttpHeaders.CONTENT_TYPE, record.contentType);
+        }
+        if(record.cacheControl != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, record.cacheControl);
+        }
+        if(record.encodedCount > 0) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        response.setHeader(HttpHeaders.AGE, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - getStoredAtNanos())));
+        if(record.isEncoded()) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, accepted.getToken());
+        }
+        response.setContentLength(record.bodyLength);
+        ByteBuffer body = this.slab.buffer.duplicate();
+        body.position(record.bodyPosition);
+        body.limit(record.bodyPosition + record.bodyLength);
+        OutputStream outputStream = response.getOutputStream();
+        if(outputStream instanceof CoyoteOutputStream) {
+            ((CoyoteOutputStream) outputStream).write(body);
+            return;
+        }
+        byte[] chunk = new byte[Math.min(COPY_CHUNK_BYTES, record.bodyLength)];
+        while(body.hasRemaining()) {
+            int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            outputStream.write(chunk, 0, length);
+        }
+    }
+
+    @Override
+    public ResponseEntity<byte[]> toResponseEntity(ContentEncoding accepted) {
+        Record record = new Record(this.slab.buffer, this.offset, accepted);
+        HttpHeaders httpHeaders = new HttpHeaders();
+        record.forEachHeader(httpHeaders::add);
+        if(record.contentType != null) {
+            httpHeaders.set(HttpHeaders.CONTENT_TYPE, record.contentType);
+        }
+        if(record.cacheControl != null) {
+            httpHeaders.setCacheControl(record.cacheControl);
+        }
+        if(record.encodedCount > 0) {
+            httpHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        httpHeaders.set(HttpHeaders.AGE, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - getStoredAtNanos())));
+        if(record.isEncoded()) {
+            httpHeaders.set(HttpHeaders.CONTENT_ENCODING, accepted.getToken());
+        }
+        byte[] body = new byte[record.bodyLength];
+        ByteBuffer source = this.slab.buffer.duplicate();
+        source.position(record.bodyPosition);
+        source.get(body);
+        httpHeaders.setContentLength(body.length);
+        return ResponseEntity.status(getStatus()).headers(httpHeaders).body(body);
+    }
+
+    //positions of the fields of a record, the body is the one compressed with accepted if the record has it
+    private static final class Record {
+        private final ByteBuffer buffer;
+        private final String contentType;
+        private final String cacheControl;
+        private final int headerCount;
+        private final int headersPosition;
+        private final int encodedCount;
+        private int bodyPosition;
+        private int bodyLength;
+        private boolean encoded;
+
+        private Record(ByteBuffer buffer, int offset, ContentEncoding accepted) {
+            this.buffer = buffer;
+            int position = OffHeapStore.skipString(buffer, offset + OffHeapStore.RECORD_HEADER_BYTES + OffHeapStore.TIMES_BYTES);
+            this.contentType = OffHeapStore.readString(buffer, position);
+            position = OffHeapStore.skipString(buffer, position);
+            this.cacheControl = OffHeapStore.readString(buffer, position);
+            position = OffHeapStore.skipString(buffer, position);
+            this.headerCount = buffer.getInt(position);
+            position += Integer.BYTES;
+            this.headersPosition = position;
+            for(int i = 0; i < 2 * this.headerCount; i++) {
+                position = OffHeapStore.skipString(buffer, position);
+            }
+            this.bodyLength = buffer.getInt(position);
+            this.bodyPosition = position + Integer.BYTES;
+            position = this.bodyPosition + this.bodyLength;
+            this.encodedCount = buffer.getInt(position);
+            position += Integer.BYTES;
+            for(int i = 0; i < this.encodedCount; i++) {
+                int length = buffer.getInt(position + 1);
+                if(accepted != null && buffer.get(position) == accepted.ordinal()) {
+                    this.bodyPosition = position + 1 + Integer.BYTES;
+                    this.bodyLength = length;
+                    this.encoded = true;
+                }
+                position += 1 + Integer.BYTES + length;
+            }
+        }
+
+        private boolean isEncoded() {
+            return this.encoded;
+        }
+
+        //ETag is weakened for a compressed body as CachedResponse does
+        private void forEachHeader(BiConsumer<String, String> header) {
+            int position = this.headersPosition;
+            for(int i = 0; i < this.headerCount; i++) {
+                String name = OffHeapStore.readString(this.buffer, position);
+                position = OffHeapStore.skipString(this.buffer, position);
+                String value = OffHeapStore.readString(this.buffer, position);
+                position = OffHeapStore.skipString(this.buffer, position);
+                header.accept(name, this.encoded ? weakenETag(name, value) : value);
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.example.sample.cache;
+
+import com.example.sample.compression.ContentEncoding;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * OffHeapStore keeps cached responses outside of the Java heap for ResponseCache(proxy.cache.store=offHeap or mapped)
+ *
+ * Memory is split into slabs of proxy.cache.offHeap.slabBytes, direct ByteBuffers allocated when they are first used or
+ * regions of a memory-mapped file(proxy.cache.offHeap.file). A response(key, status, headers, body and its compressed
+ * bodies) is serialized as one record appended to the head slab, the on-heap index only maps the key to an OffHeapResponse
+ * holding slab, generation and offset of the record. Old gen holds a few small objects per entry no matter how big the
+ * bodies are, so it does not grow with the cache and GC has nothing to copy or mark in the bodies.
+ *
+ * When the head slab is full the slab written longest ago is reclaimed as a whole: its records are dropped from the index
+ * and its generation is incremented so entries still pointing into it miss. With proxy.cache.offHeap.eviction=secondChance
+ * records which have been hit since they were written are copied to the start of the reclaimed slab instead(up to half of it)
+ * and get another round, fifo drops every record of the slab.
+ *
+ * A hit pins its slab while the body is written to the client and release() unpins it, a slab is reclaimed only while
+ * nothing pins it(pins is set to RECLAIMING by a compareAndSet from 0) so a record is never overwritten while it is read.
+ * A pinned slab is skipped, if every slab is pinned the response is not stored. Writers take the allocation lock only to
+ * reserve space in the head slab, records are copied in without it.
+ *
+ * Record layout, the magic is written last so a record is complete once it is found
+ * int magic, int length, long storedAtMillis, long expiresAtMillis, long staleUntilMillis, int status,
+ * string key, string contentType, string cacheControl, int headerCount, (string name, string value) * headerCount,
+ * int bodyLength, body, int encodedCount, (byte encoding, int length, bytes) * encodedCount
+ * a string is int length(-1 for null) followed by its UTF-8 bytes
+ *
+ * Times are kept as wall clock millis so a memory-mapped file can be read again after a restart, the records which are
+ * still within their stale-while-revalidate window are put back in the index. The file is forced to disk on close(),
+ * records written right before a crash may be lost.
+ */
+@Log4j2
+final class OffHeapStore implements Closeable {
+    static final int MAGIC = 0x43534954;
+    static final int RECORD_HEADER_BYTES = 8;
+    static final int TIMES_BYTES = 3 * Long.BYTES + Integer.BYTES;
+    private static final int SLAB_HEADER_BYTES = 8;
+    private static final int RECLAIMING = -1;
+
+    private final int slabBytes;
+    private final Slab[] slabs;
+    private final boolean secondChance;
+    private final FileChannel channel;
+    private final Map<String, OffHeapResponse> index = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    //guarded by this
+    private Slab head;
+    private long nextSequence = 1;
+
+    OffHeapStore(long maxBytes, int slabBytes, Path file, boolean secondChance) {
+        this.slabBytes = slabBytes;
+        this.slabs = new Slab[(int) Math.max(2, maxBytes / slabBytes)];
+        this.secondChance = secondChance;
+        try {
+            this.channel = file == null ? null : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            for(int i = 0; i < this.slabs.length; i++) {
+                this.slabs[i] = new Slab(i, this.channel == null ? null
+                    : this.channel.map(FileChannel.MapMode.READ_WRITE, (long) i * slabBytes, slabBytes));
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException("cache file " + file + " can not be mapped", e);
+        }
+        if(this.channel != null) {
+            recover();
+        }
+    }
+
+    /*
+     * entry of the key which is fresh or still within its stale-while-revalidate window with its slab pinned,
+     * it has to be released after it has been written. null otherwise
+     */
+    OffHeapResponse get(String key) {
+        OffHeapResponse entry = this.index.get(key);
+        if(entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        if(System.nanoTime() - entry.getStaleUntilNanos() >= 0) {
+            this.index.remove(key, entry);
+            this.misses.increment();
+            return null;
+        }
+        Slab slab = entry.getSlab();
+        if(!slab.pin()) {
+            this.misses.increment();
+            return null;
+        }
+        if(slab.generation != entry.getGeneration()) {
+            slab.unpin();
+            this.index.remove(key, entry);
+            this.misses.increment();
+            return null;
+        }
+        entry.markAccessed();
+        this.hits.increment();
+        return entry;
+    }
+
+    //stores response under key, returns false if it did not fit
+    boolean put(String key, CachedResponse response) {
+        byte[] meta = encodeMeta(key, response);
+        byte[] body = response.getBody();
+        //compressed bodies may still be added by ResponseCompressor, the record holds those present now
+        byte[][] encodedBodies = new byte[ContentEncoding.values().length][];
+        long recordLength = RECORD_HEADER_BYTES + meta.length + Integer.BYTES + body.length + Integer.BYTES;
+        for(ContentEncoding encoding: ContentEncoding.values()) {
+            encodedBodies[encoding.ordinal()] = response.getEncodedBody(encoding);
+            recordLength += encodedBodies[encoding.ordinal()] == null ? 0 : 1 + Integer.BYTES + encodedBodies[encoding.ordinal()].length;
+        }
+        long location = recordLength > this.slabBytes - SLAB_HEADER_BYTES - RECORD_HEADER_BYTES ? -1
+            : allocate((int) recordLength);
+        if(location < 0) {
+            this.rejected.increment();
+            return false;
+        }
+        Slab slab = this.slabs[(int) (location >>> 32)];
+        int offset = (int) location;
+        //slab stays pinned by allocate() till the record is complete, generation can not change meanwhile
+        int generation = slab.generation;
+        try {
+            ByteBuffer target = slab.buffer.duplicate();
+            target.position(offset + Integer.BYTES);
+            target.putInt((int) recordLength).put(meta).putInt(body.length).put(body);
+            int encodedCountPosition = target.position();
+            int encodedCount = 0;
+            target.putInt(0);
+            for(ContentEncoding encoding: ContentEncoding.values()) {
+                byte[] encodedBody = encodedBodies[encoding.ordinal()];
+                if(encodedBody != null) {
+                    target.put((byte) encoding.ordinal()).putInt(encodedBody.length).put(encodedBody);
+                    encodedCount++;
+                }
+            }
+            target.putInt(encodedCountPosition, encodedCount);
+            target.putInt(offset, MAGIC);
+        } finally {
+            slab.unpin();
+        }
+        this.index.put(key, new OffHeapResponse(slab, generation, offset, response.getStatus(), response.getStoredAtNanos(),
+            response.getExpiresAtNanos(), response.getStaleUntilNanos()));
+        return true;
+    }
+
+    /*
+     * stores response again e.g. once its compressed bodies have been added, unless the key has meanwhile been stored
+     * with another response or dropped
+     */
+    void rewrite(String key, CachedResponse response) {
+        OffHeapResponse entry = this.index.get(key);
+        if(entry != null && entry.getStoredAtNanos() == response.getStoredAtNanos()) {
+            put(key, response);
+        }
+    }
+
+    long getHits() {
+        return this.hits.sum();
+    }
+
+    long getMisses() {
+        return this.misses.sum();
+    }
+
+    long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    long getRejected() {
+        return this.rejected.sum();
+    }
+
+    long getSize() {
+        return this.index.size();
+    }
+
+    //bytes of the slabs which have been taken into use
+    synchronized long getUsedBytes() {
+        long used = 0;
+        for(Slab slab: this.slabs) {
+            used += slab.sequence == 0 ? 0 : this.slabBytes;
+        }
+        return used;
+    }
+
+    @Override
+    public synchronized void close() {
+        if(this.channel == null) {
+            return;
+        }
+        try {
+            for(Slab slab: this.slabs) {
+                ((MappedByteBuffer) slab.buffer).force();
+            }
+            this.channel.close();
+        } catch(IOException e) {
+            log.warn("cache file could not be closed {}", e.toString());
+        }
+    }
+
+    /*
+     * reserves length bytes in the head slab and pins it, returns slab index << 32 | offset or -1 if every slab is pinned
+     */
+    private synchronized long allocate(int length) {
+        if(this.head == null || this.head.writeOffset + length + RECORD_HEADER_BYTES > this.slabBytes) {
+            if(!nextHead()) {
+                return -1;
+            }
+        }
+        Slab slab = this.head;
+        int offset = slab.writeOffset;
+        slab.writeOffset += length;
+        //end of the records of the slab till the next one is written
+        slab.buffer.putInt(slab.writeOffset, 0);
+        slab.buffer.putInt(slab.writeOffset + Integer.BYTES, 0);
+        //head is never reclaimed, pins of it are at least 0
+        slab.pin();
+        return ((long) slab.index << 32) | offset;
+    }
+
+    //takes a slab which has never been used or the one written longest ago as the new head
+    private boolean nextHead() {
+        Slab victim = null;
+        for(Slab slab: this.slabs) {
+            if(slab.sequence == 0 && slab != this.head && slab.claim()) {
+                victim = slab;
+                break;
+            }
+        }
+        while(victim == null) {
+            Slab oldest = null;
+            for(Slab slab: this.slabs) {
+                if(slab != this.head && slab.pins.get() == 0 && (oldest == null || slab.sequence < oldest.sequence)) {
+                    oldest = slab;
+                }
+            }
+            if(oldest == null) {
+                log.debug("every cache slab is pinned, response is not cached");
+                return false;
+            }
+            if(oldest.claim()) {
+                victim = oldest;
+            }
+        }
+        List<Survivor> survivors = victim.sequence == 0 ? null : reclaim(victim);
+        if(victim.buffer == null) {
+            victim.buffer = ByteBuffer.allocateDirect(this.slabBytes);
+        }
+        victim.generation++;
+        victim.sequence = this.nextSequence++;
+        victim.buffer.putLong(0, victim.sequence);
+        victim.writeOffset = SLAB_HEADER_BYTES;
+        victim.buffer.putInt(SLAB_HEADER_BYTES, 0);
+        victim.buffer.putInt(SLAB_HEADER_BYTES + Integer.BYTES, 0);
+        if(survivors != null) {
+            ByteBuffer target = victim.buffer.duplicate();
+            for(Survivor survivor: survivors) {
+                int offset = victim.writeOffset;
+                target.position(offset);
+                target.put(survivor.record);
+                victim.writeOffset += survivor.record.length;
+                this.index.replace(survivor.key, survivor.entry, survivor.entry.moveTo(victim, victim.generation, offset));
+            }
+            victim.buffer.putInt(victim.writeOffset, 0);
+            victim.buffer.putInt(victim.writeOffset + Integer.BYTES, 0);
+        }
+        //readers see the new generation once they can pin the slab again
+        victim.pins.set(0);
+        this.head = victim;
+        return true;
+    }
+
+    //drops records of a claimed slab from the index, returns those which get a second chance
+    private List<Survivor> reclaim(Slab slab) {
+        List<Survivor> survivors = new ArrayList<>();
+        int survivorBytes = 0;
+        long now = System.nanoTime();
+        int offset = SLAB_HEADER_BYTES;
+        while(offset + RECORD_HEADER_BYTES <= slab.writeOffset) {
+            int length = slab.buffer.getInt(offset + Integer.BYTES);
+            if(length <= 0) {
+                break;
+            }
+            if(slab.buffer.getInt(offset) == MAGIC) {
+                String key = readString(slab.buffer, offset + RECORD_HEADER_BYTES + TIMES_BYTES);
+                OffHeapResponse entry = this.index.get(key);
+                if(entry != null && entry.getSlab() == slab && entry.getGeneration() == slab.generation
+                    && entry.getOffset() == offset) {
+                    if(this.secondChance && entry.isAccessed() && !entry.isExpired(now)
+                        && survivorBytes + length <= this.slabBytes / 2) {
+                        byte[] record = new byte[length];
+                        ByteBuffer source = slab.buffer.duplicate();
+                        source.position(offset);
+                        source.get(record);
+                        survivors.add(new Survivor(key, entry, record));
+                        survivorBytes += length;
+                    } else if(this.index.remove(key, entry)) {
+                        this.evictions.increment();
+                    }
+                }
+            }
+            offset += length;
+        }
+        return survivors;
+    }
+
+    //puts records of a memory-mapped file which are still usable back in the index
+    private void recover() {
+        long nowMillis = System.currentTimeMillis();
+        long nowNanos = System.nanoTime();
+        for(Slab slab: this.slabs) {
+            slab.sequence = Math.max(0, slab.buffer.getLong(0));
+        }
+        //oldest first, a record written later e.g. again with its compressed bodies wins over an earlier one of the key
+        Slab[] written = Arrays.stream(this.slabs)
+            .filter(slab -> slab.sequence > 0)
+            .sorted(Comparator.comparingLong(slab -> slab.sequence))
+            .toArray(Slab[]::new);
+        Slab newest = null;
+        for(Slab slab: written) {
+            int offset = SLAB_HEADER_BYTES;
+            while(offset + RECORD_HEADER_BYTES <= this.slabBytes && slab.buffer.getInt(offset) == MAGIC) {
+                int length = slab.buffer.getInt(offset + Integer.BYTES);
+                if(length <= 0 || offset + length > this.slabBytes) {
+                    break;
+                }
+                int position = offset + RECORD_HEADER_BYTES;
+                long storedAtMillis = slab.buffer.getLong(position);
+                long expiresAtMillis = slab.buffer.getLong(position + Long.BYTES);
+                long staleUntilMillis = slab.buffer.getLong(position + 2 * Long.BYTES);
+                int status = slab.buffer.getInt(position + 3 * Long.BYTES);
+                if(staleUntilMillis > nowMillis) {
+                    String key = readString(slab.buffer, position + TIMES_BYTES);
+                    OffHeapResponse entry = new OffHeapResponse(slab, slab.generation, offset, status,
+                        toNanos(storedAtMillis, nowMillis, nowNanos), toNanos(expiresAtMillis, nowMillis, nowNanos),
+                        toNanos(staleUntilMillis, nowMillis, nowNanos));
+                    this.index.merge(key, entry, (current, recovered) ->
+                        recovered.getStoredAtNanos() - current.getStoredAtNanos() >= 0 ? recovered : current);
+                }
+                offset += length;
+            }
+            slab.writeOffset = offset;
+            newest = slab;
+            this.nextSequence = slab.sequence + 1;
+        }
+        this.head = newest;
+        log.info("{} cached responses recovered from the cache file", this.index.size());
+    }
+
+    private static byte[] encodeMeta(String key, CachedResponse response) {
+        long nowMillis = System.currentTimeMillis();
+        long nowNanos = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(toMillis(response.getStoredAtNanos(), nowMillis, nowNanos));
+            out.writeLong(toMillis(response.getExpiresAtNanos(), nowMillis, nowNanos));
+            out.writeLong(toMillis(response.getStaleUntilNanos(), nowMillis, nowNanos));
+            out.writeInt(response.getStatus());
+            writeString(out, key);
+            writeString(out, response.getContentType());
+            writeString(out, response.getCacheControl());
+            int headerCount = 0;
+            for(List<String> values: response.getHeaders().values()) {
+                headerCount += values.size();
+            }
+            out.writeInt(headerCount);
+            for(Map.Entry<String, List<String>> header: response.getHeaders().entrySet()) {
+                for(String value: header.getValue()) {
+                    writeString(out, header.getKey());
+                    writeString(out, value);
+                }
+            }
+        } catch(IOException e) {
+            //ByteArrayOutputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    //position of the field after the string at position
+    static int skipString(ByteBuffer buffer, int position) {
+        return position + Integer.BYTES + Math.max(0, buffer.getInt(position));
+    }
+
+    static String readString(ByteBuffer buffer, int position) {
+        int length = buffer.getInt(position);
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + Integer.BYTES + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long toMillis(long nanos, long nowMillis, long nowNanos) {
+        return nowMillis + TimeUnit.NANOSECONDS.toMillis(nanos - nowNanos);
+    }
+
+    private static long toNanos(long millis, long nowMillis, long nowNanos) {
+        return nowNanos + TimeUnit.MILLISECONDS.toNanos(millis - nowMillis);
+    }
+
+    /*
+     * Slab is a fixed size region records are appended to
+     * pins counts readers and writers of its records, RECLAIMING while its records are being dropped
+     * sequence orders slabs by the time they became head, 0 for a slab which has never been used
+     */
+    static final class Slab {
+        private final int index;
+        private final AtomicInteger pins = new AtomicInteger();
+        volatile ByteBuffer buffer;
+        volatile int generation;
+        //guarded by the allocation lock of OffHeapStore
+        private long sequence;
+        private int writeOffset = SLAB_HEADER_BYTES;
+
+        private Slab(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        boolean pin() {
+            while(true) {
+                int pins = this.pins.get();
+                if(pins == RECLAIMING) {
+                    return false;
+                }
+                if(this.pins.compareAndSet(pins, pins + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void unpin() {
+            this.pins.decrementAndGet();
+        }
+
+        private boolean claim() {
+            return this.pins.compareAndSet(0, RECLAIMING);
+        }
+    }
+
+    private static final class Survivor {
+        private final String key;
+        private final OffHeapResponse entry;
+        private final byte[] record;
+
+        private Survivor(String key, OffHeapResponse entry, byte[] record) {
+            this.key = key;
+            this.entry = entry;
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.sample.cache;
+
+import com.example.sample.routing.Router;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ * ResponseCache is the in-memory cache of upstream responses "CachedSites"
+ *
+ * Key of an entry is the request and not the Host which served it: service(Router) + method + path + query string + values of
+ * request headers listed in Vary header of the upstream response. Vary header names are remembered per service + method + path
+ * + query so that a lookup can build the full key before the upstream-server is called.
+ *
+ * Cache is bounded both by number of entries and by total bytes(proxy.cache.maxEntries, proxy.cache.maxBytes). Caffeine evicts
+ * with W-TinyLFU, an entry is weighed by its size but never less than maxBytes/maxEntries so the entry bound holds as well.
+ * Size of an entry includes its compressed bodies, it is weighed again by reweigh() once they have been added.
+ *
+ * Time to live of an entry comes from the upstream response
+ * Cache-Control: s-maxage / max-age, otherwise Expires - Date, otherwise proxy.cache.defaultTtlSeconds which is then sent
+ * to the client as max-age
+ * responses with Cache-Control no-store/no-cache/private, Set-Cookie or Vary: * are not cached. Only 200 responses to GET are cached.
+ * A response to a request with Authorization or Cookie is cached only if Cache-Control has public, s-maxage or must-revalidate
+ * (RFC 7234 3.2) and never for proxy.cache.defaultTtlSeconds, such a request is not served from the cache itself.
+ *
+ * An entry which has expired is kept for Cache-Control stale-while-revalidate more seconds, otherwise
+ * proxy.cache.staleWhileRevalidateSeconds(0 with must-revalidate/proxy-revalidate). Till then get() still returns it so that
+ * it is served while a single background fetch refreshes it, see SingleFlightForwarder.
+ *
+ * proxy.cache.store picks where responses are kept
+ * heap    - Caffeine cache of CachedResponse as described above
+ * offHeap - OffHeapStore in direct ByteBuffers of proxy.cache.offHeap.maxBytes, the heap only holds keys and offsets.
+ *           Evicted a slab(proxy.cache.offHeap.slabBytes) at a time, proxy.cache.offHeap.eviction=fifo or secondChance
+ * mapped  - OffHeapStore in the memory-mapped file proxy.cache.offHeap.file, its entries are served again after a restart
+ * proxy.cache.maxEntries and proxy.cache.maxBytes only bound the heap store. A response got from an off-heap store stays
+ * readable till it is released, callers of get() call CachedResponse.release() once it has been written.
+ *
+ * hit, miss and eviction counts are published on actuator metrics endpoint as cache.gets, cache.evictions with tag cache=CachedSites,
+ * an off-heap store also publishes proxy.cache.offHeap.used(bytes taken by slabs) and proxy.cache.offHeap.rejected(responses
+ * which did not fit)
+ */
+@Log4j2
+@Component
+public class ResponseCache implements MeterBinder {
+    public static final String CACHE_NAME = "CachedSites";
+    public static final String HEAP_STORE = "heap";
+    public static final String OFF_HEAP_STORE = "offHeap";
+    public static final String MAPPED_STORE = "mapped";
+    private static final String[] NO_VARY = new String[0];
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final boolean enabled;
+    private final long defaultTimeToLiveNanos;
+    private final long defaultStaleNanos;
+    private final String defaultCacheControl;
+    private final int maxEntryBytes;
+    private final Cache<String, CachedResponse> cache;
+    private final Cache<String, String[]> varyHeaders;
+    private final OffHeapStore offHeapStore;
+
+    @Autowired
+    public ResponseCache(@Value("${proxy.cache.enabled:true}") boolean enabled,
+        @Value("${proxy.cache.maxEntries:10000}") long maxEntries,
+        @Value("${proxy.cache.maxBytes:67108864}") long maxBytes,
+        @Value("${proxy.cache.maxEntryBytes:1048576}") int maxEntryBytes,
+        @Value("${proxy.cache.defaultTtlSeconds:60}") long defaultTtlSeconds,
+        @Value("${proxy.cache.staleWhileRevalidateSeconds:30}") long staleWhileRevalidateSeconds,
+        @Value("${proxy.cache.store:heap}") String store,
+        @Value("${proxy.cache.offHeap.maxBytes:268435456}") long offHeapMaxBytes,
+        @Value("${proxy.cache.offHeap.slabBytes:4194304}") int slabBytes,
+        @Value("${proxy.cache.offHeap.file:cached-sites.dat}") String file,
+        @Value("${proxy.cache.offHeap.eviction:secondChance}") String eviction) {
+        this.enabled = enabled;
+        this.defaultTimeToLiveNanos = TimeUnit.SECONDS.toNanos(defaultTtlSeconds);
+        this.defaultStaleNanos = TimeUnit.SECONDS.toNanos(staleWhileRevalidateSeconds);
+        this.defaultCacheControl = "max-age=" + defaultTtlSeconds;
+        this.maxEntryBytes = maxEntryBytes;
+        if(!HEAP_STORE.equals(store) && !OFF_HEAP_STORE.equals(store) && !MAPPED_STORE.equals(store)) {
+            throw new IllegalArgumentException("proxy.cache.store " + store + " is not one of heap, offHeap, mapped");
+        }
+        if(!"fifo".equals(eviction) && !"secondChance".equals(eviction)) {
+            throw new IllegalArgumentException("proxy.cache.offHeap.eviction " + eviction + " is not one of fifo, secondChance");
+        }
+        this.offHeapStore = HEAP_STORE.equals(store) ? null : new OffHeapStore(offHeapMaxBytes, slabBytes,
+            MAPPED_STORE.equals(store) ? Paths.get(file) : null, "secondChance".equals(eviction));
+        int minWeight = (int) Math.max(1, maxBytes / maxEntries);
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String key, CachedResponse value) ->
+                Math.max(minWeight, value.getBody().length + value.getEncodedBytes() + 2 * key.length() + ENTRY_OVERHEAD_BYTES))
+            .expireAfter(new ResponseExpiry())
+            .recordStats()
+            .build();
+        this.varyHeaders = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if(this.offHeapStore == null) {
+            CaffeineCacheMetrics.monitor(registry, this.cache, CACHE_NAME);
+            return;
+        }
+        OffHeapStore store = this.offHeapStore;
+        FunctionCounter.builder("cache.gets", store, OffHeapStore::getHits).tags("cache", CACHE_NAME, "result", "hit")
+            .description("the number of times cache lookup methods have returned a cached(hit) or uncached(miss) value")
+            .register(registry);
+        FunctionCounter.builder("cache.gets", store, OffHeapStore::getMisses).tags("cache", CACHE_NAME, "result", "miss")
+            .description("the number of times cache lookup methods have returned a cached(hit) or uncached(miss) value")
+            .register(registry);
+        FunctionCounter.builder("cache.evictions", store, OffHeapStore::getEvictions).tags("cache", CACHE_NAME)
+            .description("cache evictions").register(registry);
+        Gauge.builder("cache.size", store, OffHeapStore::getSize).tags("cache", CACHE_NAME)
+            .description("the number of entries in this cache").register(registry);
+        Gauge.builder("proxy.cache.offHeap.used", store, OffHeapStore::getUsedBytes).tags("cache", CACHE_NAME)
+            .baseUnit("bytes").description("off-heap bytes taken by cache slabs").register(registry);
+        FunctionCounter.builder("proxy.cache.offHeap.rejected", store, OffHeapStore::getRejected).tags("cache", CACHE_NAME)
+            .description("responses which were not cached as no slab could take them").register(registry);
+    }
+
+    public boolean isCacheable(HttpServletRequest request) {
+        return isCacheable(request.getMethod());
+    }
+
+    public boolean isCacheable(String method) {
+        return this.enabled && HttpMethod.GET.matches(method);
+    }
+
+    //request carries credentials of a user, its response may be meant for that user only
+    public static boolean hasCredentials(HttpServletRequest request) {
+        return request.getHeader(HttpHeaders.AUTHORIZATION) != null || request.getHeader(HttpHeaders.COOKIE) != null;
+    }
+
+    /*
+     * Cache-Control sent to the client, the one of upstream-server if it has sent any. max-age of proxy.cache.defaultTtlSeconds
+     * is only added to a response this cache stores for the default time to live(timeToLiveNanos > 0 without Expires),
+     * null otherwise so that headers of upstream-server are left as they are
+     */
+    public String getCacheControl(long timeToLiveNanos, Function<String, String> header) {
+        String cacheControl = header.apply(HttpHeaders.CACHE_CONTROL);
+        if(cacheControl != null) {
+            return cacheControl;
+        }
+        return timeToLiveNanos > 0 && header.apply(HttpHeaders.EXPIRES) == null ? this.defaultCacheControl : null;
+    }
+
+    //whether a body of contentLength bytes can be kept in memory, -1 is an unknown length
+    public boolean isWithinEntryLimit(long contentLength) {
+        return contentLength >= 0 && contentLength <= this.maxEntryBytes;
+    }
+
+    /*
+     * returns entry of the key which is fresh or still within its stale-while-revalidate window, null otherwise
+     * entry has to be released once it has been written
+     */
+    public CachedResponse get(String key) {
+        return this.offHeapStore != null ? this.offHeapStore.get(key) : this.cache.getIfPresent(key);
+    }
+
+    /*
+     * time to live of an upstream response or -1 if it must not be cached
+     * credentials - request had Authorization or Cookie(hasCredentials())
+     * header gives value of a response header of upstream-server or null
+     */
+    public long getTimeToLiveNanos(int status, long contentLength, boolean credentials, Function<String, String> header) {
+        if(!this.enabled || status != 200 || !isWithinEntryLimit(contentLength)) {
+            return -1;
+        }
+        String vary = header.apply(HttpHeaders.VARY);
+        if(header.apply(HttpHeaders.SET_COOKIE) != null || (vary != null && vary.trim().equals("*"))) {
+            return -1;
+        }
+        String cacheControl = header.apply(HttpHeaders.CACHE_CONTROL);
+        if(cacheControl == null && credentials) {
+            return -1;
+        }
+        if(cacheControl != null) {
+            long maxAge = -1;
+            long sharedMaxAge = -1;
+            boolean shared = false;
+            //every directive is looked at, no-store/no-cache/private anywhere in the header forbid caching
+            for(String directive: cacheControl.split(",")) {
+                String name = directive.trim().toLowerCase();
+                if(name.equals("no-store") || name.equals("no-cache") || name.equals("private")) {
+                    return -1;
+                } else if(name.startsWith("s-maxage=")) {
+                    sharedMaxAge = parseSeconds(name.substring("s-maxage=".length()));
+                    shared = true;
+                } else if(name.startsWith("max-age=")) {
+                    maxAge = parseSeconds(name.substring("max-age=".length()));
+                } else if(name.equals("public") || name.equals("must-revalidate")) {
+                    shared = true;
+                }
+            }
+            //response to a request with credentials may be meant for that user only unless upstream-server says otherwise
+            if(credentials && !shared) {
+                return -1;
+            }
+            //s-maxage is meant for shared caches like this one and wins over max-age
+            if(sharedMaxAge >= 0) {
+                maxAge = sharedMaxAge;
+            }
+            if(maxAge >= 0) {
+                return maxAge == 0 ? -1 : TimeUnit.SECONDS.toNanos(maxAge);
+            }
+        }
+        String expires = header.apply(HttpHeaders.EXPIRES);
+        if(expires != null) {
+            //invalid Expires means already expired
+            long expiresAtMillis = parseHttpDate(expires);
+            String date = header.apply(HttpHeaders.DATE);
+            long dateMillis = date == null ? -1 : parseHttpDate(date);
+            long nowMillis = dateMillis < 0 ? System.currentTimeMillis() : dateMillis;
+            long timeToLiveMillis = expiresAtMillis < 0 ? -1 : expiresAtMillis - nowMillis;
+            return timeToLiveMillis <= 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        }
+        return credentials ? -1 : this.defaultTimeToLiveNanos;
+    }
+
+    //how long an upstream response may be served after it has expired while it is being revalidated
+    public long getStaleNanos(Function<String, String> header) {
+        String cacheControl = header.apply(HttpHeaders.CACHE_CONTROL);
+        if(cacheControl == null) {
+            return this.defaultStaleNanos;
+        }
+        for(String directive: cacheControl.split(",")) {
+            String name = directive.trim().toLowerCase();
+            if(name.equals("must-revalidate") || name.equals("proxy-revalidate")) {
+                return 0;
+            } else if(name.startsWith("stale-while-revalidate=")) {
+                long seconds = parseSeconds(name.substring("stale-while-revalidate=".length()));
+                return seconds < 0 ? this.defaultStaleNanos : TimeUnit.SECONDS.toNanos(seconds);
+            }
+        }
+        return this.defaultStaleNanos;
+    }
+
+    //returns the key the response is stored under
+    public String put(HttpServletRequest request, CachedResponse cachedResponse) {
+        String baseKey = getBaseKey(request);
+        String vary = cachedResponse.getVary();
+        String[] varyHeaderNames = NO_VARY;
+        if(vary != null && !vary.trim().isEmpty()) {
+            varyHeaderNames = vary.split(",");
+            for(int i = 0; i < varyHeaderNames.length; i++) {
+                varyHeaderNames[i] = varyHeaderNames[i].trim();
+            }
+            this.varyHeaders.put(baseKey, varyHeaderNames);
+        } else {
+            this.varyHeaders.invalidate(baseKey);
+        }
+        String key = getCacheKey(baseKey, varyHeaderNames, request);
+        put(key, cachedResponse);
+        return key;
+    }
+
+    //stores a refreshed response under the key its stale entry was found with
+    public void put(String key, CachedResponse cachedResponse) {
+        if(this.offHeapStore != null) {
+            this.offHeapStore.put(key, cachedResponse);
+        } else {
+            this.cache.put(key, cachedResponse);
+        }
+    }
+
+    /*
+     * weighs cachedResponse again after it has grown e.g. by its compressed bodies, unless it has been replaced or evicted.
+     * An off-heap store writes it again along with what it has grown by.
+     */
+    public void reweigh(String key, CachedResponse cachedResponse) {
+        if(this.offHeapStore != null) {
+            this.offHeapStore.rewrite(key, cachedResponse);
+        } else {
+            this.cache.asMap().replace(key, cachedResponse, cachedResponse);
+        }
+    }
+
+    public String getCacheKey(HttpServletRequest request) {
+        String baseKey = getBaseKey(request);
+        String[] varyHeaderNames = this.varyHeaders.getIfPresent(baseKey);
+        return getCacheKey(baseKey, varyHeaderNames == null ? NO_VARY : varyHeaderNames, request);
+    }
+
+    @PreDestroy
+    public void close() {
+        if(this.offHeapStore != null) {
+            this.offHeapStore.close();
+        }
+    }
+
+    private static String getCacheKey(String baseKey, String[] varyHeaderNames, HttpServletRequest request) {
+        if(varyHeaderNames.length == 0) {
+            return baseKey;
+        }
+        StringBuilder key = new StringBuilder(baseKey);
+        for(String varyHeaderName: varyHeaderNames) {
+            key.append('\n').append(varyHeaderName).append(':');
+            String value = request.getHeader(varyHeaderName);
+            if(value != null) {
+                key.append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    //service the request is routed to is part of the key, the same path may go to another service by its Host header
+    private static String getBaseKey(HttpServletRequest request) {
+        String queryString = request.getQueryString();
+        String serviceKey = Router.getServiceName(request) + ' ' + request.getMethod() + ' ' + request.getRequestURI();
+        return queryString == null ? serviceKey : serviceKey + '?' + queryString;
+    }
+
+    private static long parseSeconds(String seconds) {
+        try {
+            return Long.parseLong(seconds.trim());
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseHttpDate(String date) {
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch(DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static class ResponseExpiry implements Expiry<String, CachedResponse> {
+        @Override
+        public long expireAfterCreate(String key, CachedResponse value, long currentTime) {
+            return Math.max(0, value.getStaleUntilNanos() - System.nanoTime());
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedResponse value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedResponse value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.sample.compression;
+
+import lombok.Getter;
+
+/*
+ * ContentEncoding is an encoding the proxy compresses responses with itself, token is its name in
+ * Accept-Encoding/Content-Encoding
+ *
+ * gzip    - deflate stream in a gzip wrapper(RFC 1952), understood by every client
+ * deflate - deflate stream in a zlib wrapper(RFC 1950) as HTTP defines it
+ * Brotli(br) needs a native encoder the JDK does not have, a br body of upstream-server is passed through as it is.
+ */
+@Getter
+public enum ContentEncoding {
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    public static ContentEncoding forToken(String token) {
+        for(ContentEncoding encoding: values()) {
+            if(encoding.token.equalsIgnoreCase(token.trim())) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("content encoding " + token + " is not supported, expected gzip or deflate");
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.sample.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * Encoder compresses a body as it is written, it is taken from the pool of ResponseCompressor for one response and given back
+ *
+ * It wraps a Deflater and writes its output through its own buffer, GZIPOutputStream and DeflaterOutputStream would create a
+ * new Deflater(and its native memory) and a new buffer for every response. The gzip header and trailer(CRC32 and size)
+ * are written here around a raw deflate stream.
+ */
+public final class Encoder {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ContentEncoding encoding;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private boolean started;
+
+    Encoder(ContentEncoding encoding, int level) {
+        this.encoding = encoding;
+        //gzip has its own wrapper, deflate of HTTP is the zlib wrapper of Deflater
+        this.deflater = new Deflater(level, encoding == ContentEncoding.GZIP);
+    }
+
+    public ContentEncoding getEncoding() {
+        return this.encoding;
+    }
+
+    //compresses length bytes of bytes from offset and writes what is ready to out
+    public void write(byte[] bytes, int offset, int length, OutputStream out) throws IOException {
+        start(out);
+        if(this.encoding == ContentEncoding.GZIP) {
+            this.crc.update(bytes, offset, length);
+        }
+        this.deflater.setInput(bytes, offset, length);
+        while(!this.deflater.needsInput()) {
+            drain(out);
+        }
+    }
+
+    //writes the rest of the compressed body, nothing can be written afterwards
+    public void finish(OutputStream out) throws IOException {
+        start(out);
+        this.deflater.finish();
+        while(!this.deflater.finished()) {
+            drain(out);
+        }
+        if(this.encoding == ContentEncoding.GZIP) {
+            writeIntLittleEndian((int) this.crc.getValue(), 0);
+            writeIntLittleEndian((int) this.deflater.getBytesRead(), 4);
+            out.write(this.buffer, 0, 8);
+        }
+    }
+
+    //ready for the next response
+    void reset() {
+        this.deflater.reset();
+        this.crc.reset();
+        this.started = false;
+    }
+
+    //frees native memory of the Deflater, the Encoder can not be used anymore
+    void end() {
+        this.deflater.end();
+    }
+
+    private void start(OutputStream out) throws IOException {
+        if(!this.started) {
+            this.started = true;
+            if(this.encoding == ContentEncoding.GZIP) {
+                out.write(GZIP_HEADER);
+            }
+        }
+    }
+
+    private void drain(OutputStream out) throws IOException {
+        int length = this.deflater.deflate(this.buffer, 0, this.buffer.length, Deflater.NO_FLUSH);
+        if(length > 0) {
+            out.write(this.buffer, 0, length);
+        }
+    }
+
+    private void writeIntLittleEndian(int value, int offset) {
+        this.buffer[offset] = (byte) value;
+        this.buffer[offset + 1] = (byte) (value >>> 8);
+        this.buffer[offset + 2] = (byte) (value >>> 16);
+        this.buffer[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.sample.compression;
+
+import com.example.sample.cache.CachedResponse;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/*
+ * ResponseCompressor compresses responses for clients which accept it(Accept-Encoding)
+ *
+ * negotiate() picks the encoding with the highest q-value of Accept-Encoding among proxy.compression.encodings, on a tie the
+ * one listed first in proxy.compression.encodings wins. A response is compressed only if its Content-Type is one of
+ * proxy.compression.mimeTypes(text/* matches every text type), it is at least proxy.compression.minBytes long and
+ * upstream-server has not encoded it already. A body upstream-server has compressed(e.g. br) is passed through as it is and
+ * never compressed twice.
+ *
+ * Relayed responses are compressed while they stream through an Encoder. Cached responses are compressed once per encoding
+ * on a worker pool(proxy.compression.threads) after they are stored, the encoded bodies are kept next to the identity body
+ * in CachedResponse so a cache hit writes bytes which are already compressed. Precompression is best effort, it is dropped
+ * when the queue of the pool is full and the entry is served as it is until it is stored again.
+ *
+ * Encoders(a Deflater, its buffer and a CRC32) are pooled per encoding in slots the way BufferPool keeps its buffers, a
+ * Deflater holds native memory and is expensive to create for every response. An Encoder which finds no free slot on
+ * release is ended.
+ *
+ * proxy.compression.level is the Deflater level 1(fastest) - 9(smallest)
+ */
+@Log4j2
+@Component
+public class ResponseCompressor {
+    private static final String IDENTITY = "identity";
+
+    private final boolean enabled;
+    private final ContentEncoding[] encodings;
+    private final int minBytes;
+    private final int level;
+    private final List<String> mimeTypes;
+    private final Map<ContentEncoding, AtomicReferenceArray<Encoder>> pools = new EnumMap<>(ContentEncoding.class);
+    private final ThreadPoolExecutor compressionExecutor;
+
+    @Autowired
+    public ResponseCompressor(@Value("${proxy.compression.enabled:true}") boolean enabled,
+        @Value("${proxy.compression.encodings:gzip,deflate}") String encodings,
+        @Value("${proxy.compression.minBytes:1024}") int minBytes,
+        @Value("${proxy.compression.level:6}") int level,
+        @Value("${proxy.compression.mimeTypes:application/json,text/*,application/javascript,application/xml,image/svg+xml}") String mimeTypes,
+        @Value("${proxy.compression.threads:2}") int threads,
+        @Value("${proxy.compression.queueSize:256}") int queueSize,
+        @Value("${proxy.compression.pooledEncoders:64}") int pooledEncoders) {
+        this.enabled = enabled;
+        this.encodings = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(encodings).stream()
+            .map(ContentEncoding::forToken)
+            .distinct()
+            .toArray(ContentEncoding[]::new);
+        this.minBytes = minBytes;
+        this.level = level;
+        this.mimeTypes = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(mimeTypes).stream()
+            .map(mimeType -> mimeType.endsWith("/*") ? mimeType.substring(0, mimeType.length() - 1) : mimeType)
+            .collect(Collectors.collectingAndThen(Collectors.toList(), ImmutableList::copyOf));
+        for(ContentEncoding encoding: ContentEncoding.values()) {
+            this.pools.put(encoding, new AtomicReferenceArray<>(pooledEncoders));
+        }
+        this.compressionExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            new ThreadFactoryBuilder().setNameFormat("compression-%d").setDaemon(true).build());
+    }
+
+    //encoding the response to request should be compressed with or null if the client accepts none of them
+    public ContentEncoding negotiate(HttpServletRequest request) {
+        return this.enabled ? negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING)) : null;
+    }
+
+    public ContentEncoding negotiate(String acceptEncoding) {
+        if(acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        ContentEncoding negotiated = null;
+        int negotiatedQuality = 0;
+        for(ContentEncoding encoding: this.encodings) {
+            int quality = getQuality(acceptEncoding, encoding.getToken());
+            if(quality > negotiatedQuality) {
+                negotiated = encoding;
+                negotiatedQuality = quality;
+            }
+        }
+        return negotiated;
+    }
+
+    /*
+     * whether a response should be compressed
+     * contentEncoding - Content-Encoding of upstream-server or null, contentLength - -1 if it is not known yet
+     */
+    public boolean isCompressible(String contentType, String contentEncoding, long contentLength) {
+        return this.enabled
+            && (contentEncoding == null || contentEncoding.trim().equalsIgnoreCase(IDENTITY))
+            && (contentLength < 0 || contentLength >= this.minBytes)
+            && contentType != null && isCompressibleType(contentType);
+    }
+
+    public boolean isCompressible(CachedResponse response) {
+        return isCompressible(response.getContentType(), response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING),
+            response.getBody().length);
+    }
+
+    //Encoder for a single response, it has to be given back with release()
+    public Encoder acquire(ContentEncoding encoding) {
+        AtomicReferenceArray<Encoder> slots = this.pools.get(encoding);
+        int start = (int) (Thread.currentThread().getId() % slots.length());
+        for(int i = 0; i < slots.length(); i++) {
+            int slot = (start + i) % slots.length();
+            Encoder encoder = slots.get(slot) == null ? null : slots.getAndSet(slot, null);
+            if(encoder != null) {
+                return encoder;
+            }
+        }
+        return new Encoder(encoding, this.level);
+    }
+
+    public void release(Encoder encoder) {
+        if(encoder == null) {
+            return;
+        }
+        encoder.reset();
+        AtomicReferenceArray<Encoder> slots = this.pools.get(encoder.getEncoding());
+        int start = (int) (Thread.currentThread().getId() % slots.length());
+        for(int i = 0; i < slots.length(); i++) {
+            int slot = (start + i) % slots.length();
+            if(slots.compareAndSet(slot, null, encoder)) {
+                return;
+            }
+        }
+        encoder.end();
+    }
+
+    /*
+     * compresses response with encoding on the calling thread unless it is already, returns the encoding response is
+     * served with to a client accepting encoding or null if it stays identity
+     */
+    public ContentEncoding compress(CachedResponse response, ContentEncoding encoding) {
+        if(encoding == null || !isCompressible(response)) {
+            return null;
+        }
+        if(response.getEncodedBody(encoding) == null) {
+            response.setEncodedBody(encoding, compress(response.getBody(), encoding));
+        }
+        return encoding;
+    }
+
+    public byte[] compress(byte[] body, ContentEncoding encoding) {
+        Encoder encoder = acquire(encoding);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+            encoder.write(body, 0, body.length, out);
+            encoder.finish(out);
+            return out.toByteArray();
+        } catch(IOException e) {
+            //ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        } finally {
+            release(encoder);
+        }
+    }
+
+    /*
+     * compresses a response which has been cached with every encoding of proxy.compression.encodings in the background,
+     * onDone runs once the encoded bodies are in place e.g. to weigh the entry again
+     */
+    public void precompress(CachedResponse response, Runnable onDone) {
+        if(!isCompressible(response)) {
+            return;
+        }
+        try {
+            this.compressionExecutor.execute(() -> {
+                for(ContentEncoding encoding: this.encodings) {
+                    compress(response, encoding);
+                }
+                onDone.run();
+            });
+        } catch(RejectedExecutionException e) {
+            log.debug("compression queue is full, cached response is served uncompressed");
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        this.compressionExecutor.shutdownNow();
+    }
+
+    private boolean isCompressibleType(String contentType) {
+        for(int i = 0; i < this.mimeTypes.size(); i++) {
+            String mimeType = this.mimeTypes.get(i);
+            if(contentType.regionMatches(true, 0, mimeType, 0, mimeType.length())
+                && (mimeType.endsWith("/") || contentType.length() == mimeType.length()
+                || contentType.charAt(mimeType.length()) == ';' || contentType.charAt(mimeType.length()) == ' ')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * q-value of token in Accept-Encoding in thousandths, 0 if it is not acceptable
+     * token listed by its name wins over *, Accept-Encoding is scanned in place so nothing is allocated
+     */
+    private static int getQuality(String acceptEncoding, String token) {
+        int wildcardQuality = 0;
+        int length = acceptEncoding.length();
+        int start = 0;
+        while(start < length) {
+            int end = acceptEncoding.indexOf(',', start);
+            if(end < 0) {
+                end = length;
+            }
+            int parameters = acceptEncoding.indexOf(';', start);
+            int nameEnd = parameters < 0 || parameters > end ? end : parameters;
+            int nameStart = skipWhitespace(acceptEncoding, start, nameEnd);
+            int nameLength = trimEnd(acceptEncoding, nameStart, nameEnd) - nameStart;
+            if(nameLength == token.length() && acceptEncoding.regionMatches(true, nameStart, token, 0, nameLength)) {
+                return parseQuality(acceptEncoding, nameEnd, end);
+            } else if(nameLength == 1 && acceptEncoding.charAt(nameStart) == '*') {
+                wildcardQuality = parseQuality(acceptEncoding, nameEnd, end);
+            }
+            start = end + 1;
+        }
+        return wildcardQuality;
+    }
+
+    //parses ;q=0.8 between from and to, 1000 if there is no q parameter
+    private static int parseQuality(String value, int from, int to) {
+        int q = value.indexOf("q=", from);
+        if(q < 0 || q >= to) {
+            return 1000;
+        }
+        int i = skipWhitespace(value, q + 2, to);
+        if(i >= to || value.charAt(i) < '0' || value.charAt(i) > '1') {
+            return 0;
+        }
+        int quality = (value.charAt(i) - '0') * 1000;
+        if(++i < to && value.charAt(i) == '.') {
+            int scale = 100;
+            while(++i < to && scale > 0 && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+                quality += (value.charAt(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return Math.min(1000, quality);
+    }
+
+    private static int skipWhitespace(String value, int from, int to) {
+        while(from < to && (value.charAt(from) == ' ' || value.charAt(from) == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(String value, int from, int to) {
+        while(to > from && (value.charAt(to - 1) == ' ' || value.charAt(to - 1) == '\t')) {
+            to--;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.sample.execution;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * ExecutorFactory creates executors of blocking request handling according to proxy.execution.mode
+ *
+ * platform - a fixed pool of platform threads, a blocked thread is a thread less for other requests
+ * virtual  - a new virtual thread per task, a virtual thread blocked on I/O gives its carrier thread back so number of
+ *            requests in flight is no longer capped by a pool size. Needs Java 21, build with -Pjava21.
+ *
+ * Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively so the same source still builds for Java 11.
+ */
+@Log4j2
+@Component
+public class ExecutorFactory {
+    public static final String PLATFORM_MODE = "platform";
+    public static final String VIRTUAL_MODE = "virtual";
+
+    private final Method newVirtualThreadPerTaskExecutor;
+
+    @Autowired
+    public ExecutorFactory(@Value("${proxy.execution.mode:platform}") String mode) {
+        if(VIRTUAL_MODE.equals(mode)) {
+            try {
+                this.newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            } catch(NoSuchMethodException e) {
+                throw new IllegalStateException("proxy.execution.mode=virtual needs Java 21 or newer, running on "
+                    + System.getProperty("java.version"), e);
+            }
+        } else if(PLATFORM_MODE.equals(mode)) {
+            this.newVirtualThreadPerTaskExecutor = null;
+        } else {
+            throw new IllegalArgumentException("unknown proxy.execution.mode " + mode + ", expected platform or virtual");
+        }
+        log.info("execution mode {}", mode);
+    }
+
+    public boolean isVirtual() {
+        return this.newVirtualThreadPerTaskExecutor != null;
+    }
+
+    /*
+     * platformThreads is the pool size in platform mode and is ignored in virtual mode
+     * nameFormat names platform threads e.g. backend-9090-%d
+     */
+    public ExecutorService newExecutor(String nameFormat, int platformThreads) {
+        if(!isVirtual()) {
+            return Executors.newFixedThreadPool(platformThreads, new ThreadFactoryBuilder().setNameFormat(nameFormat).build());
+        }
+        try {
+            return (ExecutorService) this.newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch(IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("could not create virtual thread executor", e);
+        }
+    }
+}
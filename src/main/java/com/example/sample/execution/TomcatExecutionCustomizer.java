@@ -0,0 +1,34 @@
+package com.example.sample.execution;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.stereotype.Component;
+
+/*
+ * TomcatExecutionCustomizer runs proxy request handling of Tomcat on virtual threads when proxy.execution.mode=virtual
+ *
+ * In platform mode Tomcat keeps its own pool which is sized by server.tomcat.threads.max
+ */
+@Log4j2
+@Component
+public class TomcatExecutionCustomizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+    private final ExecutorFactory executorFactory;
+
+    @Autowired
+    public TomcatExecutionCustomizer(ExecutorFactory executorFactory) {
+        this.executorFactory = executorFactory;
+    }
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        if(!this.executorFactory.isVirtual()) {
+            return;
+        }
+        factory.addProtocolHandlerCustomizers(protocolHandler ->
+            protocolHandler.setExecutor(this.executorFactory.newExecutor("http-nio-%d", 0)));
+        log.info("tomcat requests are handled on virtual threads");
+    }
+}
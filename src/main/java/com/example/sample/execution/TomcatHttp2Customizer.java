@@ -0,0 +1,47 @@
+package com.example.sample.execution;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.stereotype.Component;
+
+/*
+ * TomcatHttp2Customizer lets clients multiplex their requests into reverseProxy over HTTP/2 when server.http2.enabled=true
+ *
+ * Spring Boot 2.4 turns HTTP/2 on for a TLS connector only, this adds it to the cleartext connector(h2c) as well. A client either
+ * upgrades from HTTP/1.1(Upgrade: h2c) or starts with the HTTP/2 preface(prior knowledge, curl --http2-prior-knowledge).
+ * Requests of all streams of a connection are handled on the threads of Tomcat the same way as HTTP/1.1 requests.
+ *
+ * server.http2.maxConcurrentStreams - streams a client may have in flight on a single connection
+ */
+@Log4j2
+@Component
+public class TomcatHttp2Customizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+    private final boolean enabled;
+    private final int maxConcurrentStreams;
+
+    @Autowired
+    public TomcatHttp2Customizer(@Value("${server.http2.enabled:false}") boolean enabled,
+        @Value("${server.http2.maxConcurrentStreams:100}") int maxConcurrentStreams) {
+        this.enabled = enabled;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        //Spring Boot adds it itself to a TLS connector
+        if(!this.enabled || (factory.getSsl() != null && factory.getSsl().isEnabled())) {
+            return;
+        }
+        factory.addConnectorCustomizers(connector -> {
+            Http2Protocol http2Protocol = new Http2Protocol();
+            http2Protocol.setMaxConcurrentStreams(this.maxConcurrentStreams);
+            connector.addUpgradeProtocol(http2Protocol);
+        });
+        log.info("tomcat accepts h2c maxConcurrentStreams {}", this.maxConcurrentStreams);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.sample.httpServer;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
+
+/*
+ * BackendProfile is how a simulated backend(HttpServer) behaves, so production behaviour can be reproduced locally
+ *
+ * backend.latency         - LatencyDistribution every response waits for e.g. lognormal:20:0.8
+ * backend.payloadSize     - padding added to the Json response of a GET e.g. 64KB or 2MB
+ * backend.errorRate       - share of requests answered with 500 Internal Server Error e.g. 0.01
+ * backend.unavailableRate - share of requests answered with 503 Service Unavailable, which reverseProxy retries on another node
+ * backend.dead            - true leaves the node stopped so connections to it are refused
+ * backend.protocol        - http1 serves HTTP/1.1 only, h2c serves HTTP/2 in cleartext as well(HttpServer.runH2c())
+ *
+ * Every key can also be set for a single port, backend.8000.latency=constant:500 makes 8000 a slow node and
+ * backend.9000.dead=true a dead one while the other nodes keep backend.latency.
+ */
+@Getter
+@Builder
+@ToString
+public final class BackendProfile {
+    public static final String HTTP1_PROTOCOL = "http1";
+    public static final String H2C_PROTOCOL = "h2c";
+
+    @Builder.Default
+    private final LatencyDistribution latency = LatencyDistribution.NONE;
+    private final long payloadBytes;
+    private final double errorRate;
+    private final double unavailableRate;
+    private final boolean dead;
+    @Builder.Default
+    private final String protocol = HTTP1_PROTOCOL;
+
+    //profile of the node listening on port, backend.<port>.<key> wins over backend.<key>
+    public static BackendProfile from(Environment environment, String port) {
+        BackendProfile profile = BackendProfile.builder()
+            .latency(LatencyDistribution.parse(getProperty(environment, port, "latency", "none")))
+            .payloadBytes(DataSize.parse(getProperty(environment, port, "payloadSize", "0B")).toBytes())
+            .errorRate(Double.parseDouble(getProperty(environment, port, "errorRate", "0")))
+            .unavailableRate(Double.parseDouble(getProperty(environment, port, "unavailableRate", "0")))
+            .dead(Boolean.parseBoolean(getProperty(environment, port, "dead", "false")))
+            .protocol(getProperty(environment, port, "protocol", HTTP1_PROTOCOL))
+            .build();
+        if(profile.payloadBytes > Integer.MAX_VALUE || profile.errorRate + profile.unavailableRate > 1
+            || !(HTTP1_PROTOCOL.equals(profile.protocol) || H2C_PROTOCOL.equals(profile.protocol))) {
+            throw new IllegalArgumentException("backend profile of port " + port + " is not valid " + profile);
+        }
+        return profile;
+    }
+
+    private static String getProperty(Environment environment, String port, String key, String defaultValue) {
+        return environment.getProperty("backend." + port + "." + key, environment.getProperty("backend." + key, defaultValue));
+    }
+}
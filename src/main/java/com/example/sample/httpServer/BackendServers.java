@@ -0,0 +1,87 @@
+package com.example.sample.httpServer;
+
+import com.example.sample.execution.ExecutorFactory;
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/*
+ * BackendServers starts a HttpServer for every Host of hostList bean before Tomcat accepts requests and stops them on shutdown
+ *
+ * Exchanges of a HttpServer run on an executor of ExecutorFactory
+ * platform - backend.threads platform threads per HttpServer
+ * virtual  - a virtual thread per exchange
+ *
+ * Every HttpServer behaves according to the BackendProfile of its port(backend.latency, backend.9000.dead etc.), a dead node
+ * is not started at all. backend.protocol=h2c starts it on an embedded Tomcat which speaks HTTP/2 in cleartext.
+ */
+@Log4j2
+@Component
+public class BackendServers {
+
+    private final ApplicationContext context;
+    private final Environment environment;
+    private final ExecutorFactory executorFactory;
+    private final int threads;
+    private final List<com.sun.net.httpserver.HttpServer> servers = new ArrayList<>();
+    private final List<Tomcat> h2cServers = new ArrayList<>();
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    @Autowired
+    public BackendServers(ApplicationContext context, Environment environment, ExecutorFactory executorFactory,
+        @Value("${backend.threads:3}") int threads) {
+        this.context = context;
+        this.environment = environment;
+        this.executorFactory = executorFactory;
+        this.threads = threads;
+    }
+
+    @PostConstruct
+    public void start() {
+        List<Host> hostList = (List<Host>) context.getBean("hostList");
+        log.info("Starting Servers!!!");
+        for(Host host: hostList) {
+            BackendProfile profile = BackendProfile.from(this.environment, host.getPort());
+            if(profile.isDead()) {
+                log.info("node {} is dead, it is not started", host);
+                continue;
+            }
+            log.info("node {} {}", host, profile);
+            ExecutorService executor = this.executorFactory.newExecutor("backend-" + host.getPort() + "-%d", this.threads);
+            this.executors.add(executor);
+            HttpServer httpServer = new HttpServer(profile);
+            if(BackendProfile.H2C_PROTOCOL.equals(profile.getProtocol())) {
+                this.h2cServers.add(httpServer.runH2c(host.getServiceName(), host.getServiceIP(), host.getPort(), executor));
+            } else {
+                this.servers.add(httpServer.run(host.getServiceName(), host.getServiceIP(), host.getPort(), executor));
+            }
+        }
+        log.info("All Servers Started!!!");
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.servers.forEach(server -> server.stop(0));
+        for(Tomcat tomcat: this.h2cServers) {
+            try {
+                tomcat.stop();
+                tomcat.destroy();
+            } catch(LifecycleException e) {
+                log.warn("could not stop h2c server {}", e.toString());
+            }
+        }
+        this.executors.forEach(ExecutorService::shutdownNow);
+    }
+}
@@ -1,54 +1,219 @@
 package com.example.sample.httpServer;
 
+import com.google.common.base.Strings;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import lombok.extern.log4j.Log4j2;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.http2.Http2Protocol;
 import org.springframework.stereotype.Component;
 
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
 
 /*
  * HttpServer class represents simple Http-Servers/Services running in a cluster
  *  which reverseProxy is calling to get a Json response.
  * No Json encoding is done here as that is left upon ReverseProxy to encode JSON using UTF_8
+ *
+ * BackendProfile makes it a simulator: every request first waits for a latency drawn from its LatencyDistribution,
+ * then errorRate/unavailableRate of requests are answered with 500/503. payloadBytes adds a "padding" field of that many bytes
+ * to the Json response, the response of a port is built once as it may be megabytes.
+ *
+ * GET and HEAD get the Json response, every other method(POST, PUT, PATCH, DELETE...) is echoed: request body is sent
+ * back with its Content-Type and X-Echo-Method is set to the method, so write traffic through reverseProxy can be load tested locally.
+ *
+ * run() serves HTTP/1.1 with com.sun.net.httpserver, runH2c() serves the same requests from an embedded Tomcat which also speaks
+ * HTTP/2 in cleartext(h2c), either upgraded from HTTP/1.1 or with prior knowledge, so upstream.protocol=h2c can be tried locally.
  */
 
 @Log4j2
 @Component
 public class HttpServer implements HttpHandler {
+    private final BackendProfile profile;
+    private volatile byte[] responseBytes;
+
+    public HttpServer() {
+        this(BackendProfile.builder().build());
+    }
+
+    public HttpServer(int paddingBytes) {
+        this(BackendProfile.builder().payloadBytes(paddingBytes).build());
+    }
+
+    public HttpServer(BackendProfile profile) {
+        this.profile = profile;
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        if(exchange.getRequestMethod().equals("GET")) {
+        simulateLatency();
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if(draw < this.profile.getErrorRate()) {
+            fail(exchange, HTTP_INTERNAL_ERROR);
+            return;
+        }
+        if(draw < this.profile.getErrorRate() + this.profile.getUnavailableRate()) {
+            fail(exchange, HTTP_UNAVAILABLE);
+            return;
+        }
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        if(exchange.getRequestMethod().equals("GET") || head) {
             Integer port = exchange.getLocalAddress().getPort();
-            String JSON_RESPONSE = "{\"service\": \"my-company\", \"health\":\"UP\", \"port\":" + port + "}";
+            byte[] responseBytes = getResponseBytes(port);
 
             OutputStream outputStream = exchange.getResponseBody();
-            log.info("Hello  from server with port " + port);
-            exchange.sendResponseHeaders(HTTP_OK, JSON_RESPONSE.getBytes().length);
-            exchange.getResponseHeaders().set("Content-Type", String.format("application/json"));
-            outputStream.write(JSON_RESPONSE.getBytes());
+            log.debug("Hello  from server with port " + port);
+            //headers have to be set before sendResponseHeaders() otherwise they are never sent
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            //a response to HEAD has no body, its length is -1 and Content-Length tells the length GET would get
+            if(head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(responseBytes.length));
+                //exchange of HEAD ends with sendResponseHeaders(), the connection is kept only if the request has been read
+                exchange.getRequestBody().close();
+            }
+            exchange.sendResponseHeaders(HTTP_OK, head ? -1 : responseBytes.length);
+            if(head) {
+                //there is no body stream to write to or close
+                exchange.close();
+                return;
+            }
+            outputStream.write(responseBytes);
             outputStream.flush();
             outputStream.close();
         }
-        else if(exchange.getRequestMethod().equals("POST")){
-            //process POST methods here..
+        else {
+            echo(exchange);
+        }
+    }
+
+    //same for every request of a server as it only depends on the port
+    private byte[] getResponseBytes(int port) {
+        byte[] bytes = this.responseBytes;
+        if(bytes == null) {
+            String padding = this.profile.getPayloadBytes() == 0 ? ""
+                : ", \"padding\":\"" + Strings.repeat("x", (int) this.profile.getPayloadBytes()) + "\"";
+            String JSON_RESPONSE = "{\"service\": \"my-company\", \"health\":\"UP\", \"port\":" + port + padding + "}";
+            bytes = JSON_RESPONSE.getBytes(StandardCharsets.UTF_8);
+            this.responseBytes = bytes;
+        }
+        return bytes;
+    }
+
+    private void simulateLatency() {
+        long latencyNanos = this.profile.getLatency().nextNanos();
+        if(latencyNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latencyNanos);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    public void run(String service, String serviceIP, String hostPort) {
+    //request body is drained first so the connection can be kept alive
+    private static void fail(HttpExchange exchange, int statusCode) throws IOException {
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+        byte[] responseBytes = ("{\"error\": " + statusCode + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, responseBytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(responseBytes);
+        }
+    }
+
+    private void echo(HttpExchange exchange) throws IOException {
+        Headers requestHeaders = exchange.getRequestHeaders();
+        String contentType = requestHeaders.getFirst("Content-Type");
+        String contentLength = requestHeaders.getFirst("Content-Length");
+        log.debug("echo {} from server with port {} forwarded for {}", exchange.getRequestMethod(),
+            exchange.getLocalAddress().getPort(), requestHeaders.getFirst("X-Forwarded-For"));
+        exchange.getResponseHeaders().set("Content-Type", contentType == null ? "application/octet-stream" : contentType);
+        exchange.getResponseHeaders().set("X-Echo-Method", exchange.getRequestMethod());
+        //body is read in full before responding, a client sends the whole request before it reads the response so streaming
+        //the echo back while receiving a big body would fill both socket buffers and block both sides
+        ByteArrayOutputStream body = new ByteArrayOutputStream(contentLength == null ? 8192 : Integer.parseInt(contentLength));
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        //-1 sends a response without a body
+        exchange.sendResponseHeaders(HTTP_OK, body.size() == 0 ? -1 : body.size());
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            body.writeTo(outputStream);
+        }
+    }
+
+    /*
+     * same as run() on an embedded Tomcat which speaks h2c as well. executor runs the exchanges and also reads the frames of
+     * HTTP/2 connections, so in platform mode it should have more threads than connections are opened to the server.
+     */
+    public Tomcat runH2c(String service, String serviceIP, String hostPort, Executor executor) {
+        Tomcat tomcat = new Tomcat();
+        try {
+            tomcat.setBaseDir(Files.createTempDirectory("backend-" + hostPort).toString());
+            Connector connector = new Connector();
+            connector.setPort(Integer.parseInt(hostPort));
+            connector.setProperty("address", serviceIP);
+            connector.addUpgradeProtocol(new Http2Protocol());
+            connector.getProtocolHandler().setExecutor(executor);
+            tomcat.setConnector(connector);
+            Context context = tomcat.addContext("", null);
+            Tomcat.addServlet(context, service, new HttpServlet() {
+                @Override
+                protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                    handle(new ServletExchange(request, response));
+                }
+            });
+            context.addServletMappingDecoded("/" + service, service);
+            context.addServletMappingDecoded("/" + service + "/*", service);
+            tomcat.start();
+            log.info("h2c HttpServer started for service {} on port {}", service, hostPort);
+            return tomcat;
+        } catch(IOException | LifecycleException e) {
+            log.error("error running h2c server..", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    //executor runs the exchanges of this server, see BackendServers
+    public com.sun.net.httpserver.HttpServer run(String service, String serviceIP, String hostPort, Executor executor) {
+        //headers and body are separate writes, without TCP_NODELAY the body of a small response waits ~40ms for a delayed ACK.
+        //read once when the first server is created
+        if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
         try {
             final com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(serviceIP, Integer.valueOf(hostPort)), 0);
-            ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(3);
-            server.createContext("/"+ service, new HttpServer());
-            server.setExecutor(threadPoolExecutor);
+            server.createContext("/"+ service, this);
+            server.setExecutor(executor);
             server.start();
             log.info("HttpServer started for service {} on port {}", service, hostPort);
+            return server;
         } catch(IOException e) {
             log.error("error running server..", e);
             throw new RuntimeException(e);
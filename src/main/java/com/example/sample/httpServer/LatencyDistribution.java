@@ -0,0 +1,96 @@
+package com.example.sample.httpServer;
+
+import com.google.common.base.Splitter;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * LatencyDistribution decides how long a simulated backend(HttpServer) takes before it answers a request
+ *
+ * none             - answers right away
+ * constant:20      - always 20 ms
+ * uniform:10:50    - anywhere between 10 and 50 ms
+ * exponential:20   - 20 ms on average, many fast answers and a few slow ones
+ * lognormal:20:0.8 - median of 20 ms, sigma 0.8 gives the long tail usually seen in production(p99 ~ 6.4 x median)
+ * Times are in milliseconds and may have a fraction e.g. constant:0.5
+ */
+public final class LatencyDistribution {
+    public static final LatencyDistribution NONE = new LatencyDistribution(Shape.NONE, 0, 0);
+
+    private enum Shape { NONE, CONSTANT, UNIFORM, EXPONENTIAL, LOGNORMAL }
+
+    private final Shape shape;
+    private final double first;
+    private final double second;
+
+    private LatencyDistribution(Shape shape, double first, double second) {
+        this.shape = shape;
+        this.first = first;
+        this.second = second;
+    }
+
+    public static LatencyDistribution parse(String definition) {
+        List<String> parts = Splitter.on(':').trimResults().splitToList(definition);
+        try {
+            switch(parts.get(0)) {
+                case "none":
+                    return NONE;
+                case "constant":
+                    return new LatencyDistribution(Shape.CONSTANT, toNanos(parts.get(1)), 0);
+                case "uniform":
+                    return new LatencyDistribution(Shape.UNIFORM, toNanos(parts.get(1)), toNanos(parts.get(2)));
+                case "exponential":
+                    return new LatencyDistribution(Shape.EXPONENTIAL, toNanos(parts.get(1)), 0);
+                case "lognormal":
+                    return new LatencyDistribution(Shape.LOGNORMAL, toNanos(parts.get(1)), Double.parseDouble(parts.get(2)));
+                default:
+                    break;
+            }
+        } catch(IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("latency " + definition + " is not valid", e);
+        }
+        throw new IllegalArgumentException("latency " + definition
+            + " is not none, constant:ms, uniform:ms:ms, exponential:ms or lognormal:ms:sigma");
+    }
+
+    //latency of the next response
+    public long nextNanos() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch(this.shape) {
+            case CONSTANT:
+                return (long) this.first;
+            case UNIFORM:
+                return (long) (this.first + random.nextDouble() * (this.second - this.first));
+            case EXPONENTIAL:
+                return (long) (-this.first * Math.log(1 - random.nextDouble()));
+            case LOGNORMAL:
+                return (long) (this.first * Math.exp(this.second * random.nextGaussian()));
+            default:
+                return 0;
+        }
+    }
+
+    private static double toNanos(String millis) {
+        return Double.parseDouble(millis) * TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        switch(this.shape) {
+            case NONE:
+                return "none";
+            case UNIFORM:
+                return "uniform:" + toMillis(this.first) + ":" + toMillis(this.second);
+            case LOGNORMAL:
+                return "lognormal:" + toMillis(this.first) + ":" + this.second;
+            default:
+                return this.shape.name().toLowerCase() + ":" + toMillis(this.first);
+        }
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
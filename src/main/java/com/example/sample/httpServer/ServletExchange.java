@@ -0,0 +1,151 @@
+package com.example.sample.httpServer;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * ServletExchange is a servlet request and response seen as the HttpExchange of a HttpServer, so HttpServer handles requests
+ * arriving at Tomcat(backend.protocol=h2c) the same way as those of its com.sun.net.httpserver server
+ *
+ * Response headers are copied to the servlet response by sendResponseHeaders(), length -1 means no body and 0 a body of
+ * unknown length as with com.sun.net.httpserver. getHttpContext() is not supported.
+ */
+final class ServletExchange extends HttpExchange {
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private InputStream requestBody;
+    private OutputStream responseBody;
+    private int responseCode = -1;
+
+    ServletExchange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        this.request = request;
+        this.response = response;
+        for(String name: Collections.list(request.getHeaderNames())) {
+            this.requestHeaders.put(name, Collections.list(request.getHeaders(name)));
+        }
+        this.requestBody = request.getInputStream();
+        this.responseBody = response.getOutputStream();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return this.requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return this.responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        String queryString = this.request.getQueryString();
+        return URI.create(queryString == null ? this.request.getRequestURI() : this.request.getRequestURI() + '?' + queryString);
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return this.request.getMethod();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        throw new UnsupportedOperationException("a servlet exchange has no HttpContext");
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.requestBody.close();
+            this.responseBody.close();
+        } catch(IOException e) {
+            //client has gone, Tomcat closes the stream
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return this.requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return this.responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int responseCode, long responseLength) {
+        this.responseCode = responseCode;
+        this.response.setStatus(responseCode);
+        for(Map.Entry<String, List<String>> header: this.responseHeaders.entrySet()) {
+            for(String value: header.getValue()) {
+                this.response.addHeader(header.getKey(), value);
+            }
+        }
+        if(responseLength > 0) {
+            this.response.setContentLengthLong(responseLength);
+        } else if(responseLength < 0 && !"HEAD".equals(this.request.getMethod())) {
+            this.response.setContentLength(0);
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return new InetSocketAddress(this.request.getRemoteAddr(), this.request.getRemotePort());
+    }
+
+    @Override
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return new InetSocketAddress(this.request.getLocalAddr(), this.request.getLocalPort());
+    }
+
+    @Override
+    public String getProtocol() {
+        return this.request.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return this.request.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        this.request.setAttribute(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream requestBody, OutputStream responseBody) {
+        if(requestBody != null) {
+            this.requestBody = requestBody;
+        }
+        if(responseBody != null) {
+            this.responseBody = responseBody;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.sample.loadBalance;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * CallWindow counts calls, failed calls and slow calls of a Host over the last proxy.circuit.windowSeconds
+ *
+ * Window is a ring of one second buckets, a bucket is reused once its second has passed out of the window. Counters are
+ * AtomicLongArray slots so recording is a few increments without a lock or an allocation. A call recorded at the very moment
+ * its bucket is being reused may be lost, rates are approximate at second boundaries which is good enough for a breaker.
+ */
+final class CallWindow {
+    private static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int CALLS = 0;
+    private static final int FAILURES = 1;
+    private static final int SLOW_CALLS = 2;
+    private static final int COUNTERS = 3;
+    private final int buckets;
+    private final AtomicLongArray seconds;
+    private final AtomicLongArray counts;
+
+    CallWindow(int buckets) {
+        this.buckets = buckets;
+        this.seconds = new AtomicLongArray(buckets);
+        this.counts = new AtomicLongArray(buckets * COUNTERS);
+        reset();
+    }
+
+    void record(boolean failed, boolean slow) {
+        long second = Math.floorDiv(System.nanoTime(), BUCKET_NANOS);
+        int bucket = (int) Math.floorMod(second, (long) this.buckets);
+        long bucketSecond = this.seconds.get(bucket);
+        if(bucketSecond != second && this.seconds.compareAndSet(bucket, bucketSecond, second)) {
+            for(int i = 0; i < COUNTERS; i++) {
+                this.counts.set(bucket * COUNTERS + i, 0);
+            }
+        }
+        this.counts.incrementAndGet(bucket * COUNTERS + CALLS);
+        if(failed) {
+            this.counts.incrementAndGet(bucket * COUNTERS + FAILURES);
+        }
+        if(slow) {
+            this.counts.incrementAndGet(bucket * COUNTERS + SLOW_CALLS);
+        }
+    }
+
+    //true if the window holds at least minimumCalls calls and failed or slow ones reach their rate
+    boolean exceeds(int minimumCalls, int failureRatePercent, int slowCallRatePercent) {
+        long second = Math.floorDiv(System.nanoTime(), BUCKET_NANOS);
+        long calls = 0;
+        long failures = 0;
+        long slowCalls = 0;
+        for(int bucket = 0; bucket < this.buckets; bucket++) {
+            long bucketSecond = this.seconds.get(bucket);
+            if(bucketSecond <= second && bucketSecond > second - this.buckets) {
+                calls += this.counts.get(bucket * COUNTERS + CALLS);
+                failures += this.counts.get(bucket * COUNTERS + FAILURES);
+                slowCalls += this.counts.get(bucket * COUNTERS + SLOW_CALLS);
+            }
+        }
+        return calls >= minimumCalls
+            && (failures * 100 >= failureRatePercent * calls || slowCalls * 100 >= slowCallRatePercent * calls);
+    }
+
+    //forgets every call e.g. when a circuit closes again
+    void reset() {
+        for(int bucket = 0; bucket < this.buckets; bucket++) {
+            this.seconds.set(bucket, Long.MIN_VALUE);
+        }
+    }
+}
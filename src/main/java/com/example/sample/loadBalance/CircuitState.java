@@ -0,0 +1,13 @@
+package com.example.sample.loadBalance;
+
+/*
+ * state of the circuit breaker of a Host, see HostCircuitBreaker
+ */
+public enum CircuitState {
+    //every call goes through, results are counted in CallWindow
+    CLOSED,
+    //no call goes through till the open interval is over
+    OPEN,
+    //a few trial calls go through, all of them succeeding closes the circuit and any of them failing opens it again
+    HALF_OPEN
+}
@@ -0,0 +1,99 @@
+package com.example.sample.loadBalance;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * ConcurrencyLimiter limits number of requests in flight per service and per Host(upstream-server)
+ *
+ * A request takes a service permit and a host permit before upstream call and gives both back once the call completes,
+ * so a node is busy only while it is actually serving requests.
+ *
+ * proxy.limit.maxPerService - max number of requests in flight to all nodes of a service
+ * proxy.limit.maxPerHost    - max number of requests in flight to a single node(HostStateRegistry)
+ *
+ * proxy.limit.adaptive=true adjusts limit of every node with AIMD(additive increase multiplicative decrease)
+ * on observed latency. A call which fails or takes longer than proxy.limit.targetLatencyMillis cuts the limit of the node by 10%,
+ * a fast call made while the node was at least half busy raises it by 1. Limit stays between proxy.limit.minPerHost and proxy.limit.maxPerHost.
+ *
+ * Nothing here blocks or spins, if a permit is not free the request is shed with ServiceOverloadedException.
+ */
+@Log4j2
+@Component
+public class ConcurrencyLimiter {
+    private final ConcurrentMap<String, AtomicInteger> serviceInFlight = new ConcurrentHashMap<>();
+    private final int maxPerService;
+    private final int minPerHost;
+    private final int maxPerHost;
+    private final boolean adaptive;
+    private final long targetLatencyNanos;
+
+    @Autowired
+    public ConcurrencyLimiter(@Value("${proxy.limit.maxPerService:256}") int maxPerService,
+        @Value("${proxy.limit.minPerHost:4}") int minPerHost,
+        @Value("${proxy.limit.maxPerHost:64}") int maxPerHost,
+        @Value("${proxy.limit.adaptive:false}") boolean adaptive,
+        @Value("${proxy.limit.targetLatencyMillis:200}") long targetLatencyMillis) {
+        this.maxPerService = maxPerService;
+        this.minPerHost = minPerHost;
+        this.maxPerHost = maxPerHost;
+        this.adaptive = adaptive;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+    }
+
+    //O(1) check done before selecting a node, a saturated service is shed without scanning its nodes
+    public boolean isSaturated(String serviceName) {
+        return getServiceInFlight(serviceName).get() >= this.maxPerService;
+    }
+
+    public boolean tryAcquire(HostState hostState) {
+        AtomicInteger inFlight = getServiceInFlight(hostState.getHost().getServiceName());
+        if(inFlight.incrementAndGet() > this.maxPerService) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        if(!hostState.tryAcquire()) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void release(HostState hostState, long latencyNanos, boolean failed) {
+        int inFlightBeforeRelease = hostState.getInFlight();
+        hostState.release();
+        getServiceInFlight(hostState.getHost().getServiceName()).decrementAndGet();
+        if(this.adaptive) {
+            adjustLimit(hostState, inFlightBeforeRelease, latencyNanos, failed);
+        }
+    }
+
+    private void adjustLimit(HostState hostState, int inFlightBeforeRelease, long latencyNanos, boolean failed) {
+        while(true) {
+            int limit = hostState.getLimit();
+            int newLimit;
+            if(failed || latencyNanos > this.targetLatencyNanos) {
+                newLimit = Math.max(this.minPerHost, limit - Math.max(1, limit / 10));
+            } else if(inFlightBeforeRelease * 2 >= limit) {
+                newLimit = Math.min(this.maxPerHost, limit + 1);
+            } else {
+                return;
+            }
+            if(newLimit == limit || hostState.compareAndSetLimit(limit, newLimit)) {
+                return;
+            }
+        }
+    }
+
+    private AtomicInteger getServiceInFlight(String serviceName) {
+        AtomicInteger inFlight = this.serviceInFlight.get(serviceName);
+        return inFlight != null ? inFlight : this.serviceInFlight.computeIfAbsent(serviceName, name -> new AtomicInteger());
+    }
+}
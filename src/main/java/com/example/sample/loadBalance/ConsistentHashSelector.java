@@ -0,0 +1,174 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import com.google.common.collect.ImmutableMap;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * ConsistentHashSelector sends requests with the same key to the same node so caches of the nodes are not thrashed
+ *
+ * proxy.hash.key decides what the key of a request is
+ * header:X-User-Id - value of a request header
+ * cookie:SESSION   - value of a cookie
+ * path             - request_uri
+ * A request without the header or cookie is keyed on the address of the client.
+ *
+ * Every node is put on a hash ring proxy.hash.virtualNodes * weight times(virtual nodes), a key goes to the first virtual
+ * node at or after its own hash. Points of a node depend on that node only, so adding or removing one of N nodes moves
+ * about 1/N of the keys and all others stay where they were. The ring of every service is built whenever HostIndex changes
+ * as a sorted long[] of points next to the index of the node owning each of them, a lookup is a binary search(O(log n))
+ * over it which takes no lock and allocates nothing.
+ *
+ * If the node of a key is unavailable or has no free concurrency permit the ring is walked on to the next node which has one,
+ * so keys of a node which is down are spread over the others instead of all going to one. In cases where all nodes are busy
+ * ServiceOverloadedException is thrown.
+ *
+ */
+@Log4j2
+@Component
+public class ConsistentHashSelector {
+    private static final String HEADER_KEY = "header:";
+    private static final String COOKIE_KEY = "cookie:";
+    private static final String PATH_KEY = "path";
+    //a weight far above the others would make a ring nobody wants to search
+    private static final int MAX_POINTS_PER_HOST = 1 << 14;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private final int virtualNodes;
+    private final String headerName;
+    private final String cookieName;
+    private volatile Map<String, Ring> rings;
+
+    @Autowired
+    public ConsistentHashSelector(HostIndex hostIndex, HostStateRegistry hostStateRegistry,
+        @Value("${proxy.hash.key:path}") String key, @Value("${proxy.hash.virtualNodes:160}") int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        this.headerName = key.startsWith(HEADER_KEY) ? key.substring(HEADER_KEY.length()) : null;
+        this.cookieName = key.startsWith(COOKIE_KEY) ? key.substring(COOKIE_KEY.length()) : null;
+        if(this.headerName == null && this.cookieName == null && !PATH_KEY.equals(key)) {
+            throw new IllegalArgumentException("proxy.hash.key " + key + " is not header:name, cookie:name or path");
+        }
+        hostIndex.addListener(index -> {
+            ImmutableMap.Builder<String, Ring> builder = ImmutableMap.builder();
+            index.forEach((serviceName, hosts) -> builder.put(serviceName, new Ring(hosts, hostStateRegistry, this.virtualNodes)));
+            this.rings = builder.build();
+        });
+    }
+
+    //key of the request according to proxy.hash.key
+    public String getKey(HttpServletRequest request) {
+        String key;
+        if(this.headerName != null) {
+            key = request.getHeader(this.headerName);
+        } else if(this.cookieName != null) {
+            key = getCookie(request, this.cookieName);
+        } else {
+            key = request.getRequestURI();
+        }
+        return key != null ? key : request.getRemoteAddr();
+    }
+
+    private static String getCookie(HttpServletRequest request, String name) {
+        Cookie[] cookies = request.getCookies();
+        if(cookies != null) {
+            for(Cookie cookie: cookies) {
+                if(name.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    //node of the key, a random node if there is no key e.g. for a retry or a background refresh
+    public Host getHostUsingConsistentHash(final String serviceName, final CharSequence key) {
+        Ring ring = this.rings.get(serviceName);
+        if(ring == null) {
+            throw new IllegalArgumentException("No hosts registered for service " + serviceName);
+        }
+        int position;
+        if(key == null) {
+            position = ThreadLocalRandom.current().nextInt(ring.points.length);
+        } else {
+            position = Arrays.binarySearch(ring.points, hash(key));
+            position = position >= 0 ? position : -position - 1;
+        }
+        ServiceHosts serviceHosts = ring.serviceHosts;
+        int length = ring.points.length;
+        int owner = -1;
+        for(int i = 0; i < length; i++) {
+            int next = ring.owners[(position + i) % length];
+            if(next != owner && serviceHosts.hostStates[next].hasCapacity()) {
+                return serviceHosts.hosts[next];
+            }
+            owner = next;
+        }
+        log.debug("All Servers are busy!!!!");
+        throw new ServiceOverloadedException(serviceName);
+    }
+
+    //64 bit FNV-1a over the chars of the key followed by the finalizer of murmur3 so that similar keys land far apart
+    static long hash(CharSequence key) {
+        long hash = FNV_OFFSET_BASIS;
+        for(int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    //points of all virtual nodes of a service sorted, owners[i] is the index of the Host owning points[i]
+    private static final class Ring {
+        private final ServiceHosts serviceHosts;
+        private final long[] points;
+        private final int[] owners;
+
+        private Ring(Host[] hosts, HostStateRegistry hostStateRegistry, int virtualNodes) {
+            this.serviceHosts = new ServiceHosts(hosts, hostStateRegistry);
+            int total = 0;
+            for(Host host: hosts) {
+                total += getPoints(host, virtualNodes);
+            }
+            long[] unsorted = new long[total];
+            int[] unsortedOwners = new int[total];
+            int point = 0;
+            for(int i = 0; i < hosts.length; i++) {
+                //a virtual node is named after the address of its Host so it stays at the same place whatever other hosts there are
+                String name = hosts[i].getServiceIP() + ":" + hosts[i].getPort() + "#";
+                for(int j = 0; j < getPoints(hosts[i], virtualNodes); j++) {
+                    unsorted[point] = hash(name + j);
+                    unsortedOwners[point++] = i;
+                }
+            }
+            Integer[] order = new Integer[total];
+            for(int i = 0; i < total; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(unsorted[a], unsorted[b]));
+            this.points = new long[total];
+            this.owners = new int[total];
+            for(int i = 0; i < total; i++) {
+                this.points[i] = unsorted[order[i]];
+                this.owners[i] = unsortedOwners[order[i]];
+            }
+        }
+
+        private static int getPoints(Host host, int virtualNodes) {
+            return (int) Math.min(MAX_POINTS_PER_HOST, (long) virtualNodes * host.getWeight());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * HostCircuitBreaker stops calls to a Host(upstream-server) which keeps failing or answering slowly, proxy.circuit.enabled=true
+ *
+ * CLOSED    - results of calls are counted over the last proxy.circuit.windowSeconds(CallWindow). Once the window holds
+ *             proxy.circuit.minimumCalls calls and proxy.circuit.failureRatePercent of them failed(5xx or I/O error) or
+ *             proxy.circuit.slowCallRatePercent took longer than proxy.circuit.slowCallMillis, the circuit opens.
+ * OPEN      - Host is skipped by every selector for proxy.circuit.openMillis.
+ * HALF_OPEN - first call after the open interval moves the circuit to half-open, proxy.circuit.halfOpenCalls trial calls
+ *             are let through. If all of them succeed the circuit closes, if any of them fails or is slow it opens again.
+ *
+ * Unlike outlier ejection of HostHealthChecker, which reacts to failures in a row, the breaker reacts to a rate so a Host failing
+ * every other request or slowing down is taken out as well.
+ *
+ * State lives in HostState, selectors check it through HostState.isAvailable() with a couple of volatile reads and no allocation.
+ * tryAcquire() is called once a Host is selected and takes a trial permit of a half-open circuit.
+ * Every state change is logged and counted as proxy.circuit.transitions{service, host, state} on actuator metrics endpoint.
+ */
+@Log4j2
+@Component
+public class HostCircuitBreaker implements MeterBinder {
+    private final boolean enabled;
+    private final int minimumCalls;
+    private final int failureRatePercent;
+    private final int slowCallRatePercent;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private volatile MeterRegistry meterRegistry;
+
+    @Autowired
+    public HostCircuitBreaker(@Value("${proxy.circuit.enabled:true}") boolean enabled,
+        @Value("${proxy.circuit.minimumCalls:20}") int minimumCalls,
+        @Value("${proxy.circuit.failureRatePercent:50}") int failureRatePercent,
+        @Value("${proxy.circuit.slowCallRatePercent:80}") int slowCallRatePercent,
+        @Value("${proxy.circuit.slowCallMillis:2000}") long slowCallMillis,
+        @Value("${proxy.circuit.openMillis:10000}") long openMillis,
+        @Value("${proxy.circuit.halfOpenCalls:3}") int halfOpenCalls) {
+        this.enabled = enabled;
+        this.minimumCalls = minimumCalls;
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallRatePercent = slowCallRatePercent;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+    }
+
+    /*
+     * false if the circuit of the Host lets no call through right now, a true for a half-open circuit has taken one of
+     * its trial permits which is given back with cancel() if the call is not made after all
+     */
+    public boolean tryAcquire(HostState hostState) {
+        if(!this.enabled) {
+            return true;
+        }
+        while(true) {
+            switch(hostState.getCircuitState()) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if(System.nanoTime() - hostState.getCircuitOpenUntilNanos() < 0) {
+                        return false;
+                    }
+                    if(hostState.halfOpenCircuit(this.halfOpenCalls)) {
+                        onTransition(hostState, CircuitState.HALF_OPEN);
+                    }
+                    continue;
+                default:
+                    return hostState.tryTakeHalfOpenPermit();
+            }
+        }
+    }
+
+    //call allowed by tryAcquire() was not made e.g. because no concurrency permit was free
+    public void cancel(HostState hostState) {
+        if(this.enabled && hostState.getCircuitState() == CircuitState.HALF_OPEN) {
+            hostState.returnHalfOpenPermit();
+        }
+    }
+
+    //result of a call made to the Host, failed is true for a 5xx response or an I/O error
+    public void recordResult(HostState hostState, long latencyNanos, boolean failed) {
+        if(!this.enabled) {
+            return;
+        }
+        boolean slow = latencyNanos > this.slowCallNanos;
+        switch(hostState.getCircuitState()) {
+            case CLOSED:
+                hostState.getCallWindow().record(failed, slow);
+                //only a bad call can push a rate over its threshold
+                if((failed || slow) && hostState.getCallWindow().exceeds(this.minimumCalls, this.failureRatePercent,
+                    this.slowCallRatePercent)) {
+                    open(hostState, CircuitState.CLOSED);
+                }
+                return;
+            case HALF_OPEN:
+                if(failed || slow) {
+                    open(hostState, CircuitState.HALF_OPEN);
+                } else if(hostState.recordHalfOpenSuccess() >= this.halfOpenCalls && hostState.closeCircuit()) {
+                    onTransition(hostState, CircuitState.CLOSED);
+                }
+                return;
+            default:
+                //call was sent before the circuit opened
+        }
+    }
+
+    private void open(HostState hostState, CircuitState from) {
+        if(hostState.openCircuit(from, System.nanoTime() + this.openNanos)) {
+            onTransition(hostState, CircuitState.OPEN);
+        }
+    }
+
+    private void onTransition(HostState hostState, CircuitState state) {
+        Host host = hostState.getHost();
+        if(state == CircuitState.OPEN) {
+            log.warn("circuit of host {} opened for {} ms", host, TimeUnit.NANOSECONDS.toMillis(this.openNanos));
+        } else {
+            log.info("circuit of host {} is {}", host, state);
+        }
+        MeterRegistry registry = this.meterRegistry;
+        if(registry != null) {
+            registry.counter("proxy.circuit.transitions", "service", host.getServiceName(),
+                "host", host.getServiceIP() + ":" + host.getPort(), "state", state.name()).increment();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import com.example.sample.upstream.AsyncUpstreamClient;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * HostHealthChecker decides which Host(upstream-server) is healthy, selectors skip a Host which is not(HostState.isAvailable())
+ *
+ * Active health check - every proxy.health.intervalMillis every Host of HostIndex is sent GET /serviceName, the same context
+ * HttpServer serves. Probes are sent through AsyncUpstreamClient so probing all hosts takes no thread while waiting.
+ * A Host is unhealthy after proxy.health.unhealthyThreshold probes in a row did not answer 2xx/3xx within
+ * proxy.health.timeoutMillis, a single successful probe makes it healthy again.
+ *
+ * Passive outlier detection - every proxied request reports its result through recordResult(). A Host whose last
+ * proxy.outlier.consecutiveFailures requests failed(5xx or I/O error such as a connect timeout) is ejected for
+ * proxy.outlier.baseEjectionMillis * 2^(ejections - 1), at most proxy.outlier.maxEjectionMillis. The ejection count
+ * goes down by one once the Host has served without trouble for as long as its last ejection lasted.
+ * No more than proxy.outlier.maxEjectionPercent of the hosts of a service are ejected at the same time so a service-wide
+ * failure does not empty the service.
+ *
+ * Health state lives in HostState and is only read and written with volatile/atomic operations, selectors keep
+ * scanning their host arrays without a lock. It is reported on actuator health endpoint by UpstreamHealthIndicator.
+ */
+@Log4j2
+@Component
+public class HostHealthChecker {
+    private final HostIndex hostIndex;
+    private final HostStateRegistry hostStateRegistry;
+    private final AsyncUpstreamClient asyncUpstreamClient;
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final Duration timeout;
+    private final int unhealthyThreshold;
+    private final int consecutiveFailures;
+    private final long baseEjectionMillis;
+    private final long maxEjectionMillis;
+    private final int maxEjectionPercent;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public HostHealthChecker(HostIndex hostIndex, HostStateRegistry hostStateRegistry, AsyncUpstreamClient asyncUpstreamClient,
+        @Value("${proxy.health.enabled:true}") boolean enabled,
+        @Value("${proxy.health.intervalMillis:5000}") long intervalMillis,
+        @Value("${proxy.health.timeoutMillis:1000}") long timeoutMillis,
+        @Value("${proxy.health.unhealthyThreshold:2}") int unhealthyThreshold,
+        @Value("${proxy.outlier.consecutiveFailures:5}") int consecutiveFailures,
+        @Value("${proxy.outlier.baseEjectionMillis:5000}") long baseEjectionMillis,
+        @Value("${proxy.outlier.maxEjectionMillis:300000}") long maxEjectionMillis,
+        @Value("${proxy.outlier.maxEjectionPercent:50}") int maxEjectionPercent) {
+        this.hostIndex = hostIndex;
+        this.hostStateRegistry = hostStateRegistry;
+        this.asyncUpstreamClient = asyncUpstreamClient;
+        this.enabled = enabled;
+        this.intervalMillis = intervalMillis;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.unhealthyThreshold = unhealthyThreshold;
+        this.consecutiveFailures = consecutiveFailures;
+        this.baseEjectionMillis = baseEjectionMillis;
+        this.maxEjectionMillis = maxEjectionMillis;
+        this.maxEjectionPercent = maxEjectionPercent;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("health-check-%d").setDaemon(true).build());
+    }
+
+    @PostConstruct
+    public void start() {
+        if(this.enabled) {
+            this.scheduler.scheduleWithFixedDelay(this::checkAll, 0, this.intervalMillis, TimeUnit.MILLISECONDS);
+            log.info("health checks of all hosts every {} ms", this.intervalMillis);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.scheduler.shutdownNow();
+    }
+
+    /*
+     * passive outlier detection, failed is true for a 5xx response or an I/O error
+     */
+    public void recordResult(HostState hostState, boolean failed) {
+        if(!failed) {
+            hostState.recordSuccess();
+            return;
+        }
+        if(hostState.recordFailure() >= this.consecutiveFailures && !hostState.isEjected()) {
+            eject(hostState);
+        }
+    }
+
+    private void eject(HostState hostState) {
+        Host host = hostState.getHost();
+        if(!canEject(host.getServiceName())) {
+            log.warn("host {} keeps failing but {}% of service {} is already ejected", host, this.maxEjectionPercent,
+                host.getServiceName());
+            return;
+        }
+        long ejectionMillis = getEjectionMillis(hostState.getEjections() + 1);
+        if(hostState.eject(System.currentTimeMillis() + ejectionMillis)) {
+            log.warn("host {} ejected for {} ms after {} failures in a row", host, ejectionMillis, this.consecutiveFailures);
+            this.scheduler.schedule(() -> readmit(hostState), ejectionMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long getEjectionMillis(int ejections) {
+        return Math.min(this.maxEjectionMillis, this.baseEjectionMillis << Math.min(30, ejections - 1));
+    }
+
+    private boolean canEject(String serviceName) {
+        Host[] hosts = this.hostIndex.getHosts(serviceName);
+        if(hosts == null) {
+            return false;
+        }
+        int ejected = 0;
+        for(Host host: hosts) {
+            if(this.hostStateRegistry.get(host).isEjected()) {
+                ejected++;
+            }
+        }
+        return (ejected + 1) * 100 <= this.maxEjectionPercent * hosts.length;
+    }
+
+    private void readmit(HostState hostState) {
+        hostState.readmit();
+        log.info("host {} readmitted after ejection", hostState.getHost());
+    }
+
+    private void checkAll() {
+        try {
+            for(Map.Entry<String, Host[]> entry: this.hostIndex.getIndex().entrySet()) {
+                for(Host host: entry.getValue()) {
+                    check(entry.getKey(), this.hostStateRegistry.get(host));
+                }
+            }
+        } catch(RuntimeException e) {
+            //an exception would cancel the schedule
+            log.error("error while scheduling health checks", e);
+        }
+    }
+
+    private void check(String serviceName, HostState hostState) {
+        int ejections = hostState.getEjections();
+        if(ejections > 0 && !hostState.isEjected() && hostState.getConsecutiveFailures() == 0
+            && System.currentTimeMillis() - hostState.getEjectedUntilMillis() >= getEjectionMillis(ejections)) {
+            hostState.decayEjections();
+        }
+        this.asyncUpstreamClient.get(hostState.getHost(), "/" + serviceName, this.timeout).whenComplete((response, e) -> {
+            if(e == null && response.statusCode() < 400) {
+                hostState.recordProbeSuccess();
+                if(!hostState.isHealthy()) {
+                    hostState.setHealthy(true);
+                    log.info("host {} is healthy again", hostState.getHost());
+                }
+            } else if(hostState.recordProbeFailure() >= this.unhealthyThreshold && hostState.isHealthy()) {
+                hostState.setHealthy(false);
+                log.warn("host {} is unhealthy {}", hostState.getHost(), e != null ? e.toString() : "status " + response.statusCode());
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import com.google.common.collect.ImmutableMap;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/*
+ * HostIndex is a prebuilt index of serviceName -> Host[] which is shared by all selectors
+ * Service1 -> [Host1, Host2, Host3]
+ * Service2 -> [HostX, HostY]
+ *
+ * The index is an ImmutableMap which is never modified. When the host set changes(HostRegistry) update() builds a new index
+ * and swaps it atomically, so a lookup is a single map get() without a lock or stream over the whole hostList.
+ *
+ * Selectors which keep their own per-host state register a listener and rebuild it from the new index.
+ */
+@Log4j2
+@Component
+public class HostIndex {
+    private final AtomicReference<Map<String, Host[]>> index = new AtomicReference<>(ImmutableMap.of());
+    private final List<Consumer<Map<String, Host[]>>> listeners = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public HostIndex(@Qualifier("hostList") List<Host> hostList) {
+        update(hostList);
+    }
+
+    public Host[] getHosts(String serviceName) {
+        return this.index.get().get(serviceName);
+    }
+
+    public Map<String, Host[]> getIndex() {
+        return this.index.get();
+    }
+
+    public void update(List<Host> hostList) {
+        Map<String, List<Host>> hostsByService = hostList.stream().collect(Collectors.groupingBy(Host::getServiceName));
+        ImmutableMap.Builder<String, Host[]> builder = ImmutableMap.builder();
+        hostsByService.forEach((serviceName, hosts) -> builder.put(serviceName, hosts.toArray(new Host[0])));
+        Map<String, Host[]> newIndex = builder.build();
+        this.index.set(newIndex);
+        log.info("host index updated with services {}", newIndex.keySet());
+        for(Consumer<Map<String, Host[]>> listener: this.listeners) {
+            listener.accept(newIndex);
+        }
+    }
+
+    /*
+     * listener is called with the current index right away and afterwards every time the index is swapped
+     */
+    public void addListener(Consumer<Map<String, Host[]>> listener) {
+        this.listeners.add(listener);
+        listener.accept(this.index.get());
+    }
+}
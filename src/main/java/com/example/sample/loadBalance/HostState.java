@@ -0,0 +1,223 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * HostState keeps runtime state of a Host(upstream-server) which is shared by all selectors
+ *
+ * available - a Host is available if it is healthy, not ejected and its circuit lets a call through, selectors skip a Host
+ *             which is not
+ * healthy   - result of active health checks of HostHealthChecker, a Host is unhealthy after
+ *             proxy.health.unhealthyThreshold failed probes in a row and healthy again after a successful one
+ * ejected   - a Host which failed proxy.outlier.consecutiveFailures requests in a row(5xx or I/O error) is ejected for an
+ *             interval which doubles with every ejection, see HostHealthChecker
+ * circuit   - CLOSED lets every call through, OPEN none till circuitOpenUntilNanos, afterwards HALF_OPEN lets as many
+ *             trial calls through as there are halfOpenPermits. Results of recent calls are counted in CallWindow,
+ *             see HostCircuitBreaker
+ * inFlight  - number of requests currently being proxied to the Host
+ * limit     - max number of requests which can be in flight to the Host at the same time. A permit is taken by tryAcquire()
+ *             before the upstream call and given back by release() once it completes, see ConcurrencyLimiter.
+ *
+ * Fields are only read and written through volatile/atomic operations so selectors can read them from any worker thread
+ * without taking a lock.
+ */
+public class HostState {
+    @Getter
+    private final Host host;
+    private volatile boolean healthy = true;
+    private final AtomicBoolean ejected = new AtomicBoolean();
+    private volatile long ejectedUntilMillis;
+    private final AtomicInteger ejections = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger consecutiveProbeFailures = new AtomicInteger();
+    private final AtomicReference<CircuitState> circuitState = new AtomicReference<>(CircuitState.CLOSED);
+    private volatile long circuitOpenUntilNanos;
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+    private final CallWindow callWindow;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger limit;
+
+    public HostState(Host host, int limit, int windowSeconds) {
+        this.host = host;
+        this.limit = new AtomicInteger(limit);
+        this.callWindow = new CallWindow(windowSeconds);
+    }
+
+    public boolean isAvailable() {
+        return this.healthy && !this.ejected.get() && isCircuitPassable();
+    }
+
+    public CircuitState getCircuitState() {
+        return this.circuitState.get();
+    }
+
+    //closed, half-open with a trial permit left or open with its interval over(next call moves it to half-open)
+    public boolean isCircuitPassable() {
+        switch(this.circuitState.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.nanoTime() - this.circuitOpenUntilNanos >= 0;
+            default:
+                return this.halfOpenPermits.get() > 0;
+        }
+    }
+
+    public boolean isHealthy() {
+        return this.healthy;
+    }
+
+    public boolean isEjected() {
+        return this.ejected.get();
+    }
+
+    public long getEjectedUntilMillis() {
+        return this.ejectedUntilMillis;
+    }
+
+    public int getEjections() {
+        return this.ejections.get();
+    }
+
+    public int getConsecutiveFailures() {
+        return this.consecutiveFailures.get();
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    public int getLimit() {
+        return this.limit.get();
+    }
+
+    //available and has a free permit, selectors use it to skip saturated and unhealthy hosts
+    public boolean hasCapacity() {
+        return isAvailable() && this.inFlight.get() < this.limit.get();
+    }
+
+    public boolean tryAcquire() {
+        while(true) {
+            int current = this.inFlight.get();
+            if(current >= this.limit.get()) {
+                return false;
+            }
+            if(this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        this.inFlight.decrementAndGet();
+    }
+
+    boolean compareAndSetLimit(int expectedLimit, int newLimit) {
+        return this.limit.compareAndSet(expectedLimit, newLimit);
+    }
+
+    //returns number of requests failed in a row
+    int recordFailure() {
+        return this.consecutiveFailures.incrementAndGet();
+    }
+
+    void recordSuccess() {
+        //read first so that a healthy Host does not write the shared counter on every request
+        if(this.consecutiveFailures.get() != 0) {
+            this.consecutiveFailures.set(0);
+        }
+    }
+
+    //returns number of probes failed in a row
+    int recordProbeFailure() {
+        return this.consecutiveProbeFailures.incrementAndGet();
+    }
+
+    void recordProbeSuccess() {
+        this.consecutiveProbeFailures.set(0);
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    //returns false if the Host is already ejected
+    boolean eject(long ejectedUntilMillis) {
+        if(!this.ejected.compareAndSet(false, true)) {
+            return false;
+        }
+        this.ejectedUntilMillis = ejectedUntilMillis;
+        this.ejections.incrementAndGet();
+        return true;
+    }
+
+    void readmit() {
+        this.consecutiveFailures.set(0);
+        this.ejected.set(false);
+    }
+
+    long getCircuitOpenUntilNanos() {
+        return this.circuitOpenUntilNanos;
+    }
+
+    CallWindow getCallWindow() {
+        return this.callWindow;
+    }
+
+    //returns false if circuit was not in state from
+    boolean openCircuit(CircuitState from, long openUntilNanos) {
+        this.circuitOpenUntilNanos = openUntilNanos;
+        return this.circuitState.compareAndSet(from, CircuitState.OPEN);
+    }
+
+    //returns false if circuit was not open
+    boolean halfOpenCircuit(int permits) {
+        if(!this.circuitState.compareAndSet(CircuitState.OPEN, CircuitState.HALF_OPEN)) {
+            return false;
+        }
+        this.halfOpenSuccesses.set(0);
+        this.halfOpenPermits.set(permits);
+        return true;
+    }
+
+    //returns false if circuit was not half-open
+    boolean closeCircuit() {
+        if(!this.circuitState.compareAndSet(CircuitState.HALF_OPEN, CircuitState.CLOSED)) {
+            return false;
+        }
+        this.callWindow.reset();
+        return true;
+    }
+
+    boolean tryTakeHalfOpenPermit() {
+        while(true) {
+            int permits = this.halfOpenPermits.get();
+            if(permits <= 0) {
+                return false;
+            }
+            if(this.halfOpenPermits.compareAndSet(permits, permits - 1)) {
+                return true;
+            }
+        }
+    }
+
+    void returnHalfOpenPermit() {
+        this.halfOpenPermits.incrementAndGet();
+    }
+
+    //returns number of trial calls which succeeded since circuit went half-open
+    int recordHalfOpenSuccess() {
+        return this.halfOpenSuccesses.incrementAndGet();
+    }
+
+    //a Host which stays out of trouble slowly loses its ejection history
+    void decayEjections() {
+        this.ejections.updateAndGet(ejections -> ejections > 0 ? ejections - 1 : 0);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * HostStateRegistry holds a single HostState per Host(upstream-server)
+ *
+ * Selectors resolve HostState of their hosts once when they build their host arrays and read it afterwards without a map lookup.
+ * Every HostState starts with proxy.limit.maxPerHost permits and counts results of calls over proxy.circuit.windowSeconds.
+ */
+@Component
+public class HostStateRegistry {
+    private final ConcurrentMap<Host, HostState> hostStates = new ConcurrentHashMap<>();
+    private final int maxPerHost;
+    private final int windowSeconds;
+
+    @Autowired
+    public HostStateRegistry(@Value("${proxy.limit.maxPerHost:64}") int maxPerHost,
+        @Value("${proxy.circuit.windowSeconds:10}") int windowSeconds) {
+        this.maxPerHost = maxPerHost;
+        this.windowSeconds = windowSeconds;
+    }
+
+    public HostState get(Host host) {
+        HostState hostState = this.hostStates.get(host);
+        return hostState != null ? hostState : this.hostStates.computeIfAbsent(host, h -> new HostState(h, this.maxPerHost, this.windowSeconds));
+    }
+
+    //forgets state of a Host which was removed from the registry and has been drained
+    public void remove(Host host) {
+        this.hostStates.remove(host);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/*
+ * LeastOutstandingRequests class is used to select the node which has the least number of requests in flight
+ *
+ * Slow nodes keep more requests in flight, so they get less new traffic until they catch up. In-flight count of every node
+ * is read from its HostState which is kept up to date by AbstractReverseProxy.
+ *
+ * All hosts of the service are scanned, no lock is taken. Scan starts at a rotating position so that equally loaded nodes
+ * share traffic instead of the first node always winning a tie.
+ *
+ * Nodes which are unavailable or have no free concurrency permit are skipped.
+ * In cases where all nodes are busy ServiceOverloadedException is thrown.
+ *
+ */
+@Log4j2
+@Component
+public class LeastOutstandingRequests {
+    private volatile Map<String, ServiceHosts> serviceHostsMap;
+
+    @Autowired
+    public LeastOutstandingRequests(HostIndex hostIndex, HostStateRegistry hostStateRegistry) {
+        hostIndex.addListener(index -> this.serviceHostsMap = ServiceHosts.fromIndex(index, hostStateRegistry));
+    }
+
+    public Host getLeastLoadedHost(final String serviceName) {
+        ServiceHosts serviceHosts = ServiceHosts.get(this.serviceHostsMap, serviceName);
+        int size = serviceHosts.hosts.length;
+        long start = serviceHosts.cursor.getAndIncrement();
+        int selected = -1;
+        int leastInFlight = Integer.MAX_VALUE;
+        for(int i = 0; i < size; i++) {
+            int index = (int) ((start + i) % size);
+            HostState hostState = serviceHosts.hostStates[index];
+            if(hostState.hasCapacity() && hostState.getInFlight() < leastInFlight) {
+                leastInFlight = hostState.getInFlight();
+                selected = index;
+            }
+        }
+        if(selected < 0) {
+            log.debug("All Servers are busy!!!!");
+            throw new ServiceOverloadedException(serviceName);
+        }
+        return serviceHosts.hosts[selected];
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * PowerOfTwoChoices class is used to select a node using power-of-two-random-choices
+ *
+ * Two different nodes are picked randomly and the one with less requests in flight(HostState) is selected.
+ * It is almost as good as LeastOutstandingRequests at keeping slow nodes from getting traffic, but reads only two
+ * HostStates per pick and does not make all threads rush to the same least loaded node.
+ *
+ * If one of the two nodes is unavailable or has no free concurrency permit the other one is taken,
+ * if both are busy all hosts are scanned. In cases where all nodes are busy ServiceOverloadedException is thrown.
+ *
+ */
+@Log4j2
+@Component
+public class PowerOfTwoChoices {
+    private volatile Map<String, ServiceHosts> serviceHostsMap;
+
+    @Autowired
+    public PowerOfTwoChoices(HostIndex hostIndex, HostStateRegistry hostStateRegistry) {
+        hostIndex.addListener(index -> this.serviceHostsMap = ServiceHosts.fromIndex(index, hostStateRegistry));
+    }
+
+    public Host getHostUsingPowerOfTwoChoices(final String serviceName) {
+        ServiceHosts serviceHosts = ServiceHosts.get(this.serviceHostsMap, serviceName);
+        int size = serviceHosts.hosts.length;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        //second pick is drawn from the remaining size-1 nodes so both choices are always different
+        int second = size == 1 ? first : (first + 1 + random.nextInt(size - 1)) % size;
+        HostState firstState = serviceHosts.hostStates[first];
+        HostState secondState = serviceHosts.hostStates[second];
+        if(firstState.hasCapacity() && secondState.hasCapacity()) {
+            return serviceHosts.hosts[firstState.getInFlight() <= secondState.getInFlight() ? first : second];
+        } else if(firstState.hasCapacity()) {
+            return serviceHosts.hosts[first];
+        } else if(secondState.hasCapacity()) {
+            return serviceHosts.hosts[second];
+        }
+        for(int i = 0; i < size; i++) {
+            if(serviceHosts.hostStates[i].hasCapacity()) {
+                return serviceHosts.hosts[i];
+            }
+        }
+        log.debug("All Servers are busy!!!!");
+        throw new ServiceOverloadedException(serviceName);
+    }
+}
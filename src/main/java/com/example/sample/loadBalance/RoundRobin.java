@@ -2,11 +2,9 @@ package com.example.sample.loadBalance;
 
 import com.example.sample.model.Host;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Multiset;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
-import org.springframework.stereotype.Component;
 
 import java.util.Iterator;
 import java.util.List;
@@ -16,8 +14,8 @@ import java.util.stream.Collectors;
 /*
  * RoundRobin class is used to select a node to forward request to in round-robin manner
  *
- * For this purpose Google's Iterables.cycle() is used which is made available by generating a singleton bean "roundRobinIterator".
- * This "roundRobinIteratorMap" contains entry of
+ * For this purpose Google's Iterables.cycle() is used, one per service built from the hostList it is given.
+ * This "roundRobinCyclingIteratorMap" contains entry of
  * Service1 -> all Iterables.cycle(List<Host>)
  * Service2 -> all Iterables.cycle(List<Host>)
  * Service3 -> all Iterables.cycle(List<Host>)
@@ -32,32 +30,40 @@ import java.util.stream.Collectors;
  * In cases where all nodes have reached threshold traffic/requests. allServerBusy() method is used for this purpose.
  * Error is thrown. This is where scaling can shine. We can spin up new nodes/instances in such situations.
  *
+ * NOTICE- the shared cycling iterator and Multiset are not thread-safe and counts are never reset, so every node is
+ * reported busy after thresholdCountOfCallingAService calls. RoundRobinSelector has replaced this class on the request path,
+ * it is no longer a bean and is only kept as the legacyRoundRobin baseline of SelectorBenchmark.
+ *
  */
 @Log4j2
-@Component
 public class RoundRobin {
     //THRESHOLD_COUNT_OF_CALLING_A_SERVICE can specify max amount of traffic a node/host can serve.
-    private static final Integer THRESHOLD_COUNT_OF_CALLING_A_SERVICE = 10;
-    private ApplicationContext context;
+    private static final int THRESHOLD_COUNT_OF_CALLING_A_SERVICE = 10;
+    private final int thresholdCountOfCallingAService;
     private List<Host> hostList;
     private Map<String, Iterator<Host>> roundRobinCyclingIteratorMap;
     private Multiset<Host> counter;
 
-    public RoundRobin(@Autowired ApplicationContext context){
+    public RoundRobin(List<Host> hostList) {
+        this(hostList, THRESHOLD_COUNT_OF_CALLING_A_SERVICE);
+    }
+
+    public RoundRobin(List<Host> hostList, int thresholdCountOfCallingAService) {
         this.counter = HashMultiset.create();
-        this.context = context;
-        this.hostList = (List<Host>) context.getBean("hostList");
-        this.roundRobinCyclingIteratorMap = (Map<String, Iterator<Host>>) context.getBean("roundRobinIterator");
+        this.thresholdCountOfCallingAService = thresholdCountOfCallingAService;
+        this.hostList = hostList;
+        this.roundRobinCyclingIteratorMap = hostList.stream().collect(Collectors.groupingBy(Host::getServiceName)).entrySet()
+            .stream().collect(Collectors.toMap(Map.Entry::getKey, e -> Iterables.cycle(e.getValue()).iterator()));
     }
 
     public Host getHostUsingRoundRobin(final String serviceName) {
         Host nextServicePort = this.roundRobinCyclingIteratorMap.get(serviceName).next();
-        log.info("nextServicePort using RoundRobin {}", nextServicePort);
-        if (getNodeCallCountSoFar(nextServicePort) <= THRESHOLD_COUNT_OF_CALLING_A_SERVICE) {
+        log.debug("nextServicePort using RoundRobin {}", nextServicePort);
+        if (getNodeCallCountSoFar(nextServicePort) <= this.thresholdCountOfCallingAService) {
             this.counter.add(nextServicePort);
         } else {
             if(allServerBusy(serviceName)) {
-                log.info("All Servers are busy!!!!");
+                log.debug("All Servers are busy!!!!");
                 throw new RuntimeException("All Servers are busy!! Scale-up!");
             }
             return null;
@@ -0,0 +1,49 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/*
+ * RoundRobinSelector is used to select a node to forward request to in round-robin manner
+ *
+ * hosts of every service come precomputed as a Host[] from HostIndex
+ * Service1 -> [Host1, Host2, Host3]
+ * Service2 -> [HostX, HostY]
+ *
+ * Every service has an AtomicLong cursor. getAndIncrement() on it gives each worker thread its own position in the Host[],
+ * so a pick neither takes a lock nor allocates and is safe to be called by all tomcat worker threads at the same time.
+ *
+ * Starting from that position hosts are scanned until one is found which is available and has a free concurrency permit(HostState).
+ *
+ * In cases where all nodes are unavailable or have no free permit ServiceOverloadedException is thrown.
+ * This is where scaling can shine. We can spin up new nodes/instances in such situations.
+ *
+ */
+@Log4j2
+@Component
+public class RoundRobinSelector {
+    private volatile Map<String, ServiceHosts> serviceHostsMap;
+
+    @Autowired
+    public RoundRobinSelector(HostIndex hostIndex, HostStateRegistry hostStateRegistry) {
+        hostIndex.addListener(index -> this.serviceHostsMap = ServiceHosts.fromIndex(index, hostStateRegistry));
+    }
+
+    public Host getHostUsingRoundRobin(final String serviceName) {
+        ServiceHosts serviceHosts = ServiceHosts.get(this.serviceHostsMap, serviceName);
+        int size = serviceHosts.hosts.length;
+        long start = serviceHosts.cursor.getAndIncrement();
+        for(int i = 0; i < size; i++) {
+            int index = (int) ((start + i) % size);
+            if(serviceHosts.hostStates[index].hasCapacity()) {
+                return serviceHosts.hosts[index];
+            }
+        }
+        log.debug("All Servers are busy!!!!");
+        throw new ServiceOverloadedException(serviceName);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * ServiceHosts is the per-service state a selector keeps next to Host[] of HostIndex
+ *
+ * hostStates - HostState of every host, resolved once so a pick does not need a map lookup
+ * cursor     - position of round-robin selection
+ */
+final class ServiceHosts {
+    final Host[] hosts;
+    final HostState[] hostStates;
+    final AtomicLong cursor = new AtomicLong();
+
+    ServiceHosts(Host[] hosts, HostStateRegistry hostStateRegistry) {
+        this.hosts = hosts;
+        this.hostStates = new HostState[hosts.length];
+        for(int i = 0; i < hosts.length; i++) {
+            this.hostStates[i] = hostStateRegistry.get(hosts[i]);
+        }
+    }
+
+    static Map<String, ServiceHosts> fromIndex(Map<String, Host[]> index, HostStateRegistry hostStateRegistry) {
+        ImmutableMap.Builder<String, ServiceHosts> builder = ImmutableMap.builder();
+        index.forEach((serviceName, hosts) -> builder.put(serviceName, new ServiceHosts(hosts, hostStateRegistry)));
+        return builder.build();
+    }
+
+    static ServiceHosts get(Map<String, ServiceHosts> serviceHostsMap, String serviceName) {
+        ServiceHosts serviceHosts = serviceHostsMap.get(serviceName);
+        if(serviceHosts == null) {
+            throw new IllegalArgumentException("No hosts registered for service " + serviceName);
+        }
+        return serviceHosts;
+    }
+}
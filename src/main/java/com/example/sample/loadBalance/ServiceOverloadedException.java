@@ -0,0 +1,19 @@
+package com.example.sample.loadBalance;
+
+import lombok.Getter;
+
+/*
+ * ServiceOverloadedException is thrown when all nodes of a service have used up their concurrency permits or are unavailable
+ * It is turned into a 503 Service Unavailable with Retry-After header by ProxyExceptionHandler.
+ * No stack trace is filled in, shedding has to stay cheap when the proxy is overloaded.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    @Getter
+    private final String serviceName;
+
+    public ServiceOverloadedException(String serviceName) {
+        super("All Servers are busy!! Scale-up!", null, false, false);
+        this.serviceName = serviceName;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.math.IntMath;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/*
+ * SmoothWeightedRoundRobin selects a node in round-robin manner where every node gets a share of requests equal to its weight
+ *
+ * Picks are spread the way nginx does it(smooth weighted round-robin), for weights a=5, b=1, c=1 the order is
+ * a a b a c a a instead of a a a a a b c, so a heavy node does not get a burst of requests in a row.
+ *
+ * The order only depends on the weights, it is computed once per service whenever HostIndex changes into a sequence of
+ * host indexes of length sum of weights(divided by their gcd, scaled down to at most MAX_SEQUENCE). A pick is then
+ * getAndIncrement() of the cursor of the service as in RoundRobinSelector, it takes no lock and allocates nothing.
+ *
+ * If the picked node is unavailable or has no free concurrency permit the next nodes are scanned,
+ * in cases where all nodes are busy ServiceOverloadedException is thrown.
+ *
+ */
+@Log4j2
+@Component
+public class SmoothWeightedRoundRobin {
+    private static final int MAX_SEQUENCE = 1 << 14;
+    private volatile Map<String, WeightedHosts> weightedHostsMap;
+
+    @Autowired
+    public SmoothWeightedRoundRobin(HostIndex hostIndex, HostStateRegistry hostStateRegistry) {
+        hostIndex.addListener(index -> {
+            ImmutableMap.Builder<String, WeightedHosts> builder = ImmutableMap.builder();
+            index.forEach((serviceName, hosts) -> builder.put(serviceName, new WeightedHosts(hosts, hostStateRegistry)));
+            this.weightedHostsMap = builder.build();
+        });
+    }
+
+    public Host getHostUsingWeightedRoundRobin(final String serviceName) {
+        WeightedHosts weightedHosts = this.weightedHostsMap.get(serviceName);
+        if(weightedHosts == null) {
+            throw new IllegalArgumentException("No hosts registered for service " + serviceName);
+        }
+        ServiceHosts serviceHosts = weightedHosts.serviceHosts;
+        int[] sequence = weightedHosts.sequence;
+        int first = sequence[(int) (serviceHosts.cursor.getAndIncrement() % sequence.length)];
+        int size = serviceHosts.hosts.length;
+        for(int i = 0; i < size; i++) {
+            int index = (first + i) % size;
+            if(serviceHosts.hostStates[index].hasCapacity()) {
+                return serviceHosts.hosts[index];
+            }
+        }
+        log.debug("All Servers are busy!!!!");
+        throw new ServiceOverloadedException(serviceName);
+    }
+
+    //hosts of a service along with the order in which they are picked
+    private static final class WeightedHosts {
+        private final ServiceHosts serviceHosts;
+        private final int[] sequence;
+
+        private WeightedHosts(Host[] hosts, HostStateRegistry hostStateRegistry) {
+            this.serviceHosts = new ServiceHosts(hosts, hostStateRegistry);
+            this.sequence = toSequence(getWeights(hosts));
+        }
+
+        private static int[] getWeights(Host[] hosts) {
+            int[] weights = new int[hosts.length];
+            int gcd = 0;
+            long total = 0;
+            for(int i = 0; i < hosts.length; i++) {
+                weights[i] = hosts[i].getWeight();
+                gcd = IntMath.gcd(gcd, weights[i]);
+                total += weights[i];
+            }
+            long reducedTotal = total / gcd;
+            for(int i = 0; i < weights.length; i++) {
+                weights[i] /= gcd;
+                //shares are kept to within 1/MAX_SEQUENCE, a node never drops out
+                if(reducedTotal > MAX_SEQUENCE) {
+                    weights[i] = (int) Math.max(1, (long) weights[i] * MAX_SEQUENCE / reducedTotal);
+                }
+            }
+            return weights;
+        }
+
+        //every step each host gains its weight and the one with most is picked and loses the total
+        private static int[] toSequence(int[] weights) {
+            int total = 0;
+            for(int weight: weights) {
+                total += weight;
+            }
+            int[] current = new int[weights.length];
+            int[] sequence = new int[total];
+            for(int step = 0; step < total; step++) {
+                int best = 0;
+                for(int i = 0; i < weights.length; i++) {
+                    current[i] += weights[i];
+                    if(current[i] > current[best]) {
+                        best = i;
+                    }
+                }
+                current[best] -= total;
+                sequence[step] = best;
+            }
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.model.Host;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * UpstreamHealthIndicator reports health of every Host(upstream-server) on actuator health endpoint as component "upstream"
+ * http://localhost:8080/actuator/health/upstream
+ *
+ * every Host is listed per service as ip:port with its state UP, DOWN(failed active health checks), EJECTED(outlier
+ * detection), OPEN or HALF_OPEN(circuit breaker) along with its requests in flight, ejection count and, while ejected,
+ * when it is readmitted.
+ * Status is UP as long as every service has at least one available Host.
+ */
+@Component
+public class UpstreamHealthIndicator implements HealthIndicator {
+    private final HostIndex hostIndex;
+    private final HostStateRegistry hostStateRegistry;
+
+    @Autowired
+    public UpstreamHealthIndicator(HostIndex hostIndex, HostStateRegistry hostStateRegistry) {
+        this.hostIndex = hostIndex;
+        this.hostStateRegistry = hostStateRegistry;
+    }
+
+    @Override
+    public Health health() {
+        boolean up = true;
+        Health.Builder builder = Health.up();
+        for(Map.Entry<String, Host[]> entry: this.hostIndex.getIndex().entrySet()) {
+            boolean serviceUp = false;
+            Map<String, Object> hosts = new LinkedHashMap<>();
+            for(Host host: entry.getValue()) {
+                HostState hostState = this.hostStateRegistry.get(host);
+                serviceUp |= hostState.isAvailable();
+                hosts.put(host.getServiceIP() + ":" + host.getPort(), getDetails(hostState));
+            }
+            up &= serviceUp;
+            builder.withDetail(entry.getKey(), hosts);
+        }
+        return up ? builder.build() : builder.down().build();
+    }
+
+    private static Map<String, Object> getDetails(HostState hostState) {
+        CircuitState circuitState = hostState.getCircuitState();
+        String state = hostState.isEjected() ? "EJECTED" : !hostState.isHealthy() ? "DOWN"
+            : circuitState != CircuitState.CLOSED ? circuitState.name() : "UP";
+        ImmutableMap.Builder<String, Object> details = ImmutableMap.<String, Object>builder()
+            .put("state", state)
+            .put("inFlight", hostState.getInFlight())
+            .put("ejections", hostState.getEjections());
+        if(hostState.isEjected()) {
+            details.put("ejectedForMillis", Math.max(0, hostState.getEjectedUntilMillis() - System.currentTimeMillis()));
+        }
+        return details.build();
+    }
+}
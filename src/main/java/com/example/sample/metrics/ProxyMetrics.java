@@ -0,0 +1,183 @@
+package com.example.sample.metrics;
+
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.model.Host;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ProxyMetrics times every stage of a proxied request
+ *
+ * proxy.route.match      - Router matching the request
+ * proxy.host.selection   - selection of a Host by the strategy(proxyType)                      tags service, strategy
+ * proxy.upstream.acquire - getting a pooled upstream connection, connecting one if none is idle   tags service, host
+ * proxy.upstream.ttfb    - request sent till the status line and headers of the response arrived  tags service, host
+ * proxy.upstream.body    - reading the response body, or relaying it to the client when streaming tags service, host
+ * proxy.request          - whole request as seen by the controller, cache hits included          tags service, strategy
+ * proxy.requests.shed    - requests shed with 503 because a service had no free concurrency permit tags service
+ * proxy.requests.limited - requests rejected with 429 by RateLimiter                              tags service, scope
+ * Retries(proxy.retry.retries) and cache hits(cache.gets with result=hit) are counted where they happen.
+ *
+ * Timers are registered once per service, strategy and host and kept in ConcurrentHashMaps, recording is a get() followed by
+ * Timer.record() which only updates striped adders and atomic histogram buckets, it takes no lock and does not allocate.
+ * Histogram buckets and expected min/max come from management.metrics.distribution.* of application.properties and are
+ * scraped from /actuator/prometheus. Timers of a Host removed from HostIndex are removed with it.
+ *
+ * Until actuator binds its registry(e.g. in benchmarks) meters go to a SimpleMeterRegistry.
+ */
+@Component
+public class ProxyMetrics implements MeterBinder {
+    private final ConcurrentMap<String, ConcurrentMap<String, ServiceTimers>> serviceTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Host, HostTimers> hostTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> sheds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Counter>> limited = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry = new SimpleMeterRegistry();
+    private volatile Timer routeMatch = registerRouteMatch(this.registry);
+
+    @Autowired
+    public ProxyMetrics(HostIndex hostIndex) {
+        hostIndex.addListener(this::removeHosts);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        this.routeMatch = registerRouteMatch(registry);
+        this.serviceTimers.clear();
+        this.hostTimers.clear();
+        this.sheds.clear();
+        this.limited.clear();
+    }
+
+    public void recordRouteMatch(long nanos) {
+        this.routeMatch.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSelection(String serviceName, String strategy, long nanos) {
+        getServiceTimers(serviceName, strategy).selection.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRequest(String serviceName, String strategy, long nanos) {
+        getServiceTimers(serviceName, strategy).request.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordAcquire(Host host, long nanos) {
+        getHostTimers(host).acquire.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordTimeToFirstByte(Host host, long nanos) {
+        getHostTimers(host).timeToFirstByte.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordBody(Host host, long nanos) {
+        getHostTimers(host).body.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordShed(String serviceName) {
+        Counter counter = this.sheds.get(serviceName);
+        if(counter == null) {
+            counter = this.sheds.computeIfAbsent(serviceName, name -> Counter.builder("proxy.requests.shed")
+                .description("requests shed with 503 because the service had no free concurrency permit")
+                .tag("service", name).register(this.registry));
+        }
+        counter.increment();
+    }
+
+    public void recordLimited(String serviceName, String scope) {
+        ConcurrentMap<String, Counter> byService = this.limited.get(scope);
+        if(byService == null) {
+            byService = this.limited.computeIfAbsent(scope, key -> new ConcurrentHashMap<>());
+        }
+        Counter counter = byService.get(serviceName);
+        if(counter == null) {
+            counter = byService.computeIfAbsent(serviceName, name -> Counter.builder("proxy.requests.limited")
+                .description("requests rejected with 429 because a token bucket of the client or route was empty")
+                .tag("service", name).tag("scope", scope).register(this.registry));
+        }
+        counter.increment();
+    }
+
+    //get() first so that a lookup of timers which exist does not allocate a lambda
+    private ServiceTimers getServiceTimers(String serviceName, String strategy) {
+        ConcurrentMap<String, ServiceTimers> byService = this.serviceTimers.get(strategy);
+        if(byService == null) {
+            byService = this.serviceTimers.computeIfAbsent(strategy, key -> new ConcurrentHashMap<>());
+        }
+        ServiceTimers timers = byService.get(serviceName);
+        if(timers == null) {
+            timers = byService.computeIfAbsent(serviceName, key -> new ServiceTimers(this.registry, serviceName, strategy));
+        }
+        return timers;
+    }
+
+    private HostTimers getHostTimers(Host host) {
+        HostTimers timers = this.hostTimers.get(host);
+        if(timers == null) {
+            timers = this.hostTimers.computeIfAbsent(host, key -> new HostTimers(this.registry, key));
+        }
+        return timers;
+    }
+
+    private void removeHosts(Map<String, Host[]> index) {
+        Set<Host> hosts = new HashSet<>();
+        index.values().forEach(serviceHosts -> hosts.addAll(Arrays.asList(serviceHosts)));
+        this.hostTimers.keySet().removeIf(host -> {
+            if(hosts.contains(host)) {
+                return false;
+            }
+            this.hostTimers.get(host).remove(this.registry);
+            return true;
+        });
+    }
+
+    private static Timer registerRouteMatch(MeterRegistry registry) {
+        return Timer.builder("proxy.route.match").description("matching a request against the routing table").register(registry);
+    }
+
+    private static final class ServiceTimers {
+        private final Timer selection;
+        private final Timer request;
+
+        private ServiceTimers(MeterRegistry registry, String serviceName, String strategy) {
+            this.selection = Timer.builder("proxy.host.selection").description("selecting a host of the service")
+                .tag("service", serviceName).tag("strategy", strategy).register(registry);
+            this.request = Timer.builder("proxy.request").description("whole request, cache hits included")
+                .tag("service", serviceName).tag("strategy", strategy).register(registry);
+        }
+    }
+
+    private static final class HostTimers {
+        private final Timer acquire;
+        private final Timer timeToFirstByte;
+        private final Timer body;
+
+        private HostTimers(MeterRegistry registry, Host host) {
+            String hostTag = host.getServiceIP() + ":" + host.getPort();
+            this.acquire = Timer.builder("proxy.upstream.acquire").description("getting a pooled upstream connection")
+                .tag("service", host.getServiceName()).tag("host", hostTag).register(registry);
+            this.timeToFirstByte = Timer.builder("proxy.upstream.ttfb").description("upstream request sent till response head arrived")
+                .tag("service", host.getServiceName()).tag("host", hostTag).register(registry);
+            this.body = Timer.builder("proxy.upstream.body").description("reading or relaying the upstream response body")
+                .tag("service", host.getServiceName()).tag("host", hostTag).register(registry);
+        }
+
+        private void remove(MeterRegistry registry) {
+            registry.remove(this.acquire);
+            registry.remove(this.timeToFirstByte);
+            registry.remove(this.body);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.example.sample.model;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 
 /*
@@ -10,13 +11,21 @@ import lombok.NoArgsConstructor;
  * serviceName can be "my-company"
  * IP can be 10.0.0.1
  * port can be 9090
+ * weight is its share of requests of the service relative to the other hosts, 1 if not set. It is not part of equals()
+ * so a Host whose weight changes at runtime keeps its HostState.
  */
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
+@EqualsAndHashCode(exclude = "weight")
 public class Host {
     String serviceName;
     String serviceIP;
     String port;
+    int weight;
+
+    public int getWeight() {
+        return this.weight > 0 ? this.weight : 1;
+    }
 }
@@ -0,0 +1,26 @@
+package com.example.sample.rateLimit;
+
+import lombok.Getter;
+
+/*
+ * RateLimitedException is thrown when the token bucket of the client or of the route of a request is empty
+ * It is turned into a 429 Too Many Requests with RateLimit-Limit, RateLimit-Remaining, RateLimit-Reset and Retry-After
+ * headers by ProxyExceptionHandler. No stack trace is filled in, rejecting has to stay cheap for a client which floods the proxy.
+ */
+@Getter
+public class RateLimitedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final String serviceName;
+    //RateLimiter.CLIENT_SCOPE or RateLimiter.ROUTE_SCOPE
+    private final String scope;
+    private final int limit;
+    private final long resetSeconds;
+
+    public RateLimitedException(String serviceName, String scope, int limit, long resetSeconds) {
+        super("Too many requests!! Slow down!", null, false, false);
+        this.serviceName = serviceName;
+        this.scope = scope;
+        this.limit = limit;
+        this.resetSeconds = resetSeconds;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.sample.rateLimit;
+
+import com.example.sample.routing.Route;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RateLimiter admits requests by token buckets(TokenBucketTable) before EntryPoint or AsyncEntryPoint does anything else with
+ * them, so a noisy client cannot starve everyone else. A request which finds a bucket empty is rejected with
+ * RateLimitedException(429).
+ *
+ * proxy.rateLimit.enabled              - turns rate limiting on
+ * proxy.rateLimit.client.key           - clientIp(address of the connection, X-Forwarded-For is sent by the client so it is not
+ *                                        trusted) or apiKey(proxy.rateLimit.apiKeyHeader, clientIp if a request has none).
+ *                                        API keys are not verified here, a client could make up a new one per request
+ * proxy.rateLimit.client.ratePerSecond - requests a second a client may send, 0 turns per-client limits off
+ * proxy.rateLimit.client.burst         - requests a client may send at once after being idle
+ * proxy.rateLimit.route.ratePerSecond  - requests a second all clients together may send to a Route, 0 turns per-route limits off
+ * proxy.rateLimit.route.burst          - requests all clients may send at once to a Route after it was idle
+ * proxy.rateLimit.maxKeys              - buckets kept per table, least recently used ones are evicted beyond it
+ * proxy.rateLimit.stripes              - locks a table is split into, rounded down to a power of 2
+ *
+ * A request which passes takes a token of its client and of its route and nothing is given back, so rejected requests of a
+ * client still count against it.
+ *
+ * Buckets kept are published as proxy.rateLimit.keys(tag scope) on actuator metrics endpoint.
+ */
+@Log4j2
+@Component
+public class RateLimiter implements MeterBinder {
+    public static final String CLIENT_SCOPE = "client";
+    public static final String ROUTE_SCOPE = "route";
+    static final String CLIENT_IP_KEY = "clientIp";
+    static final String API_KEY = "apiKey";
+    private final boolean enabled;
+    private final boolean byApiKey;
+    private final String apiKeyHeader;
+    private final TokenBucketTable clientBuckets;
+    private final TokenBucketTable routeBuckets;
+
+    @Autowired
+    public RateLimiter(@Value("${proxy.rateLimit.enabled:false}") boolean enabled,
+        @Value("${proxy.rateLimit.client.key:clientIp}") String clientKey,
+        @Value("${proxy.rateLimit.apiKeyHeader:X-Api-Key}") String apiKeyHeader,
+        @Value("${proxy.rateLimit.client.ratePerSecond:100}") double clientRatePerSecond,
+        @Value("${proxy.rateLimit.client.burst:200}") int clientBurst,
+        @Value("${proxy.rateLimit.route.ratePerSecond:0}") double routeRatePerSecond,
+        @Value("${proxy.rateLimit.route.burst:1000}") int routeBurst,
+        @Value("${proxy.rateLimit.maxKeys:1000000}") int maxKeys,
+        @Value("${proxy.rateLimit.stripes:64}") int stripes) {
+        if(!CLIENT_IP_KEY.equals(clientKey) && !API_KEY.equals(clientKey)) {
+            throw new IllegalArgumentException("proxy.rateLimit.client.key " + clientKey + " is neither " + CLIENT_IP_KEY
+                + " nor " + API_KEY);
+        }
+        this.enabled = enabled;
+        this.byApiKey = API_KEY.equals(clientKey);
+        this.apiKeyHeader = apiKeyHeader;
+        this.clientBuckets = enabled && clientRatePerSecond > 0
+            ? new TokenBucketTable(clientRatePerSecond, clientBurst, maxKeys, stripes) : null;
+        this.routeBuckets = enabled && routeRatePerSecond > 0
+            ? new TokenBucketTable(routeRatePerSecond, routeBurst, maxKeys, stripes) : null;
+        if(enabled) {
+            log.info("rate limiting by {} {}/s burst {}, by route {}/s burst {}", clientKey, clientRatePerSecond, clientBurst,
+                routeRatePerSecond, routeBurst);
+        }
+    }
+
+    /*
+     * takes a token of the client and of the route of the request, throws RateLimitedException if either has none.
+     * Client goes first so a flooding client is stopped before it drains the bucket its route shares with everyone else.
+     */
+    public void check(HttpServletRequest request, Route route) {
+        if(!this.enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if(this.clientBuckets != null) {
+            check(this.clientBuckets, getClientKey(request), now, route, CLIENT_SCOPE);
+        }
+        if(this.routeBuckets != null) {
+            check(this.routeBuckets, route.getDefinition(), now, route, ROUTE_SCOPE);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if(this.clientBuckets != null) {
+            Gauge.builder("proxy.rateLimit.keys", this.clientBuckets, TokenBucketTable::size)
+                .description("token buckets kept").tag("scope", CLIENT_SCOPE).register(registry);
+        }
+        if(this.routeBuckets != null) {
+            Gauge.builder("proxy.rateLimit.keys", this.routeBuckets, TokenBucketTable::size)
+                .description("token buckets kept").tag("scope", ROUTE_SCOPE).register(registry);
+        }
+    }
+
+    private static void check(TokenBucketTable buckets, String key, long now, Route route, String scope) {
+        long waitNanos = buckets.tryAcquire(key, now);
+        if(waitNanos > 0) {
+            log.debug("rate limited {} {} of route {}", scope, key, route);
+            throw new RateLimitedException(route.getServiceName(), scope, buckets.getBurst(),
+                Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)));
+        }
+    }
+
+    private String getClientKey(HttpServletRequest request) {
+        if(this.byApiKey) {
+            String apiKey = request.getHeader(this.apiKeyHeader);
+            if(apiKey != null) {
+                return apiKey;
+            }
+        }
+        return request.getRemoteAddr();
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.sample.rateLimit;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * TokenBucketTable keeps a token bucket for every key(client IP, API key or route) with the same rate and burst
+ *
+ * A bucket holds up to burst tokens and gains ratePerSecond tokens a second, a request takes one. Buckets are refilled
+ * lazily when their key is seen, there is no timer.
+ *
+ * The table is split into stripes by hash of the key, every stripe keeps an access-ordered LinkedHashMap guarded by its own
+ * monitor and holds maxKeys/stripes buckets. Once a stripe is full its least recently used bucket is evicted, so the table
+ * stays bounded however many keys show up. A key seen again after eviction starts with a full bucket, being the least
+ * recently used it would have refilled meanwhile unless the table is far too small. Evicted buckets are reused so a
+ * stream of new keys does not allocate buckets, a known key is looked up and updated without allocating at all.
+ * A bucket costs about 100 bytes with its LinkedHashMap entry and key, a million keys take about 100MB.
+ */
+public final class TokenBucketTable {
+    private final Stripe[] stripes;
+    private final int shift;
+    private final int burst;
+    private final double tokensPerNano;
+
+    public TokenBucketTable(double ratePerSecond, int burst, int maxKeys, int stripes) {
+        if(ratePerSecond <= 0 || burst < 1 || maxKeys < 1 || stripes < 1) {
+            throw new IllegalArgumentException("rate " + ratePerSecond + ", burst " + burst + ", maxKeys " + maxKeys
+                + " and stripes " + stripes + " must be positive");
+        }
+        int stripeCount = Integer.highestOneBit(Math.min(stripes, maxKeys));
+        this.stripes = new Stripe[stripeCount];
+        int keysPerStripe = (maxKeys + stripeCount - 1) / stripeCount;
+        for(int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(keysPerStripe);
+        }
+        this.shift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+        this.burst = burst;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+    }
+
+    /*
+     * takes a token of the bucket of key, returns 0 if one was taken and nanos till the bucket has a token otherwise
+     */
+    public long tryAcquire(String key, long nowNanos) {
+        Stripe stripe = getStripe(key);
+        synchronized(stripe) {
+            TokenBucket bucket = stripe.get(key);
+            if(bucket == null) {
+                bucket = stripe.add(key);
+                bucket.tokens = this.burst;
+                bucket.refilledNanos = nowNanos;
+            } else {
+                long elapsedNanos = nowNanos - bucket.refilledNanos;
+                if(elapsedNanos > 0) {
+                    bucket.tokens = Math.min(this.burst, bucket.tokens + elapsedNanos * this.tokensPerNano);
+                    bucket.refilledNanos = nowNanos;
+                }
+            }
+            if(bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - bucket.tokens) / this.tokensPerNano));
+        }
+    }
+
+    public int getBurst() {
+        return this.burst;
+    }
+
+    public int size() {
+        int size = 0;
+        for(Stripe stripe: this.stripes) {
+            synchronized(stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    //stripe is taken from high bits of the scrambled hash, LinkedHashMap of the stripe indexes by the low bits
+    private Stripe getStripe(String key) {
+        return this.stripes.length == 1 ? this.stripes[0] : this.stripes[(key.hashCode() * 0x9E3779B9) >>> this.shift];
+    }
+
+    private static final class TokenBucket {
+        private double tokens;
+        private long refilledNanos;
+    }
+
+    //access-ordered so the first entry is the least recently used
+    private static final class Stripe {
+        private final Map<String, TokenBucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxKeys;
+
+        private Stripe(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        private TokenBucket get(String key) {
+            return this.buckets.get(key);
+        }
+
+        //bucket of a new key, bucket of the least recently used key is taken over if the stripe is full
+        private TokenBucket add(String key) {
+            TokenBucket bucket;
+            if(this.buckets.size() >= this.maxKeys) {
+                Iterator<TokenBucket> eldest = this.buckets.values().iterator();
+                bucket = eldest.next();
+                eldest.remove();
+            } else {
+                bucket = new TokenBucket();
+            }
+            this.buckets.put(key, bucket);
+            return bucket;
+        }
+
+        private int size() {
+            return this.buckets.size();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.sample.registry;
+
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.loadBalance.HostState;
+import com.example.sample.loadBalance.HostStateRegistry;
+import com.example.sample.model.Host;
+import com.example.sample.upstream.UpstreamConnectionPool;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * HostRegistry is the set of hosts of every service at runtime, hostList bean of application.properties is only its starting point
+ *
+ * It is changed by HostRegistryFileWatcher(proxy.registry.file) and by the hosts actuator endpoint(HostRegistryEndpoint).
+ * Every change builds a new immutable snapshot and hands it to HostIndex.update(), selectors pick it up through their
+ * HostIndex listeners. Writers are serialized here, read path of selectors stays a volatile read of the current index.
+ *
+ * added host   - proxy.registry.warmConnections keep-alive connections are opened to it in the background so its first
+ *                requests do not pay for the TCP handshake
+ * removed host - is drained, it gets no new request once the snapshot is swapped while requests in flight to it complete
+ *                as usual. When none is left(at most proxy.registry.drainTimeoutMillis) its HostState is dropped, idle
+ *                connections to it are closed by the idle evictor of UpstreamConnectionPool.
+ *
+ * A Host is identified by serviceName, serviceIP and port, a Host whose weight changes keeps its state.
+ */
+@Log4j2
+@Component
+public class HostRegistry {
+    private static final long DRAIN_CHECK_MILLIS = 100;
+    private final HostIndex hostIndex;
+    private final HostStateRegistry hostStateRegistry;
+    private final UpstreamConnectionPool connectionPool;
+    private final long drainTimeoutMillis;
+    private final int warmConnections;
+    private final ScheduledExecutorService executor;
+    private final Set<Host> draining = ConcurrentHashMap.newKeySet();
+    private volatile List<Host> hosts;
+
+    @Autowired
+    public HostRegistry(@Qualifier("hostList") List<Host> hostList, HostIndex hostIndex, HostStateRegistry hostStateRegistry,
+        UpstreamConnectionPool connectionPool,
+        @Value("${proxy.registry.drainTimeoutMillis:30000}") long drainTimeoutMillis,
+        @Value("${proxy.registry.warmConnections:2}") int warmConnections) {
+        this.hostIndex = hostIndex;
+        this.hostStateRegistry = hostStateRegistry;
+        this.connectionPool = connectionPool;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.warmConnections = warmConnections;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("host-registry-%d").setDaemon(true).build());
+        //HostIndex already holds hostList
+        this.hosts = ImmutableList.copyOf(hostList);
+    }
+
+    public List<Host> getHosts() {
+        return this.hosts;
+    }
+
+    public Set<Host> getDraining() {
+        return ImmutableSet.copyOf(this.draining);
+    }
+
+    //replaces hosts of every service e.g. with the content of proxy.registry.file
+    public synchronized void replace(List<Host> newHosts, String source) {
+        if(isSame(this.hosts, newHosts)) {
+            return;
+        }
+        apply(newHosts, source);
+    }
+
+    //adds a Host or changes its weight
+    public synchronized void put(Host host, String source) {
+        List<Host> newHosts = new ArrayList<>(this.hosts);
+        int index = newHosts.indexOf(host);
+        if(index >= 0) {
+            newHosts.set(index, host);
+        } else {
+            newHosts.add(host);
+        }
+        apply(newHosts, source);
+    }
+
+    //returns false if there was no such Host
+    public synchronized boolean remove(Host host, String source) {
+        List<Host> newHosts = new ArrayList<>(this.hosts);
+        if(!newHosts.remove(host)) {
+            return false;
+        }
+        apply(newHosts, source);
+        return true;
+    }
+
+    private void apply(List<Host> newHosts, String source) {
+        Set<Host> added = new HashSet<>(newHosts);
+        added.removeAll(this.hosts);
+        Set<Host> removed = new HashSet<>(this.hosts);
+        removed.removeAll(newHosts);
+        this.hosts = ImmutableList.copyOf(newHosts);
+        this.hostIndex.update(this.hosts);
+        log.info("hosts updated from {} added {} removed {}", source, added, removed);
+        for(Host host: added) {
+            //a host added back while draining is simply not dropped
+            if(!this.draining.remove(host) && this.warmConnections > 0) {
+                this.executor.execute(() -> warmUp(host));
+            }
+        }
+        long drainDeadline = System.currentTimeMillis() + this.drainTimeoutMillis;
+        for(Host host: removed) {
+            this.draining.add(host);
+            this.executor.execute(() -> drain(host, drainDeadline));
+        }
+    }
+
+    private void warmUp(Host host) {
+        try {
+            this.connectionPool.warmUp(host, this.warmConnections);
+            log.info("{} connections opened to new host {}", this.warmConnections, host);
+        } catch(IOException e) {
+            log.warn("could not open connections to new host {} {}", host, e.toString());
+        }
+    }
+
+    private void drain(Host host, long deadline) {
+        HostState hostState = this.hostStateRegistry.get(host);
+        if(this.draining.contains(host) && hostState.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+            this.executor.schedule(() -> drain(host, deadline), DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        synchronized(this) {
+            if(!this.draining.remove(host)) {
+                return;
+            }
+            this.hostStateRegistry.remove(host);
+        }
+        if(hostState.getInFlight() > 0) {
+            log.warn("host {} dropped after {} ms with {} requests still in flight", host, this.drainTimeoutMillis,
+                hostState.getInFlight());
+        } else {
+            log.info("host {} drained", host);
+        }
+    }
+
+    //same hosts with the same weights in the same order
+    private static boolean isSame(List<Host> hosts, List<Host> newHosts) {
+        if(!hosts.equals(newHosts)) {
+            return false;
+        }
+        for(int i = 0; i < hosts.size(); i++) {
+            if(hosts.get(i).getWeight() != newHosts.get(i).getWeight()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void close() {
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.sample.registry;
+
+import com.example.sample.model.Host;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * HostRegistryEndpoint lets hosts be listed, added and removed at runtime through actuator
+ *
+ * GET    /actuator/hosts - hosts of every service with their weight, and hosts which are being drained
+ * POST   /actuator/hosts {"serviceName": "...", "serviceIP": "...", "port": "...", "weight": 2} - adds a Host or changes its weight
+ * DELETE /actuator/hosts?serviceName=...&serviceIP=...&port=... - removes a Host, it is drained first
+ *
+ * Changes are made through HostRegistry and stay until the next reload of proxy.registry.file
+ */
+@Component
+@Endpoint(id = "hosts")
+public class HostRegistryEndpoint {
+    private static final String SOURCE = "actuator";
+    private final HostRegistry hostRegistry;
+
+    @Autowired
+    public HostRegistryEndpoint(HostRegistry hostRegistry) {
+        this.hostRegistry = hostRegistry;
+    }
+
+    @ReadOperation
+    public Map<String, Object> hosts() {
+        Map<String, List<Map<String, Object>>> services = new LinkedHashMap<>();
+        for(Host host: this.hostRegistry.getHosts()) {
+            services.computeIfAbsent(host.getServiceName(), serviceName -> new ArrayList<>()).add(toDetails(host));
+        }
+        List<Map<String, Object>> draining = new ArrayList<>();
+        for(Host host: this.hostRegistry.getDraining()) {
+            draining.add(ImmutableMap.<String, Object>builder().put("service", host.getServiceName()).putAll(toDetails(host)).build());
+        }
+        return ImmutableMap.of("services", services, "draining", draining);
+    }
+
+    @WriteOperation
+    public Map<String, Object> putHost(String serviceName, String serviceIP, String port, @Nullable Integer weight) {
+        Integer.parseInt(port);
+        this.hostRegistry.put(new Host(serviceName, serviceIP, port, weight == null ? 1 : weight), SOURCE);
+        return hosts();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> removeHost(String serviceName, String serviceIP, String port) {
+        this.hostRegistry.remove(new Host(serviceName, serviceIP, port, 1), SOURCE);
+        return hosts();
+    }
+
+    private static Map<String, Object> toDetails(Host host) {
+        return ImmutableMap.of("host", host.getServiceIP() + ":" + host.getPort(), "weight", host.getWeight());
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.sample.registry;
+
+import com.example.sample.model.Host;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * HostRegistryFileWatcher reloads HostRegistry every time proxy.registry.file changes, nothing is watched if it is not set
+ *
+ * File is JSON of serviceName -> hosts, weight may be left out(1)
+ * {
+ *   "my-reverse-proxy-service": [{"serviceIP": "127.0.0.1", "port": "9090", "weight": 2}, {"serviceIP": "127.0.0.1", "port": "9000"}],
+ *   "other-service": [{"serviceIP": "10.0.0.2", "port": "8080"}]
+ * }
+ *
+ * The file holds every host of every service, hosts added through the hosts actuator endpoint are gone after the next reload.
+ * A file which cannot be read or parsed is logged and current hosts are kept. File is read once at startup and its directory is
+ * watched afterwards with a WatchService on a daemon thread.
+ */
+@Log4j2
+@Component
+public class HostRegistryFileWatcher {
+    private static final TypeReference<Map<String, List<Host>>> FILE_TYPE = new TypeReference<Map<String, List<Host>>>() {};
+    private final HostRegistry hostRegistry;
+    private final Path file;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor;
+    private WatchService watchService;
+
+    @Autowired
+    public HostRegistryFileWatcher(HostRegistry hostRegistry, @Value("${proxy.registry.file:}") String file) {
+        this.hostRegistry = hostRegistry;
+        this.file = Strings.isNullOrEmpty(file) ? null : Paths.get(file).toAbsolutePath();
+        this.executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("host-registry-watch-%d").setDaemon(true).build());
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if(this.file == null) {
+            return;
+        }
+        if(Files.exists(this.file)) {
+            reload();
+        } else {
+            log.warn("host registry file {} does not exist yet, hosts of application.properties are used", this.file);
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        this.executor.execute(this::watch);
+        log.info("watching host registry file {}", this.file);
+    }
+
+    private void watch() {
+        try {
+            while(true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = false;
+                for(WatchEvent<?> event: key.pollEvents()) {
+                    changed |= this.file.getFileName().equals(event.context());
+                }
+                if(changed) {
+                    reload();
+                }
+                if(!key.reset()) {
+                    log.error("directory of host registry file {} is gone, it is no longer watched", this.file);
+                    return;
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException e) {
+            //shutting down
+        }
+    }
+
+    private void reload() {
+        try {
+            //an editor truncates the file before writing it, the write raises another event
+            if(Files.size(this.file) == 0) {
+                return;
+            }
+            Map<String, List<Host>> services = this.objectMapper.readValue(this.file.toFile(), FILE_TYPE);
+            List<Host> hosts = new ArrayList<>();
+            services.forEach((serviceName, serviceHosts) -> {
+                for(Host host: serviceHosts) {
+                    if(Strings.isNullOrEmpty(host.getServiceIP()) || Strings.isNullOrEmpty(host.getPort())) {
+                        throw new IllegalArgumentException("serviceIP and port are required for every host of " + serviceName);
+                    }
+                    Integer.parseInt(host.getPort());
+                    host.setServiceName(serviceName);
+                    hosts.add(host);
+                }
+            });
+            this.hostRegistry.replace(hosts, this.file.toString());
+        } catch(IOException | RuntimeException e) {
+            log.error("host registry file {} could not be loaded, current hosts are kept {}", this.file, e.toString());
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        this.executor.shutdownNow();
+        if(this.watchService != null) {
+            this.watchService.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.sample.retry;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * HedgePolicy decides when a second(hedged) request is sent for a GET which takes longer than usual, proxy.hedge.enabled=true
+ *
+ * Latency of every successful upstream call is recorded per service in a LatencyTracker. Once the first call of a request has
+ * been running for proxy.hedge.percentile(p95) of the latencies of its service, the same request is sent to another Host
+ * and whichever response arrives first is used. A single slow Host then no longer sets the tail latency, for about
+ * 5% more upstream calls. A hedged request takes a token of the retry budget(RetryPolicy) like a retry does.
+ *
+ * Hedging starts once a window of proxy.hedge.windowMillis has seen proxy.hedge.minSamples calls of the service and never
+ * waits less than proxy.hedge.minDelayMillis. Only buffered calls(fetch()/fetchAsync() of UpstreamForwarder) are hedged,
+ * a streaming relay writes the response while it arrives and cannot switch to another Host.
+ *
+ * proxy.hedge.requests and proxy.hedge.wins are published on actuator metrics endpoint
+ */
+@Log4j2
+@Component
+public class HedgePolicy implements MeterBinder {
+    private final boolean enabled;
+    private final double percentile;
+    private final long windowNanos;
+    private final int minSamples;
+    private final long minDelayNanos;
+    private final ConcurrentMap<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong wins = new AtomicLong();
+
+    @Autowired
+    public HedgePolicy(@Value("${proxy.hedge.enabled:false}") boolean enabled,
+        @Value("${proxy.hedge.percentile:95}") double percentile,
+        @Value("${proxy.hedge.windowMillis:10000}") long windowMillis,
+        @Value("${proxy.hedge.minSamples:100}") int minSamples,
+        @Value("${proxy.hedge.minDelayMillis:5}") long minDelayMillis) {
+        this.enabled = enabled;
+        this.percentile = percentile / 100;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.minSamples = minSamples;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        if(enabled) {
+            log.info("hedged requests after p{} latency of the service", percentile);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("proxy.hedge.requests", this.hedges, AtomicLong::get)
+            .description("second requests sent to another host because the first took longer than usual")
+            .register(registry);
+        FunctionCounter.builder("proxy.hedge.wins", this.wins, AtomicLong::get)
+            .description("hedged requests which answered before the first request")
+            .register(registry);
+    }
+
+    //latency of a successful upstream call
+    public void record(String serviceName, long latencyNanos) {
+        if(this.enabled) {
+            getTracker(serviceName).record(latencyNanos);
+        }
+    }
+
+    //time after which a request of the service is hedged, -1 if it is not hedged
+    public long getHedgeDelayNanos(String serviceName) {
+        if(!this.enabled) {
+            return -1;
+        }
+        long percentileNanos = getTracker(serviceName).getPercentileNanos();
+        return percentileNanos < 0 ? -1 : Math.max(this.minDelayNanos, percentileNanos);
+    }
+
+    public void recordHedge() {
+        this.hedges.incrementAndGet();
+    }
+
+    public void recordWin() {
+        this.wins.incrementAndGet();
+    }
+
+    private LatencyTracker getTracker(String serviceName) {
+        LatencyTracker tracker = this.trackers.get(serviceName);
+        return tracker != null ? tracker : this.trackers.computeIfAbsent(serviceName,
+            name -> new LatencyTracker(this.percentile, this.windowNanos, this.minSamples));
+    }
+}
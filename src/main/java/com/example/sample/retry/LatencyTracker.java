@@ -0,0 +1,89 @@
+package com.example.sample.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * LatencyTracker keeps latencies of recent upstream calls of one service in a histogram and answers a percentile of them
+ *
+ * Buckets are 4 per power of two of microseconds so an answer is at most 25% above the real value. Two histograms take turns
+ * every window, the percentile is computed once when a window is over, from the histogram which just got full, and
+ * read from a volatile field in between. Recording is a single AtomicLongArray increment, no lock.
+ */
+final class LatencyTracker {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //2^40 microseconds is about 12 days, anything slower ends up in the last bucket
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+    private final double percentile;
+    private final long windowNanos;
+    private final int minSamples;
+    private final AtomicLongArray[] histograms = {new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS)};
+    private final AtomicLong windowEndNanos;
+    private volatile int current;
+    private volatile long percentileNanos = -1;
+
+    LatencyTracker(double percentile, long windowNanos, int minSamples) {
+        this.percentile = percentile;
+        this.windowNanos = windowNanos;
+        this.minSamples = minSamples;
+        this.windowEndNanos = new AtomicLong(System.nanoTime() + windowNanos);
+    }
+
+    void record(long latencyNanos) {
+        long now = System.nanoTime();
+        long windowEnd = this.windowEndNanos.get();
+        if(now - windowEnd >= 0 && this.windowEndNanos.compareAndSet(windowEnd, now + this.windowNanos)) {
+            rotate();
+        }
+        this.histograms[this.current].incrementAndGet(getBucket(latencyNanos));
+    }
+
+    //-1 if the last window had less than minSamples latencies
+    long getPercentileNanos() {
+        return this.percentileNanos;
+    }
+
+    //only the thread which moved windowEndNanos gets here
+    private void rotate() {
+        int full = this.current;
+        AtomicLongArray next = this.histograms[full ^ 1];
+        for(int i = 0; i < BUCKETS; i++) {
+            next.set(i, 0);
+        }
+        this.current = full ^ 1;
+        this.percentileNanos = computePercentile(this.histograms[full]);
+    }
+
+    private long computePercentile(AtomicLongArray histogram) {
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            total += histogram.get(i);
+        }
+        if(total < this.minSamples) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * this.percentile);
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            count += histogram.get(i);
+            if(count >= rank) {
+                return getUpperBoundMicros(i) * 1000;
+            }
+        }
+        return getUpperBoundMicros(BUCKETS - 1) * 1000;
+    }
+
+    private static int getBucket(long latencyNanos) {
+        long micros = Math.max(1, latencyNanos / 1000);
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        long subBucket = exponent >= SUB_BUCKET_BITS ? micros >>> (exponent - SUB_BUCKET_BITS) : micros << (SUB_BUCKET_BITS - exponent);
+        return Math.min(BUCKETS - 1, exponent * SUB_BUCKETS + (int) (subBucket & (SUB_BUCKETS - 1)));
+    }
+
+    private static long getUpperBoundMicros(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        long subBucket = bucket % SUB_BUCKETS;
+        return Math.max(1, ((SUB_BUCKETS + subBucket + 1) << exponent) >>> SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.sample.retry;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * RetryPolicy decides whether a failed upstream call(503/504 or I/O error) is tried again on another Host and how long
+ * to wait before it
+ *
+ * Calls per request are limited by proxy.retry.maxAttempts(first call included) and by the retry budget of the service.
+ * Every request puts proxy.retry.budgetPercent hundredths of a token in the budget of its service, every retry or hedged
+ * request takes a whole token out of it. A service which fails as a whole then gets at most budgetPercent extra load
+ * instead of maxAttempts times its load. Budget starts with and holds at most proxy.retry.budgetMinRetries tokens so that
+ * a service with little traffic can still retry now and then.
+ *
+ * Wait before retry n is a random time between 0 and proxy.retry.backoffMillis * 2^(n-1), at most proxy.retry.maxBackoffMillis
+ * (full jitter), requests which failed together do not come back together.
+ *
+ * Budget of a service is an AtomicLong of hundredths of a token changed with compare and set, no lock on the request path.
+ * proxy.retry.retries and proxy.retry.budgetExhausted are published on actuator metrics endpoint
+ */
+@Log4j2
+@Component
+public class RetryPolicy implements MeterBinder {
+    private static final long TOKEN = 100;
+    @Getter
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final long deposit;
+    private final long maxBalance;
+    private final ConcurrentMap<String, AtomicLong> budgets = new ConcurrentHashMap<>();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    @Autowired
+    public RetryPolicy(@Value("${proxy.retry.maxAttempts:3}") int maxAttempts,
+        @Value("${proxy.retry.backoffMillis:25}") long backoffMillis,
+        @Value("${proxy.retry.maxBackoffMillis:250}") long maxBackoffMillis,
+        @Value("${proxy.retry.budgetPercent:10}") int budgetPercent,
+        @Value("${proxy.retry.budgetMinRetries:10}") int budgetMinRetries) {
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.deposit = budgetPercent;
+        this.maxBalance = budgetMinRetries * TOKEN;
+        log.info("retry policy max attempts {} budget {}% backoff {}-{} ms", maxAttempts, budgetPercent, backoffMillis,
+            maxBackoffMillis);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("proxy.retry.retries", this.retries, AtomicLong::get)
+            .description("upstream calls sent again to another host after a 503/504 or an I/O error")
+            .register(registry);
+        FunctionCounter.builder("proxy.retry.budgetExhausted", this.budgetExhausted, AtomicLong::get)
+            .description("retries and hedged requests not sent because the retry budget of the service was empty")
+            .register(registry);
+    }
+
+    //called once per request, not per attempt
+    public void recordRequest(String serviceName) {
+        AtomicLong budget = getBudget(serviceName);
+        long balance;
+        do {
+            balance = budget.get();
+            //a full budget is not written to, requests of a healthy service do not contend on it
+            if(balance >= this.maxBalance) {
+                return;
+            }
+        } while(!budget.compareAndSet(balance, Math.min(this.maxBalance, balance + this.deposit)));
+    }
+
+    /*
+     * true if the call which just failed was attempt number attempt and another one may be sent,
+     * a token of the retry budget is taken if so
+     */
+    public boolean tryRetry(String serviceName, int attempt) {
+        if(attempt >= this.maxAttempts || !tryWithdraw(serviceName)) {
+            return false;
+        }
+        this.retries.incrementAndGet();
+        return true;
+    }
+
+    //takes a token of the retry budget of the service e.g. for a hedged request, false if there is none
+    public boolean tryWithdraw(String serviceName) {
+        AtomicLong budget = getBudget(serviceName);
+        long balance;
+        do {
+            balance = budget.get();
+            if(balance < TOKEN) {
+                this.budgetExhausted.incrementAndGet();
+                return false;
+            }
+        } while(!budget.compareAndSet(balance, balance - TOKEN));
+        return true;
+    }
+
+    //blocks the calling thread for the backoff before retry after attempt number attempt
+    public void backoff(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(getBackoffMillis(attempt));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to retry");
+        }
+    }
+
+    //runs a task once the backoff before retry after attempt number attempt is over, no thread waits meanwhile
+    public Executor getBackoffExecutor(int attempt) {
+        return CompletableFuture.delayedExecutor(getBackoffMillis(attempt), TimeUnit.MILLISECONDS);
+    }
+
+    private long getBackoffMillis(int attempt) {
+        long ceiling = Math.min(this.maxBackoffMillis, this.backoffMillis << Math.min(30, attempt - 1));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private AtomicLong getBudget(String serviceName) {
+        AtomicLong budget = this.budgets.get(serviceName);
+        return budget != null ? budget : this.budgets.computeIfAbsent(serviceName, name -> new AtomicLong(this.maxBalance));
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.loadBalance.ServiceOverloadedException;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import com.example.sample.routing.Router;
+import org.springframework.http.ResponseEntity;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/*
+ * AbstractReverseProxy is the parent of all ReverseProxy classes
+ * children only decide which Host(upstream-server) is to be called by implementing selectHost(),
+ * the upstream call itself is done by UpstreamForwarder which is shared by all of them.
+ *
+ * A service which has used up all of its concurrency permits is shed with ServiceOverloadedException(503)
+ * before any of its hosts is looked at.
+ *
+ * getHost(serviceName) is also handed to UpstreamForwarder as failover so that a retry or a hedged request goes to a Host
+ * picked by the same selection strategy, it is made once instead of a new method reference per request.
+ *
+ * Time taken by every selection is recorded as proxy.host.selection of the service and strategy(getProxyType()) in ProxyMetrics.
+ *
+ */
+public abstract class AbstractReverseProxy implements ReverseProxy {
+    private final UpstreamForwarder upstreamForwarder;
+    private final ProxyMetrics proxyMetrics;
+    private final Function<String, Host> failover = this::getHost;
+
+    protected AbstractReverseProxy(UpstreamForwarder upstreamForwarder, ProxyMetrics proxyMetrics) {
+        this.upstreamForwarder = upstreamForwarder;
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    /*
+     * selects a Host of the service which is available and has a free concurrency permit,
+     * throws ServiceOverloadedException if there is none
+     */
+    protected abstract Host selectHost(String serviceName);
+
+    //selects a Host for the request, children which select by the request itself e.g. ConsistentHashReverseProxy override it
+    protected Host selectHost(String serviceName, HttpServletRequest request) {
+        return selectHost(serviceName);
+    }
+
+    @Override
+    public Host getHost(HttpServletRequest request) {
+        String serviceName = Router.getServiceName(request);
+        if(this.upstreamForwarder.isSaturated(serviceName)) {
+            throw new ServiceOverloadedException(serviceName);
+        }
+        long start = System.nanoTime();
+        Host host = selectHost(serviceName, request);
+        this.proxyMetrics.recordSelection(serviceName, getProxyType(), System.nanoTime() - start);
+        return host;
+    }
+
+    @Override
+    public Host getHost(String serviceName) {
+        if(this.upstreamForwarder.isSaturated(serviceName)) {
+            throw new ServiceOverloadedException(serviceName);
+        }
+        long start = System.nanoTime();
+        Host host = selectHost(serviceName);
+        this.proxyMetrics.recordSelection(serviceName, getProxyType(), System.nanoTime() - start);
+        return host;
+    }
+
+    @Override
+    public ResponseEntity runReverseProxy(Host host, HttpServletRequest request) throws IOException {
+        return this.upstreamForwarder.forward(host, this.failover, request);
+    }
+
+    @Override
+    public void relayReverseProxy(Host host, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        this.upstreamForwarder.relay(host, this.failover, request, response);
+    }
+
+    @Override
+    public CompletableFuture<ResponseEntity<byte[]>> runReverseProxyAsync(Host host, HttpServletRequest request) {
+        return this.upstreamForwarder.forwardAsync(host, this.failover, request);
+    }
+}
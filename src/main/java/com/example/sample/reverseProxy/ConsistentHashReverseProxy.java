@@ -0,0 +1,48 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.loadBalance.ConsistentHashSelector;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * ConsistentHashReverseProxy class is used to forward requests with the same key(proxy.hash.key e.g. a user header,
+ * a session cookie or the path) to the same node, so a node keeps serving the same users out of its local cache
+ *
+ * upstream call along with retries on server-intermediary errors such as 503 service unavailable 504 gateway timeout
+ * is done by UpstreamForwarder over pooled connections of UpstreamConnectionPool.
+ *
+ * Only the first attempt is keyed, a retry has no request at hand and goes to any other node.
+ *
+ */
+@Log4j2
+@Component
+public class ConsistentHashReverseProxy extends AbstractReverseProxy {
+    private ConsistentHashSelector consistentHashSelector;
+
+    @Autowired
+    public ConsistentHashReverseProxy(ConsistentHashSelector consistentHashSelector, UpstreamForwarder upstreamForwarder,
+        ProxyMetrics proxyMetrics) {
+        super(upstreamForwarder, proxyMetrics);
+        this.consistentHashSelector = consistentHashSelector;
+    }
+
+    @Override
+    public String getProxyType() {
+        return "consistentHash";
+    }
+
+    @Override
+    protected Host selectHost(String serviceName, HttpServletRequest request) {
+        return this.consistentHashSelector.getHostUsingConsistentHash(serviceName, this.consistentHashSelector.getKey(request));
+    }
+
+    @Override
+    protected Host selectHost(String serviceName) {
+        return this.consistentHashSelector.getHostUsingConsistentHash(serviceName, null);
+    }
+}
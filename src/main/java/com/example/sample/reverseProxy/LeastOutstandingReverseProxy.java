@@ -0,0 +1,38 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.loadBalance.LeastOutstandingRequests;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/*
+ * LeastOutstandingReverseProxy class is used to forward request to the node with least number of requests in flight
+ *
+ * upstream call along with retries on server-intermediary errors such as 503 service unavailable 504 gateway timeout
+ * is done by UpstreamForwarder over pooled connections of UpstreamConnectionPool.
+ *
+ */
+@Log4j2
+@Component
+public class LeastOutstandingReverseProxy extends AbstractReverseProxy {
+    private LeastOutstandingRequests leastOutstandingRequests;
+
+    @Autowired
+    public LeastOutstandingReverseProxy(LeastOutstandingRequests leastOutstandingRequests, UpstreamForwarder upstreamForwarder,
+        ProxyMetrics proxyMetrics) {
+        super(upstreamForwarder, proxyMetrics);
+        this.leastOutstandingRequests = leastOutstandingRequests;
+    }
+
+    @Override
+    public String getProxyType() {
+        return "leastOutstanding";
+    }
+
+    @Override
+    protected Host selectHost(String serviceName) {
+        return this.leastOutstandingRequests.getLeastLoadedHost(serviceName);
+    }
+}
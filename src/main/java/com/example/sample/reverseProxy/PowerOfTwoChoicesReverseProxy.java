@@ -0,0 +1,38 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.loadBalance.PowerOfTwoChoices;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/*
+ * PowerOfTwoChoicesReverseProxy class is used to forward request to the less loaded of two randomly picked nodes
+ *
+ * upstream call along with retries on server-intermediary errors such as 503 service unavailable 504 gateway timeout
+ * is done by UpstreamForwarder over pooled connections of UpstreamConnectionPool.
+ *
+ */
+@Log4j2
+@Component
+public class PowerOfTwoChoicesReverseProxy extends AbstractReverseProxy {
+    private PowerOfTwoChoices powerOfTwoChoices;
+
+    @Autowired
+    public PowerOfTwoChoicesReverseProxy(PowerOfTwoChoices powerOfTwoChoices, UpstreamForwarder upstreamForwarder,
+        ProxyMetrics proxyMetrics) {
+        super(upstreamForwarder, proxyMetrics);
+        this.powerOfTwoChoices = powerOfTwoChoices;
+    }
+
+    @Override
+    public String getProxyType() {
+        return "powerOfTwo";
+    }
+
+    @Override
+    protected Host selectHost(String serviceName) {
+        return this.powerOfTwoChoices.getHostUsingPowerOfTwoChoices(serviceName);
+    }
+}
@@ -1,25 +1,45 @@
 package com.example.sample.reverseProxy;
 
 import com.example.sample.model.Host;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.ResponseEntity;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /*
-*  Interface of ReverseProxy which is implemented by RandomForwardReverseProxy and RoundRobinReverseProxy classes
+*  Interface of ReverseProxy which is implemented by RandomForwardReverseProxy, RoundRobinReverseProxy, WeightedRoundRobinReverseProxy,
+*  LeastOutstandingReverseProxy, PowerOfTwoChoicesReverseProxy and ConsistentHashReverseProxy classes
+*
+* getProxyType() is the value of proxyType QueryParam which selects the implementation
+*
+* getHost() selects Host(upstream-server) of the service of the request, or of serviceName when there is no request
+* e.g. a background refresh of a cached response
 *
 * runReverseProxy() takes in Host(upstream-server) to be called and returns ResponseEntity which contains response sent from Host(upstream-server)
 *
-* @Cacheable("CachedSites") CachedSites is ConcurrentMapCache which is maintained by ConcurrentMapCacheManager
-* It can be extended by including eviction policy.
+* relayReverseProxy() takes in Host(upstream-server) to be called and streams its response straight to HttpServletResponse
+* without buffering the body.
+*
+* runReverseProxyAsync() does the same as runReverseProxy() without blocking the calling thread, returned future completes
+* once the response of Host(upstream-server) has arrived. Used when proxy.async.enabled=true
+*
+* Cacheable requests do not call these directly, they go through SingleFlightForwarder which stores responses
+* in ResponseCache(CachedSites) and lets concurrent identical requests share one upstream call.
 *
  */
 public interface ReverseProxy {
+    String getProxyType();
+
     Host getHost(HttpServletRequest service);
 
-    @Cacheable("CachedSites")
-    ResponseEntity runReverseProxy(Host host) throws IOException;
+    Host getHost(String serviceName);
+
+    ResponseEntity runReverseProxy(Host host, HttpServletRequest request) throws IOException;
+
+    void relayReverseProxy(Host host, HttpServletRequest request, HttpServletResponse response) throws IOException;
+
+    CompletableFuture<ResponseEntity<byte[]>> runReverseProxyAsync(Host host, HttpServletRequest request);
 
 }
@@ -0,0 +1,281 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.cache.CachedResponse;
+import com.example.sample.cache.ResponseCache;
+import com.example.sample.compression.ContentEncoding;
+import com.example.sample.compression.ResponseCompressor;
+import com.example.sample.model.Host;
+import com.example.sample.routing.Router;
+import com.example.sample.upstream.UpstreamRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * SingleFlightForwarder serves cacheable(GET) requests from ResponseCache(CachedSites) and makes sure that concurrent
+ * identical requests cause a single upstream call
+ *
+ * fresh entry   - served from the cache, no Host is selected
+ * stale entry   - expired but still within its stale-while-revalidate window, served from the cache while one background
+ *                 fetch(proxy.cache.refreshThreads) refreshes it with the headers of the request which found it stale.
+ *                 A refresh which fails leaves the stale entry as it is.
+ * no entry      - first request of a cache key becomes the leader and calls upstream-server, requests with the same key which
+ *                 arrive meanwhile wait for its response instead of calling upstream-server themselves. Followers hold no
+ *                 concurrency permit while waiting so a popular path which just expired does not flood its service.
+ *
+ * In-flight fetches are kept in a ConcurrentHashMap of cache key -> CompletableFuture, the leader removes its future only after
+ * the response is in the cache so a request arriving in between finds one or the other.
+ *
+ * serveAsync() does the same for proxy.async.enabled=true without blocking, followers chain on the future of the leader
+ * instead of waiting for it.
+ *
+ * Response is shared only if it is cacheable(ResponseCache) and so its body fits proxy.cache.maxEntryBytes, the leader in streaming
+ * relay mode keeps a copy of such bodies only. If the response could not be shared a follower calls upstream-server on its own.
+ * A request with Authorization or Cookie is never served from the cache and neither waits for another request nor is waited
+ * for, its response may be meant for its user only. Its response is stored only if upstream-server marked it as shared(ResponseCache).
+ *
+ * A response is compressed with every encoding of ResponseCompressor in the background once it is in the cache, a hit is then
+ * served with the encoding the client has negotiated without compressing it again. The leader compresses the response it
+ * reads into memory for its own client on the way.
+ *
+ * proxy.cache.coalesced and proxy.cache.revalidations are published on actuator metrics endpoint
+ */
+@Log4j2
+@Component
+public class SingleFlightForwarder implements MeterBinder {
+    private final ResponseCache responseCache;
+    private final UpstreamForwarder upstreamForwarder;
+    private final ResponseCompressor responseCompressor;
+    private final ThreadPoolExecutor refreshExecutor;
+    private final ConcurrentMap<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+
+    @Autowired
+    public SingleFlightForwarder(ResponseCache responseCache, UpstreamForwarder upstreamForwarder,
+        ResponseCompressor responseCompressor,
+        @Value("${proxy.cache.refreshThreads:2}") int refreshThreads,
+        @Value("${proxy.cache.refreshQueueSize:256}") int refreshQueueSize) {
+        this.responseCache = responseCache;
+        this.upstreamForwarder = upstreamForwarder;
+        this.responseCompressor = responseCompressor;
+        //a refresh is best effort, it is dropped when the queue is full and the stale entry is served a bit longer
+        this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(refreshQueueSize),
+            new ThreadFactoryBuilder().setNameFormat("cache-refresh-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("proxy.cache.coalesced", this.coalesced, AtomicLong::get)
+            .description("requests which waited for an upstream fetch of another request instead of calling upstream-server")
+            .register(registry);
+        FunctionCounter.builder("proxy.cache.revalidations", this.revalidations, AtomicLong::get)
+            .description("background refreshes of stale cache entries")
+            .register(registry);
+    }
+
+    /*
+     * writes response of a cacheable request to the client, either from the cache or from upstream-server
+     * streaming - leader streams the body to its client, otherwise it is read into memory first
+     */
+    public void serve(ReverseProxy reverseProxy, HttpServletRequest request, HttpServletResponse response, boolean streaming)
+        throws IOException {
+        String key = this.responseCache.getCacheKey(request);
+        ContentEncoding encoding = this.responseCompressor.negotiate(request);
+        boolean credentials = ResponseCache.hasCredentials(request);
+        CachedResponse cachedResponse = credentials ? null : this.responseCache.get(key);
+        if(cachedResponse != null) {
+            try {
+                if(cachedResponse.isExpired(System.nanoTime())) {
+                    revalidate(reverseProxy, Router.getServiceName(request), request, key);
+                }
+                cachedResponse.writeTo(response, encoding);
+            } finally {
+                cachedResponse.release();
+            }
+            return;
+        }
+
+        CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> leader = credentials ? null : this.inFlight.putIfAbsent(key, future);
+        if(leader != null) {
+            this.coalesced.incrementAndGet();
+            CachedResponse shared = await(leader);
+            if(shared != null) {
+                shared.writeTo(response, encoding);
+            } else {
+                //response of the leader could not be shared
+                fetch(reverseProxy, request, response, streaming, encoding);
+            }
+            return;
+        }
+        try {
+            CachedResponse fetched = fetch(reverseProxy, request, response, streaming, encoding);
+            boolean cacheable = fetched != null && fetched.isCacheable();
+            if(cacheable) {
+                store(this.responseCache.put(request, fetched), fetched);
+            }
+            future.complete(cacheable ? fetched : null);
+        } catch(Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, future);
+        }
+    }
+
+    /*
+     * non-blocking serve(), response is read into memory and handed back to Spring once it has arrived
+     */
+    public CompletableFuture<ResponseEntity<byte[]>> serveAsync(ReverseProxy reverseProxy, HttpServletRequest request) {
+        String key = this.responseCache.getCacheKey(request);
+        String serviceName = Router.getServiceName(request);
+        ContentEncoding encoding = this.responseCompressor.negotiate(request);
+        boolean credentials = ResponseCache.hasCredentials(request);
+        CachedResponse cachedResponse = credentials ? null : this.responseCache.get(key);
+        if(cachedResponse != null) {
+            try {
+                if(cachedResponse.isExpired(System.nanoTime())) {
+                    revalidate(reverseProxy, serviceName, request, key);
+                }
+                return CompletableFuture.completedFuture(cachedResponse.toResponseEntity(encoding));
+            } finally {
+                cachedResponse.release();
+            }
+        }
+
+        UpstreamRequest upstreamRequest = UpstreamRequest.from(request);
+        CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> leader = credentials ? null : this.inFlight.putIfAbsent(key, future);
+        if(leader != null) {
+            this.coalesced.incrementAndGet();
+            //response of the leader could not be shared when it is null
+            return leader.thenCompose(shared -> shared != null ? CompletableFuture.completedFuture(shared)
+                : this.upstreamForwarder.fetchAsync(reverseProxy.getHost(serviceName), reverseProxy::getHost, upstreamRequest))
+                .thenApply(shared -> shared.toResponseEntity(this.responseCompressor.compress(shared, encoding)));
+        }
+        CompletableFuture<CachedResponse> fetched;
+        try {
+            fetched = this.upstreamForwarder.fetchAsync(reverseProxy.getHost(serviceName), reverseProxy::getHost, upstreamRequest);
+        } catch(RuntimeException e) {
+            this.inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        //request is still in async mode here, Spring completes it only after the future returned below
+        return fetched.whenComplete((response, e) -> {
+            if(e != null) {
+                this.inFlight.remove(key, future);
+                future.completeExceptionally(e);
+                return;
+            }
+            //compressed for the leader first, precompression of the cached entry finds this encoding done
+            this.responseCompressor.compress(response, encoding);
+            if(response.isCacheable()) {
+                store(this.responseCache.put(request, response), response);
+            }
+            this.inFlight.remove(key, future);
+            future.complete(response.isCacheable() ? response : null);
+        }).thenApply(response -> response.toResponseEntity(encoding));
+    }
+
+    private CachedResponse fetch(ReverseProxy reverseProxy, HttpServletRequest request, HttpServletResponse response,
+        boolean streaming, ContentEncoding encoding) throws IOException {
+        Host host = reverseProxy.getHost(request);
+        if(streaming) {
+            return this.upstreamForwarder.relay(host, reverseProxy::getHost, request, response);
+        }
+        CachedResponse fetched = this.upstreamForwarder.fetch(host, reverseProxy::getHost, UpstreamRequest.from(request));
+        fetched.writeTo(response, this.responseCompressor.compress(fetched, encoding));
+        return this.responseCache.isWithinEntryLimit(fetched.getBody().length) ? fetched : null;
+    }
+
+    /*
+     * refresh sends the request which found the entry stale once more with all of its headers, so the response comes
+     * back for the same values of the Vary headers the entry is kept under
+     */
+    private void revalidate(ReverseProxy reverseProxy, String serviceName, HttpServletRequest request, String key) {
+        CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+        //a refresh or a fetch of this key is already running
+        if(this.inFlight.putIfAbsent(key, future) != null) {
+            return;
+        }
+        UpstreamRequest upstreamRequest = UpstreamRequest.from(request);
+        try {
+            this.refreshExecutor.execute(() -> refresh(reverseProxy, serviceName, upstreamRequest, key, future));
+        } catch(RejectedExecutionException e) {
+            this.inFlight.remove(key, future);
+            future.complete(null);
+        }
+    }
+
+    private void refresh(ReverseProxy reverseProxy, String serviceName, UpstreamRequest upstreamRequest, String key,
+        CompletableFuture<CachedResponse> future) {
+        CachedResponse fetched = null;
+        try {
+            this.revalidations.incrementAndGet();
+            fetched = this.upstreamForwarder.fetch(reverseProxy.getHost(serviceName), reverseProxy::getHost, upstreamRequest);
+            if(fetched.isCacheable()) {
+                //request which made the entry stale is already gone, refreshed response is kept under the same key
+                this.responseCache.put(key, fetched);
+                store(key, fetched);
+            }
+        } catch(IOException | RuntimeException e) {
+            log.warn("refresh of {} failed, stale response is served till it runs out {}", key, e.toString());
+        } finally {
+            this.inFlight.remove(key, future);
+            future.complete(fetched != null && fetched.isCacheable() ? fetched : null);
+        }
+    }
+
+    //compresses a response which has just been put in the cache, it is weighed again with its encoded bodies
+    private void store(String key, CachedResponse cachedResponse) {
+        this.responseCompressor.precompress(cachedResponse, () -> this.responseCache.reweigh(key, cachedResponse));
+    }
+
+    private static CachedResponse await(CompletableFuture<CachedResponse> leader) throws IOException {
+        try {
+            return leader.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch(ExecutionException e) {
+            //follower fails the same way as the leader e.g. ServiceOverloadedException(503)
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        this.refreshExecutor.shutdownNow();
+    }
+}
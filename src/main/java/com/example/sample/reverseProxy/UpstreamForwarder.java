@@ -0,0 +1,621 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.cache.CachedResponse;
+import com.example.sample.cache.ResponseCache;
+import com.example.sample.compression.ContentEncoding;
+import com.example.sample.compression.Encoder;
+import com.example.sample.compression.ResponseCompressor;
+import com.example.sample.loadBalance.ConcurrencyLimiter;
+import com.example.sample.loadBalance.HostCircuitBreaker;
+import com.example.sample.loadBalance.HostHealthChecker;
+import com.example.sample.loadBalance.HostState;
+import com.example.sample.loadBalance.HostStateRegistry;
+import com.example.sample.loadBalance.ServiceOverloadedException;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import com.example.sample.retry.HedgePolicy;
+import com.example.sample.retry.RetryPolicy;
+import com.example.sample.upstream.AsyncUpstreamClient;
+import com.example.sample.upstream.BufferPool;
+import com.example.sample.upstream.Http2ConnectionPool;
+import com.example.sample.upstream.ProxyHeaders;
+import com.example.sample.upstream.UpstreamConnectionPool;
+import com.example.sample.upstream.UpstreamRequest;
+import lombok.extern.log4j.Log4j2;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/*
+ * UpstreamForwarder does the upstream call for all ReverseProxy classes once they have selected a Host(upstream-server)
+ *
+ * A request holds a concurrency permit of its service and Host(ConcurrencyLimiter) for the whole upstream call and gives it back
+ * once the call completes. Requests in flight are counted in HostState, load aware selectors such as LeastOutstandingRequests
+ * and PowerOfTwoChoices read this count. Result of every call(5xx or I/O error counts as failed) is reported to
+ * HostHealthChecker which ejects a Host failing over and over and to HostCircuitBreaker which opens the circuit of a Host
+ * whose failure or slow call rate is too high. If no permit is free the request is shed with ServiceOverloadedException(503)
+ * instead of waiting.
+ *
+ * Request is sent over a keep-alive connection borrowed from UpstreamConnectionPool instead of opening a new connection per request,
+ * with upstream.protocol=h2c it is sent on a stream of one of the few HTTP/2 connections of its Host(Http2ConnectionPool).
+ * Method, request_uri, query string and end-to-end headers of the client request are passed upstream with X-Forwarded-* added
+ * (UpstreamRequest, ProxyHeaders), the service it goes to has been picked by Router. A request body is streamed upstream while
+ * it is read from the client, it is never held in memory. End-to-end headers of the response are passed back to the client.
+ *
+ * this class also takes care of server-intermediary errors such as 503 service unavailable 504 gateway timeout and of I/O errors
+ * such as a refused connection. Such a call is retried on another Host picked by failover(the selector of the ReverseProxy),
+ * after a jittered backoff and only while RetryPolicy allows it(proxy.retry.maxAttempts and the retry budget of the service).
+ * Permit of the failed Host is given back before the backoff. Once retries run out the last 503/504 is passed to the client
+ * and the last I/O error is thrown. A request which is not replayable(it has a body or its method is not idempotent, e.g. POST)
+ * is retried only after a failure to connect, upstream-server has not seen any of it then.
+ *
+ * Response of upstream-server can be sent back in two ways
+ * forward()/fetch() - reads the body once into a byte[]
+ * relay()           - streams the body straight to the client through a pooled buffer of BufferPool, so memory used
+ *                     by a request stays the same no matter how big the body is. Content-Length and Content-Type are passed as they are.
+ * A response to HEAD has no body, in every mode it is sent with Content-Length of upstream-server.
+ * fetch() and relay() return the response as CachedResponse along with its time to live according to Cache-Control/Expires,
+ * relay() keeps a copy of the body while streaming it only for a GET whose body fits proxy.cache.maxEntryBytes.
+ * Storing it in ResponseCache(CachedSites) and sharing it with concurrent requests is left to SingleFlightForwarder.
+ *
+ * fetchAsync() does the same as fetch() over AsyncUpstreamClient without blocking the calling thread, retries are chained
+ * on the completion of the previous attempt and the concurrency permit is given back when each attempt completes.
+ *
+ * With proxy.hedge.enabled=true fetch()/fetchAsync() of a replayable request send a second request to another Host once the first has been running for
+ * the p95 latency of the service(HedgePolicy), first response to arrive is used. fetch() then goes through fetchAsync().
+ *
+ * Cache-Control of upstream-server is passed to the client. Only a GET response which is cached for proxy.cache.defaultTtlSeconds
+ * as it has neither Cache-Control nor Expires is sent with that as max-age, other responses keep the headers of upstream-server.
+ *
+ * Time spent reading(fetch()) or relaying(relay()) the response body is recorded as proxy.upstream.body of the Host in ProxyMetrics.
+ *
+ * Response is compressed for a client which accepts it(ResponseCompressor), relay() streams the body through a pooled Encoder
+ * and sends it chunked as its compressed length is not known up front, forward()/forwardAsync() compress the byte[] they
+ * have read. A response upstream-server has encoded itself is passed through as it is. Copy of the body kept for the cache
+ * is always the identity body.
+ *
+ */
+@Log4j2
+@Component
+public class UpstreamForwarder {
+    //picks for a retry which may still return the failed Host e.g. with random selection
+    private static final int MAX_FAILOVER_PICKS = 3;
+    private final UpstreamConnectionPool connectionPool;
+    private final Http2ConnectionPool http2ConnectionPool;
+    private final BufferPool bufferPool;
+    private final HostStateRegistry hostStateRegistry;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ResponseCache responseCache;
+    private final AsyncUpstreamClient asyncUpstreamClient;
+    private final HostHealthChecker hostHealthChecker;
+    private final HostCircuitBreaker hostCircuitBreaker;
+    private final RetryPolicy retryPolicy;
+    private final HedgePolicy hedgePolicy;
+    private final ProxyMetrics proxyMetrics;
+    private final ResponseCompressor responseCompressor;
+
+    @Autowired
+    public UpstreamForwarder(UpstreamConnectionPool connectionPool, Http2ConnectionPool http2ConnectionPool,
+        BufferPool bufferPool, HostStateRegistry hostStateRegistry,
+        ConcurrencyLimiter concurrencyLimiter, ResponseCache responseCache, AsyncUpstreamClient asyncUpstreamClient,
+        HostHealthChecker hostHealthChecker, HostCircuitBreaker hostCircuitBreaker, RetryPolicy retryPolicy,
+        HedgePolicy hedgePolicy, ProxyMetrics proxyMetrics, ResponseCompressor responseCompressor) {
+        this.connectionPool = connectionPool;
+        this.http2ConnectionPool = http2ConnectionPool;
+        this.hostHealthChecker = hostHealthChecker;
+        this.hostCircuitBreaker = hostCircuitBreaker;
+        this.asyncUpstreamClient = asyncUpstreamClient;
+        this.bufferPool = bufferPool;
+        this.hostStateRegistry = hostStateRegistry;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.responseCache = responseCache;
+        this.retryPolicy = retryPolicy;
+        this.hedgePolicy = hedgePolicy;
+        this.proxyMetrics = proxyMetrics;
+        this.responseCompressor = responseCompressor;
+    }
+
+    public boolean isSaturated(String serviceName) {
+        return this.concurrencyLimiter.isSaturated(serviceName);
+    }
+
+    public ResponseEntity forward(Host host, Function<String, Host> failover, HttpServletRequest request) throws IOException {
+        CachedResponse fetched = fetch(host, failover, UpstreamRequest.from(request));
+        ContentEncoding encoding = this.responseCompressor.compress(fetched, this.responseCompressor.negotiate(request));
+        byte[] body = encoding == null ? fetched.getBody() : fetched.getEncodedBody(encoding);
+        HttpHeaders httpHeaders = new HttpHeaders();
+        fetched.getHeaders().forEach((name, values) -> values.forEach(value -> httpHeaders.add(name,
+            encoding == null ? value : CachedResponse.weakenETag(name, value))));
+        if(encoding != null) {
+            httpHeaders.set(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+            httpHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        //a response to HEAD has Content-Length of upstream-server already
+        if(!httpHeaders.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+            httpHeaders.setContentLength(body.length);
+        }
+        httpHeaders.setContentType(fetched.getContentType() == null ? MediaType.APPLICATION_JSON
+            : MediaType.parseMediaType(fetched.getContentType()));
+        httpHeaders.setCacheControl(fetched.getCacheControl());
+        return new ResponseEntity(body, httpHeaders, HttpStatus.valueOf(fetched.getStatus()));
+    }
+
+    //non-blocking forward(), response is handed back to Spring once it has arrived
+    public CompletableFuture<ResponseEntity<byte[]>> forwardAsync(Host host, Function<String, Host> failover,
+        HttpServletRequest request) {
+        ContentEncoding encoding = this.responseCompressor.negotiate(request);
+        return fetchAsync(host, failover, UpstreamRequest.from(request))
+            .thenApply(fetched -> fetched.toResponseEntity(this.responseCompressor.compress(fetched, encoding)));
+    }
+
+    //sends the request to the host and reads the whole response, nothing is written to the client
+    public CachedResponse fetch(Host host, Function<String, Host> failover, UpstreamRequest upstreamRequest) throws IOException {
+        if(upstreamRequest.isReplayable() && this.hedgePolicy.getHedgeDelayNanos(host.getServiceName()) >= 0) {
+            return await(fetchAsync(host, failover, upstreamRequest));
+        }
+        Attempt attempt = callUpstream(host, failover, upstreamRequest);
+        boolean failed = true;
+        try (CloseableHttpResponse upstreamResponse = attempt.response) {
+            int statusCode = upstreamResponse.getStatusLine().getStatusCode();
+            HttpEntity entity = upstreamResponse.getEntity();
+            long bodyStart = System.nanoTime();
+            byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+            this.proxyMetrics.recordBody(attempt.hostState.getHost(), System.nanoTime() - bodyStart);
+            failed = statusCode >= 500;
+            return toCachedResponse(upstreamRequest, upstreamResponse, statusCode, body);
+        } finally {
+            release(attempt.hostState, attempt.start, failed);
+        }
+    }
+
+    /*
+     * non-blocking fetch(), a ServiceOverloadedException is thrown right away if no concurrency permit is free,
+     * any other failure completes the returned future exceptionally
+     */
+    public CompletableFuture<CachedResponse> fetchAsync(Host host, Function<String, Host> failover,
+        UpstreamRequest upstreamRequest) {
+        String serviceName = host.getServiceName();
+        long hedgeDelayNanos = upstreamRequest.isReplayable() ? this.hedgePolicy.getHedgeDelayNanos(serviceName) : -1;
+        this.retryPolicy.recordRequest(serviceName);
+        CompletableFuture<CachedResponse> first = callUpstreamAsync(host, failover, upstreamRequest, 1);
+        return hedgeDelayNanos < 0 ? first : hedge(first, host, failover, upstreamRequest, hedgeDelayNanos);
+    }
+
+    /*
+     * streams response of the host to the client, returns a copy of it if the request is cacheable
+     * and the body fits proxy.cache.maxEntryBytes, null otherwise
+     */
+    public CachedResponse relay(Host host, Function<String, Host> failover, HttpServletRequest request,
+        HttpServletResponse response) throws IOException {
+        UpstreamRequest upstreamRequest = UpstreamRequest.from(request);
+        Attempt attempt = callUpstream(host, failover, upstreamRequest);
+        boolean failed = true;
+        try (CloseableHttpResponse upstreamResponse = attempt.response) {
+            long bodyStart = System.nanoTime();
+            CachedResponse copy = relayResponse(upstreamRequest, upstreamResponse, this.responseCompressor.negotiate(request),
+                response);
+            this.proxyMetrics.recordBody(attempt.hostState.getHost(), System.nanoTime() - bodyStart);
+            failed = response.getStatus() >= 500;
+            return copy;
+        } finally {
+            release(attempt.hostState, attempt.start, failed);
+        }
+    }
+
+    //gives the permit back and reports the result to passive outlier detection, the circuit breaker and hedging
+    private void release(HostState hostState, long start, boolean failed) {
+        long latencyNanos = System.nanoTime() - start;
+        this.concurrencyLimiter.release(hostState, latencyNanos, failed);
+        this.hostHealthChecker.recordResult(hostState, failed);
+        this.hostCircuitBreaker.recordResult(hostState, latencyNanos, failed);
+        if(!failed) {
+            this.hedgePolicy.record(hostState.getHost().getServiceName(), latencyNanos);
+        }
+    }
+
+    private HostState acquire(Host host) {
+        HostState hostState = this.hostStateRegistry.get(host);
+        //another request may have taken the last permit or trial call after host was selected, shed instead of waiting for it
+        if(!this.hostCircuitBreaker.tryAcquire(hostState)) {
+            throw new ServiceOverloadedException(host.getServiceName());
+        }
+        if(!this.concurrencyLimiter.tryAcquire(hostState)) {
+            this.hostCircuitBreaker.cancel(hostState);
+            throw new ServiceOverloadedException(host.getServiceName());
+        }
+        return hostState;
+    }
+
+    /*
+     * encoding - negotiated with the client or null, the body is compressed with it on the way if it is compressible
+     */
+    private CachedResponse relayResponse(UpstreamRequest upstreamRequest, CloseableHttpResponse upstreamResponse,
+        ContentEncoding encoding, HttpServletResponse response) throws IOException {
+        boolean keepCopy = this.responseCache.isCacheable(upstreamRequest.getMethod());
+        int statusCode = upstreamResponse.getStatusLine().getStatusCode();
+        response.setStatus(statusCode);
+        HttpEntity entity = upstreamResponse.getEntity();
+        long contentLength = entity == null ? 0 : entity.getContentLength();
+        boolean compressible = entity != null && this.responseCompressor.isCompressible(
+            getHeader(upstreamResponse, HttpHeaders.CONTENT_TYPE), getHeader(upstreamResponse, HttpHeaders.CONTENT_ENCODING),
+            contentLength);
+        boolean compressed = compressible && encoding != null;
+        Set<String> connectionHeaders = ProxyHeaders.getConnectionHeaders(getHeader(upstreamResponse, HttpHeaders.CONNECTION));
+        for(Header header: upstreamResponse.getAllHeaders()) {
+            if(ProxyHeaders.isEndToEnd(header.getName(), connectionHeaders)) {
+                response.addHeader(header.getName(),
+                    compressed ? CachedResponse.weakenETag(header.getName(), header.getValue()) : header.getValue());
+            }
+        }
+        Function<String, String> header = name -> getHeader(upstreamResponse, name);
+        String cacheControl = this.responseCache.getCacheControl(
+            keepCopy ? this.responseCache.getTimeToLiveNanos(statusCode, contentLength, upstreamRequest.hasCredentials(), header) : -1,
+            header);
+        if(cacheControl != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        if(entity == null) {
+            String upstreamContentLength = getHeader(upstreamResponse, HttpHeaders.CONTENT_LENGTH);
+            //a response to HEAD has no body, its Content-Length is the length GET would get
+            if(isHead(upstreamRequest) && upstreamContentLength != null) {
+                response.setHeader(HttpHeaders.CONTENT_LENGTH, upstreamContentLength);
+            } else {
+                response.setContentLength(0);
+            }
+            return keepCopy ? toCachedResponse(upstreamRequest, upstreamResponse, statusCode, new byte[0]) : null;
+        }
+        if(compressible) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if(compressed) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+        } else if(contentLength >= 0) {
+            response.setContentLengthLong(contentLength);
+        }
+        //only a response of known size which fits in the cache is copied while it is streamed
+        byte[] copy = keepCopy && this.responseCache.isWithinEntryLimit(contentLength) ? new byte[(int) contentLength] : null;
+        int copied = 0;
+        byte[] buffer = this.bufferPool.acquire();
+        Encoder encoder = compressed ? this.responseCompressor.acquire(encoding) : null;
+        //reading till end of the stream releases the connection back to the pool
+        try (InputStream inputStream = entity.getContent()) {
+            OutputStream outputStream = response.getOutputStream();
+            int read;
+            while((read = inputStream.read(buffer)) != -1) {
+                if(encoder != null) {
+                    encoder.write(buffer, 0, read, outputStream);
+                } else {
+                    outputStream.write(buffer, 0, read);
+                }
+                if(copy != null && copied + read <= copy.length) {
+                    System.arraycopy(buffer, 0, copy, copied, read);
+                }
+                copied += read;
+            }
+            if(encoder != null) {
+                encoder.finish(outputStream);
+            }
+            outputStream.flush();
+        } finally {
+            this.bufferPool.release(buffer);
+            this.responseCompressor.release(encoder);
+        }
+        return copy != null && copied == copy.length ? toCachedResponse(upstreamRequest, upstreamResponse, statusCode, copy) : null;
+    }
+
+    /*
+     * one attempt of callUpstream()/fetchAsync(), attempt number is counted from 1.
+     * Concurrency permit of each attempt is given back as soon as its response has arrived.
+     */
+    private CompletableFuture<CachedResponse> callUpstreamAsync(Host host, Function<String, Host> failover,
+        UpstreamRequest upstreamRequest, int attempt) {
+        String serviceName = host.getServiceName();
+        HostState hostState = acquire(host);
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> call;
+        try {
+            log.debug("calling host {} for {} {} asynchronously", host, upstreamRequest.getMethod(), upstreamRequest.getTarget());
+            call = this.asyncUpstreamClient.send(host, upstreamRequest);
+        } catch(RuntimeException e) {
+            release(hostState, start, true);
+            throw e;
+        }
+        return call.handle((upstreamResponse, e) -> {
+            int statusCode = e == null ? upstreamResponse.statusCode() : -1;
+            release(hostState, start, e != null || statusCode >= 500);
+            if(e == null && !isRetryable(statusCode)) {
+                return CompletableFuture.completedFuture(toCachedResponse(upstreamRequest, upstreamResponse));
+            }
+            Host next = canRetry(upstreamRequest, e) ? getRetryHost(host, failover, attempt) : null;
+            if(next == null) {
+                return e == null ? CompletableFuture.completedFuture(toCachedResponse(upstreamRequest, upstreamResponse))
+                    : CompletableFuture.<CachedResponse>failedFuture(e);
+            }
+            log.info("retry {} of service {} on host {} after {}", attempt, serviceName, next, e != null ? e : statusCode);
+            return CompletableFuture.supplyAsync(() -> callUpstreamAsync(next, failover, upstreamRequest, attempt + 1),
+                this.retryPolicy.getBackoffExecutor(attempt)).thenCompose(Function.identity());
+        }).thenCompose(Function.identity());
+    }
+
+    /*
+     * sends the request to another Host if first has not completed after hedgeDelayNanos, the first response to arrive
+     * completes the returned future. A hedged request is not retried.
+     */
+    private CompletableFuture<CachedResponse> hedge(CompletableFuture<CachedResponse> first, Host host,
+        Function<String, Host> failover, UpstreamRequest upstreamRequest, long hedgeDelayNanos) {
+        HedgedCall hedgedCall = new HedgedCall();
+        first.whenComplete(hedgedCall::complete);
+        CompletableFuture.delayedExecutor(hedgeDelayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            if(!hedgedCall.tryHedge()) {
+                return;
+            }
+            Host other = selectOther(host, failover);
+            if(other == null || other.equals(host) || !this.retryPolicy.tryWithdraw(host.getServiceName())) {
+                hedgedCall.abandon();
+                return;
+            }
+            this.hedgePolicy.recordHedge();
+            try {
+                callUpstreamAsync(other, failover, upstreamRequest, this.retryPolicy.getMaxAttempts()).whenComplete((response, e) -> {
+                    if(hedgedCall.complete(response, e)) {
+                        this.hedgePolicy.recordWin();
+                    }
+                });
+            } catch(RuntimeException e) {
+                hedgedCall.abandon();
+            }
+        });
+        return hedgedCall.result;
+    }
+
+    private static CachedResponse await(CompletableFuture<CachedResponse> fetched) throws IOException {
+        try {
+            return fetched.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                ? e.getCause().getCause() : e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private CachedResponse toCachedResponse(UpstreamRequest upstreamRequest, HttpResponse<byte[]> upstreamResponse) {
+        Function<String, String> header = name -> upstreamResponse.headers().firstValue(name).orElse(null);
+        HttpHeaders headers = new HttpHeaders();
+        Set<String> connectionHeaders = ProxyHeaders.getConnectionHeaders(header.apply(HttpHeaders.CONNECTION));
+        upstreamResponse.headers().map().forEach((name, values) -> {
+            if(isPassedAsIs(name, connectionHeaders)) {
+                headers.addAll(name, values);
+            }
+        });
+        return toCachedResponse(upstreamRequest, upstreamResponse.statusCode(), headers, upstreamResponse.body(), header);
+    }
+
+    private CachedResponse toCachedResponse(UpstreamRequest upstreamRequest, CloseableHttpResponse upstreamResponse,
+        int statusCode, byte[] body) {
+        HttpHeaders headers = new HttpHeaders();
+        Set<String> connectionHeaders = ProxyHeaders.getConnectionHeaders(getHeader(upstreamResponse, HttpHeaders.CONNECTION));
+        for(Header header: upstreamResponse.getAllHeaders()) {
+            if(isPassedAsIs(header.getName(), connectionHeaders)) {
+                headers.add(header.getName(), header.getValue());
+            }
+        }
+        return toCachedResponse(upstreamRequest, statusCode, headers, body, name -> getHeader(upstreamResponse, name));
+    }
+
+    //only a response to a request the cache takes(GET) gets a time to live
+    private CachedResponse toCachedResponse(UpstreamRequest upstreamRequest, int statusCode, HttpHeaders headers, byte[] body,
+        Function<String, String> header) {
+        String upstreamContentLength = header.apply(HttpHeaders.CONTENT_LENGTH);
+        if(isHead(upstreamRequest) && upstreamContentLength != null) {
+            headers.set(HttpHeaders.CONTENT_LENGTH, upstreamContentLength);
+        }
+        long timeToLiveNanos = this.responseCache.isCacheable(upstreamRequest.getMethod())
+            ? this.responseCache.getTimeToLiveNanos(statusCode, body.length, upstreamRequest.hasCredentials(), header) : -1;
+        return new CachedResponse(statusCode, header.apply(HttpHeaders.CONTENT_TYPE),
+            this.responseCache.getCacheControl(timeToLiveNanos, header), header.apply(HttpHeaders.VARY), headers,
+            body, timeToLiveNanos, this.responseCache.getStaleNanos(header));
+    }
+
+    private static boolean isHead(UpstreamRequest upstreamRequest) {
+        return HttpMethod.HEAD.matches(upstreamRequest.getMethod());
+    }
+
+    //end-to-end headers other than those CachedResponse sets itself
+    private static boolean isPassedAsIs(String name, Set<String> connectionHeaders) {
+        return ProxyHeaders.isEndToEnd(name, connectionHeaders) && !HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)
+            && !HttpHeaders.CACHE_CONTROL.equalsIgnoreCase(name) && !HttpHeaders.AGE.equalsIgnoreCase(name)
+            //java.net.http reports the status line as a pseudo header
+            && !name.startsWith(":");
+    }
+
+    /*
+     * calls host and, after a 503/504 or an I/O error, other hosts of the service picked by failover until one answers or
+     * RetryPolicy allows no more retries. Returned Attempt holds the concurrency permit of the Host which answered,
+     * its response may still be 503/504 if retries ran out and its body is still to be read.
+     */
+    private Attempt callUpstream(Host host, Function<String, Host> failover, UpstreamRequest upstreamRequest) throws IOException {
+        String serviceName = host.getServiceName();
+        this.retryPolicy.recordRequest(serviceName);
+        for(int attempt = 1; ; attempt++) {
+            HostState hostState = acquire(host);
+            long start = System.nanoTime();
+            log.debug("calling host {} for {} {}", host, upstreamRequest.getMethod(), upstreamRequest.getTarget());
+            CloseableHttpResponse upstreamResponse = null;
+            IOException failure = null;
+            try {
+                upstreamResponse = this.http2ConnectionPool.isEnabled() ? this.http2ConnectionPool.execute(host, upstreamRequest)
+                    : this.connectionPool.execute(host, toHttpRequest(upstreamRequest));
+            } catch(IOException e) {
+                failure = e;
+            }
+            //check for any intermediate server error such as 503 service unavailable 504 gateway timeout
+            if(failure == null && !isRetryable(upstreamResponse.getStatusLine().getStatusCode())) {
+                return new Attempt(hostState, start, upstreamResponse);
+            }
+            Host next = canRetry(upstreamRequest, failure) ? getRetryHost(host, failover, attempt) : null;
+            if(next == null) {
+                if(failure != null) {
+                    release(hostState, start, true);
+                    log.error("error while talking to service {} failing after {} attempts", serviceName, attempt);
+                    throw failure;
+                }
+                return new Attempt(hostState, start, upstreamResponse);
+            }
+            if(upstreamResponse != null) {
+                //body has to be consumed so that connection goes back to the pool
+                EntityUtils.consumeQuietly(upstreamResponse.getEntity());
+                upstreamResponse.close();
+            }
+            release(hostState, start, true);
+            log.info("retry {} of service {} on host {} after {}", attempt, serviceName, next,
+                failure != null ? failure : upstreamResponse.getStatusLine().getStatusCode());
+            this.retryPolicy.backoff(attempt);
+            host = next;
+        }
+    }
+
+    //body of the client is streamed through an InputStreamEntity, -1 content length is sent chunked
+    private static HttpRequest toHttpRequest(UpstreamRequest upstreamRequest) throws IOException {
+        if(!upstreamRequest.hasBody()) {
+            HttpRequest request = new BasicHttpRequest(upstreamRequest.getMethod(), upstreamRequest.getTarget());
+            request.setHeaders(upstreamRequest.getHeaders());
+            return request;
+        }
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(upstreamRequest.getMethod(),
+            upstreamRequest.getTarget());
+        request.setHeaders(upstreamRequest.getHeaders());
+        request.setEntity(new InputStreamEntity(upstreamRequest.openBody(), upstreamRequest.getContentLength()));
+        return request;
+    }
+
+    /*
+     * whether a request may be sent again after failure(null for a 503/504 response). A request which is not replayable may
+     * only if it could not be sent at all, its body has not been read yet then.
+     */
+    private static boolean canRetry(UpstreamRequest upstreamRequest, Throwable failure) {
+        if(upstreamRequest.isReplayable()) {
+            return true;
+        }
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        return cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+            || cause instanceof HttpConnectTimeoutException;
+    }
+
+    //Host for the retry after failed attempt number attempt, null if there is to be no retry
+    private Host getRetryHost(Host failedHost, Function<String, Host> failover, int attempt) {
+        Host next = selectOther(failedHost, failover);
+        return next != null && this.retryPolicy.tryRetry(failedHost.getServiceName(), attempt) ? next : null;
+    }
+
+    //another Host of the service if there is one which is available, the same Host if it is the only one, null if none is
+    private static Host selectOther(Host failedHost, Function<String, Host> failover) {
+        try {
+            Host host = failover.apply(failedHost.getServiceName());
+            for(int pick = 1; pick < MAX_FAILOVER_PICKS && host.equals(failedHost); pick++) {
+                host = failover.apply(failedHost.getServiceName());
+            }
+            return host;
+        } catch(ServiceOverloadedException e) {
+            return null;
+        }
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 503 || statusCode == 504;
+    }
+
+    private static String getHeader(CloseableHttpResponse upstreamResponse, String name) {
+        Header header = upstreamResponse.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    //upstream call which is done, its permit is given back once its response has been read
+    private static final class Attempt {
+        private final HostState hostState;
+        private final long start;
+        private final CloseableHttpResponse response;
+
+        private Attempt(HostState hostState, long start, CloseableHttpResponse response) {
+            this.hostState = hostState;
+            this.start = start;
+            this.response = response;
+        }
+    }
+
+    //first request and its hedge, result fails only once every request sent has failed
+    private static final class HedgedCall {
+        private final CompletableFuture<CachedResponse> result = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile Throwable failure;
+
+        //true if response is the one which completed result
+        private boolean complete(CachedResponse response, Throwable e) {
+            if(e == null) {
+                return this.result.complete(response);
+            }
+            this.failure = e;
+            if(this.pending.decrementAndGet() == 0) {
+                this.result.completeExceptionally(e);
+            }
+            return false;
+        }
+
+        //false if result is already done so there is nothing to hedge
+        private boolean tryHedge() {
+            int count;
+            do {
+                count = this.pending.get();
+                if(count == 0 || this.result.isDone()) {
+                    return false;
+                }
+            } while(!this.pending.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        //hedge could not be sent after tryHedge()
+        private void abandon() {
+            if(this.pending.decrementAndGet() == 0) {
+                this.result.completeExceptionally(this.failure);
+            }
+        }
+    }
+}
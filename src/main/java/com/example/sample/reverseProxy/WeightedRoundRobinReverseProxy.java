@@ -0,0 +1,39 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.loadBalance.SmoothWeightedRoundRobin;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/*
+ * WeightedRoundRobinReverseProxy class is used to forward request to available nodes in smooth weighted round robin manner,
+ * every node gets a share of requests equal to its weight(Host.weight)
+ *
+ * upstream call along with retries on server-intermediary errors such as 503 service unavailable 504 gateway timeout
+ * is done by UpstreamForwarder over pooled connections of UpstreamConnectionPool.
+ *
+ */
+@Log4j2
+@Component
+public class WeightedRoundRobinReverseProxy extends AbstractReverseProxy {
+    private SmoothWeightedRoundRobin smoothWeightedRoundRobin;
+
+    @Autowired
+    public WeightedRoundRobinReverseProxy(SmoothWeightedRoundRobin smoothWeightedRoundRobin, UpstreamForwarder upstreamForwarder,
+        ProxyMetrics proxyMetrics) {
+        super(upstreamForwarder, proxyMetrics);
+        this.smoothWeightedRoundRobin = smoothWeightedRoundRobin;
+    }
+
+    @Override
+    public String getProxyType() {
+        return "weightedRoundRobin";
+    }
+
+    @Override
+    protected Host selectHost(String serviceName) {
+        return this.smoothWeightedRoundRobin.getHostUsingWeightedRoundRobin(serviceName);
+    }
+}
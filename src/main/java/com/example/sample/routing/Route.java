@@ -0,0 +1,117 @@
+package com.example.sample.routing;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import lombok.Getter;
+
+import java.util.List;
+
+/*
+ * Route sends requests which match it to a service
+ *
+ * path    - /orders matches /orders only, /orders/** matches /orders and everything below it
+ * host    - Host header the request must have, any host if not set
+ * methods - methods the request may have, any method if not set
+ *
+ * Routes are written in proxy.routes as [METHOD|METHOD ][host]/path=serviceName e.g.(a method must be one of GET, HEAD, POST,
+ * PUT, PATCH, DELETE, OPTIONS or TRACE, a route with any other is rejected when it is loaded)
+ * /my-reverse-proxy-service/**=my-reverse-proxy-service
+ * GET|HEAD api.example.com/orders/**=orders
+ */
+@Getter
+public final class Route {
+    static final int ANY_METHOD = -1;
+    //bit of a request method which is none of the standard ones, only a route of any method matches it
+    static final int OTHER_METHOD = 1 << 30;
+    private static final String PREFIX_SUFFIX = "/**";
+    private final String path;
+    private final boolean prefix;
+    private final String host;
+    private final int methods;
+    private final String serviceName;
+    private final String definition;
+
+    Route(String path, boolean prefix, String host, int methods, String serviceName, String definition) {
+        this.path = path;
+        this.prefix = prefix;
+        this.host = host;
+        this.methods = methods;
+        this.serviceName = serviceName;
+        this.definition = definition;
+    }
+
+    static Route parse(String definition) {
+        int separator = definition.lastIndexOf('=');
+        if(separator <= 0 || separator == definition.length() - 1) {
+            throw new IllegalArgumentException("route " + definition + " is not [METHOD|METHOD ][host]/path=serviceName");
+        }
+        String serviceName = definition.substring(separator + 1).trim();
+        String match = definition.substring(0, separator).trim();
+        int methods = ANY_METHOD;
+        int space = match.indexOf(' ');
+        if(space > 0) {
+            methods = 0;
+            for(String method: Splitter.on('|').trimResults().omitEmptyStrings().split(match.substring(0, space))) {
+                int methodBit = getMethodBit(method);
+                if(methodBit == OTHER_METHOD) {
+                    throw new IllegalArgumentException("route " + definition + " has unknown method " + method);
+                }
+                methods |= methodBit;
+            }
+            match = match.substring(space + 1).trim();
+        }
+        int slash = match.indexOf('/');
+        if(slash < 0) {
+            throw new IllegalArgumentException("route " + definition + " has no path");
+        }
+        String host = slash == 0 ? null : match.substring(0, slash);
+        String path = match.substring(slash);
+        boolean prefix = path.endsWith(PREFIX_SUFFIX);
+        if(prefix) {
+            path = path.substring(0, path.length() - PREFIX_SUFFIX.length());
+        }
+        return new Route(Strings.isNullOrEmpty(path) ? "/" : path, prefix, host, methods, serviceName, definition);
+    }
+
+    //route which sends /serviceName/** to the service, one of them is made for every service of HostIndex
+    static Route forService(String serviceName) {
+        return new Route("/" + serviceName, true, null, ANY_METHOD, serviceName, "/" + serviceName + PREFIX_SUFFIX + "=" + serviceName);
+    }
+
+    List<String> getSegments() {
+        return Splitter.on('/').omitEmptyStrings().splitToList(this.path);
+    }
+
+    //no allocation, the method is tested against the bitmask of methods of the route(getMethodBit())
+    boolean matches(int methodBit, String requestHost) {
+        return (this.methods & methodBit) != 0 && (this.host == null || this.host.equalsIgnoreCase(requestHost));
+    }
+
+    static int getMethodBit(String method) {
+        switch(method) {
+            case "GET":
+                return 1;
+            case "HEAD":
+                return 1 << 1;
+            case "POST":
+                return 1 << 2;
+            case "PUT":
+                return 1 << 3;
+            case "PATCH":
+                return 1 << 4;
+            case "DELETE":
+                return 1 << 5;
+            case "OPTIONS":
+                return 1 << 6;
+            case "TRACE":
+                return 1 << 7;
+            default:
+                return OTHER_METHOD;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.definition;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.sample.routing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * RouteTrie is the routing table compiled into a trie of path segments
+ * /                      <- /** routes
+ * +- orders              <- /orders and /orders/** routes
+ * |  +- archive          <- /orders/archive routes
+ * +- my-reverse-proxy-service
+ *
+ * Children of a node are kept in an open addressing table whose slot is found from the hash of the segment computed straight
+ * on the request path, so a lookup neither splits the path nor creates substrings. match() walks one node per segment and
+ * allocates nothing, its cost depends on the depth of the path and not on the number of routes.
+ *
+ * The deepest matching route wins, an exact route wins over a prefix route of the same path. Among routes of the same path
+ * those with a host come first, then they are tried in the order in which they were added.
+ * The trie is never modified once built, Router swaps it for a new one when routes change.
+ */
+final class RouteTrie {
+    private static final Route[] NO_ROUTES = new Route[0];
+    private final Node root;
+
+    RouteTrie(List<Route> routes) {
+        Builder rootBuilder = new Builder();
+        for(Route route: routes) {
+            Builder builder = rootBuilder;
+            for(String segment: route.getSegments()) {
+                builder = builder.children.computeIfAbsent(segment, key -> new Builder());
+            }
+            (route.isPrefix() ? builder.prefixRoutes : builder.exactRoutes).add(route);
+        }
+        this.root = rootBuilder.build();
+    }
+
+    //null if no route matches
+    Route match(String method, String host, String path) {
+        int methodBit = Route.getMethodBit(method);
+        Node node = this.root;
+        Route best = select(node.prefixRoutes, methodBit, host);
+        int length = path.length();
+        int start = 0;
+        while(true) {
+            while(start < length && path.charAt(start) == '/') {
+                start++;
+            }
+            if(start >= length) {
+                break;
+            }
+            int end = path.indexOf('/', start);
+            if(end < 0) {
+                end = length;
+            }
+            node = node.getChild(path, start, end);
+            if(node == null) {
+                return best;
+            }
+            Route route = select(node.prefixRoutes, methodBit, host);
+            if(route != null) {
+                best = route;
+            }
+            start = end;
+        }
+        Route exact = select(node.exactRoutes, methodBit, host);
+        return exact != null ? exact : best;
+    }
+
+    private static Route select(Route[] routes, int methodBit, String host) {
+        for(Route route: routes) {
+            if(route.matches(methodBit, host)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    //same as String.hashCode() of the substring
+    private static int hash(String path, int start, int end) {
+        int hash = 0;
+        for(int i = start; i < end; i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Node {
+        private final String[] keys;
+        private final Node[] children;
+        private final int mask;
+        private final Route[] exactRoutes;
+        private final Route[] prefixRoutes;
+
+        private Node(Map<String, Node> children, Route[] exactRoutes, Route[] prefixRoutes) {
+            //table at most half full so a probe ends quickly on an empty slot
+            int capacity = Integer.highestOneBit(Math.max(1, children.size()) * 2) << 1;
+            this.keys = new String[capacity];
+            this.children = new Node[capacity];
+            this.mask = capacity - 1;
+            this.exactRoutes = exactRoutes;
+            this.prefixRoutes = prefixRoutes;
+            children.forEach((key, child) -> {
+                int slot = spread(key.hashCode()) & this.mask;
+                while(this.keys[slot] != null) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = key;
+                this.children[slot] = child;
+            });
+        }
+
+        private Node getChild(String path, int start, int end) {
+            int length = end - start;
+            int slot = spread(hash(path, start, end)) & this.mask;
+            String key;
+            while((key = this.keys[slot]) != null) {
+                if(key.length() == length && path.regionMatches(start, key, 0, length)) {
+                    return this.children[slot];
+                }
+                slot = (slot + 1) & this.mask;
+            }
+            return null;
+        }
+    }
+
+    private static final class Builder {
+        private final Map<String, Builder> children = new HashMap<>();
+        private final List<Route> exactRoutes = new ArrayList<>();
+        private final List<Route> prefixRoutes = new ArrayList<>();
+
+        private Node build() {
+            Map<String, Node> nodes = new HashMap<>();
+            this.children.forEach((key, child) -> nodes.put(key, child.build()));
+            return new Node(nodes, toArray(this.exactRoutes), toArray(this.prefixRoutes));
+        }
+
+        //routes with a host are more specific, sort is stable so order of definition is kept otherwise
+        private static Route[] toArray(List<Route> routes) {
+            if(routes.isEmpty()) {
+                return NO_ROUTES;
+            }
+            List<Route> sorted = new ArrayList<>(routes);
+            sorted.sort(Comparator.comparing(route -> route.getHost() == null));
+            return sorted.toArray(NO_ROUTES);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.sample.routing;
+
+import com.example.sample.loadBalance.HostIndex;
+import com.google.common.base.Splitter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Router decides which service a request goes to, by path, Host header and method(Route)
+ *
+ * Routing table is made of proxy.routes, followed by /serviceName/** for every service of HostIndex when
+ * proxy.routing.serviceRoutes=true(the way requests were routed by their first path segment before). It is compiled into a
+ * RouteTrie whenever hosts change and swapped through a volatile field, route() reads it without a lock and without allocating.
+ *
+ * A matched Route is kept as an attribute of the request so the service of the request is known everywhere
+ * afterwards(getServiceName()) without matching again.
+ */
+@Log4j2
+@Component
+public class Router {
+    private static final String ROUTE_ATTRIBUTE = Route.class.getName();
+    private final List<Route> configuredRoutes = new ArrayList<>();
+    private final boolean serviceRoutes;
+    private volatile RouteTrie routeTrie;
+
+    @Autowired
+    public Router(HostIndex hostIndex, @Value("${proxy.routes:}") String routes,
+        @Value("${proxy.routing.serviceRoutes:true}") boolean serviceRoutes) {
+        for(String definition: Splitter.on(',').trimResults().omitEmptyStrings().split(routes)) {
+            this.configuredRoutes.add(Route.parse(definition));
+        }
+        this.serviceRoutes = serviceRoutes;
+        hostIndex.addListener(this::compile);
+    }
+
+    /*
+     * matches the request and keeps the Route in it, null if no route matches
+     */
+    public Route route(HttpServletRequest request) {
+        Route route = this.routeTrie.match(request.getMethod(), request.getServerName(), request.getRequestURI());
+        if(route != null) {
+            request.setAttribute(ROUTE_ATTRIBUTE, route);
+        }
+        return route;
+    }
+
+    //service of a request which went through route(), first segment of request_uri otherwise e.g. /my-reverse-proxy-service
+    public static String getServiceName(HttpServletRequest request) {
+        Object route = request.getAttribute(ROUTE_ATTRIBUTE);
+        if(route != null) {
+            return ((Route) route).getServiceName();
+        }
+        String uri = request.getRequestURI();
+        int end = uri.indexOf('/', 1);
+        return uri.substring(1, end < 0 ? uri.length() : end);
+    }
+
+    private void compile(Map<String, ?> index) {
+        List<Route> routes = new ArrayList<>(this.configuredRoutes);
+        if(this.serviceRoutes) {
+            index.keySet().forEach(serviceName -> routes.add(Route.forService(serviceName)));
+        }
+        this.routeTrie = new RouteTrie(routes);
+        log.info("routing table compiled {}", routes);
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.sample.upstream;
+
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.apache.http.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * AsyncUpstreamClient is the non-blocking counterpart of UpstreamConnectionPool, used when proxy.async.enabled=true
+ *
+ * It is backed by java.net.http.HttpClient, sockets are driven by a single selector thread of the client and
+ * completions run on upstream.async.threads threads, so thousands of upstream calls can be in flight while only a few
+ * threads exist. Keep-alive connections are pooled per Host by the client itself.
+ *
+ * Body of the client is never read on those threads as a slow client would block them. A body of known length up to
+ * upstream.async.bufferBodyBytes is read up front by the caller and sent from memory, a bigger or chunked one is streamed
+ * by RequestBodyPublisher which reads it on upstream.async.bodyThreads threads.
+ *
+ * upstream.connectTimeoutMillis and upstream.socketTimeoutMillis apply the same way as for UpstreamConnectionPool,
+ * socketTimeoutMillis being the time allowed for the whole response to arrive.
+ *
+ * With upstream.protocol=h2c requests are multiplexed over the HTTP/2 connections of Http2ConnectionPool instead.
+ *
+ * send() records proxy.upstream.ttfb(till the response head arrived, connecting included since the client does not tell
+ * when a connection was acquired) and proxy.upstream.body of its Host in ProxyMetrics.
+ */
+@Log4j2
+@Component
+public class AsyncUpstreamClient {
+
+    private final ExecutorService executor;
+    private final ExecutorService bodyExecutor;
+    private final int bufferBodyBytes;
+    private final HttpClient httpClient;
+    private final Duration responseTimeout;
+    private final ProxyMetrics proxyMetrics;
+    private final Http2ConnectionPool http2ConnectionPool;
+
+    @Autowired
+    public AsyncUpstreamClient(ProxyMetrics proxyMetrics, Http2ConnectionPool http2ConnectionPool,
+        @Value("${upstream.async.threads:4}") int threads,
+        @Value("${upstream.async.bodyThreads:16}") int bodyThreads,
+        @Value("${upstream.async.bufferBodyBytes:65536}") int bufferBodyBytes,
+        @Value("${upstream.connectTimeoutMillis:100}") int connectTimeoutMillis,
+        @Value("${upstream.socketTimeoutMillis:5000}") int socketTimeoutMillis) {
+        this.executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("upstream-async-%d").setDaemon(true).build());
+        this.bodyExecutor = Executors.newFixedThreadPool(bodyThreads,
+            new ThreadFactoryBuilder().setNameFormat("upstream-body-%d").setDaemon(true).build());
+        this.bufferBodyBytes = bufferBodyBytes;
+        //no h2c upgrade is attempted, with upstream.protocol=h2c calls go through Http2ConnectionPool instead
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .executor(this.executor)
+            .build();
+        this.responseTimeout = Duration.ofMillis(socketTimeoutMillis);
+        this.proxyMetrics = proxyMetrics;
+        this.http2ConnectionPool = http2ConnectionPool;
+        log.info("async upstream client created threads {}", threads);
+    }
+
+    /*
+     * sends GET path to the Host, returned future completes once the whole body has arrived
+     * or exceptionally with an IOException if the Host could not be reached in time
+     */
+    public CompletableFuture<HttpResponse<byte[]>> get(Host host, String path) {
+        return get(host, path, this.responseTimeout);
+    }
+
+    /*
+     * sends the request to the Host, body of the client is streamed upstream as it is read. Returned future completes once
+     * the whole response body has arrived.
+     * A header which java.net.http does not let be set(e.g. Date or Via on JDK 11) is left out.
+     */
+    public CompletableFuture<HttpResponse<byte[]>> send(Host host, UpstreamRequest upstreamRequest) {
+        long start = System.nanoTime();
+        HttpRequest.BodyPublisher bodyPublisher;
+        try {
+            bodyPublisher = getBodyPublisher(upstreamRequest);
+        } catch(IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return sendAsync(host, toHttpRequest(host, upstreamRequest, this.responseTimeout, bodyPublisher), responseInfo -> {
+            long headersReceived = System.nanoTime();
+            this.proxyMetrics.recordTimeToFirstByte(host, headersReceived - start);
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), body -> {
+                this.proxyMetrics.recordBody(host, System.nanoTime() - headersReceived);
+                return body;
+            });
+        });
+    }
+
+    //same as get() with its own time allowed for the response e.g. a health check
+    public CompletableFuture<HttpResponse<byte[]>> get(Host host, String path, Duration responseTimeout) {
+        HttpRequest httpRequest = HttpRequest.newBuilder(toUri(host, path))
+            .timeout(responseTimeout)
+            .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+            .GET()
+            .build();
+        return sendAsync(host, httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    //request of the client as java.net.http sends it, also used by Http2ConnectionPool whose caller waits for the response
+    static HttpRequest toHttpRequest(Host host, UpstreamRequest upstreamRequest, Duration responseTimeout) {
+        return toHttpRequest(host, upstreamRequest, responseTimeout, getStreamingBodyPublisher(upstreamRequest));
+    }
+
+    private static HttpRequest toHttpRequest(Host host, UpstreamRequest upstreamRequest, Duration responseTimeout,
+        HttpRequest.BodyPublisher body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(toUri(host, upstreamRequest.getTarget()))
+            .timeout(responseTimeout)
+            .method(upstreamRequest.getMethod(), body);
+        for(Header header: upstreamRequest.getHeaders()) {
+            try {
+                builder.header(header.getName(), header.getValue());
+            } catch(IllegalArgumentException e) {
+                log.debug("header {} is not sent upstream {}", header.getName(), e.getMessage());
+            }
+        }
+        return builder.build();
+    }
+
+    //streams of Http2ConnectionPool with upstream.protocol=h2c, a connection of the HTTP/1.1 client otherwise
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(Host host, HttpRequest httpRequest,
+        HttpResponse.BodyHandler<T> bodyHandler) {
+        return this.http2ConnectionPool.isEnabled() ? this.http2ConnectionPool.sendAsync(host, httpRequest, bodyHandler)
+            : this.httpClient.sendAsync(httpRequest, bodyHandler);
+    }
+
+    static URI toUri(Host host, String target) {
+        return URI.create("http://" + host.getServiceIP() + ":" + host.getPort() + target);
+    }
+
+    //small body of known length is read right away, any other is read on bodyExecutor while the request is sent
+    private HttpRequest.BodyPublisher getBodyPublisher(UpstreamRequest upstreamRequest) throws IOException {
+        if(!upstreamRequest.hasBody()) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        long contentLength = upstreamRequest.getContentLength();
+        if(contentLength >= 0 && contentLength <= this.bufferBodyBytes) {
+            return HttpRequest.BodyPublishers.ofByteArray(upstreamRequest.readBody());
+        }
+        RequestBodyPublisher body = new RequestBodyPublisher(upstreamRequest, this.bodyExecutor);
+        return contentLength >= 0 ? HttpRequest.BodyPublishers.fromPublisher(body, contentLength)
+            : HttpRequest.BodyPublishers.fromPublisher(body);
+    }
+
+    //client stream is read on a thread of the client while the request is sent, nothing is buffered
+    private static HttpRequest.BodyPublisher getStreamingBodyPublisher(UpstreamRequest upstreamRequest) {
+        if(!upstreamRequest.hasBody()) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return upstreamRequest.openBody();
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        long contentLength = upstreamRequest.getContentLength();
+        return contentLength >= 0 ? HttpRequest.BodyPublishers.fromPublisher(body, contentLength) : body;
+    }
+
+    @PreDestroy
+    public void close() {
+        this.executor.shutdownNow();
+        this.bodyExecutor.shutdownNow();
+    }
+}
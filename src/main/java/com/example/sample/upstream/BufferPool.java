@@ -0,0 +1,59 @@
+package com.example.sample.upstream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * BufferPool hands out reusable byte[] buffers which are used to relay bytes between upstream-server and client
+ *
+ * Buffers are kept in a fixed number of slots, acquire() takes a buffer out of a slot and release() puts it back.
+ * Both are a compareAndSet on the slot, no lock is taken and nothing is allocated once the pool is warm.
+ * If all buffers are in use a new one is handed out, it is pooled on release() only if there is a free slot.
+ *
+ * upstream.buffer.size  - size of a single buffer in bytes
+ * upstream.buffer.count - number of buffers kept in the pool
+ */
+@Component
+public class BufferPool {
+
+    private final int bufferSize;
+    private final AtomicReferenceArray<byte[]> slots;
+
+    @Autowired
+    public BufferPool(@Value("${upstream.buffer.size:16384}") int bufferSize,
+        @Value("${upstream.buffer.count:256}") int bufferCount) {
+        this.bufferSize = bufferSize;
+        this.slots = new AtomicReferenceArray<>(bufferCount);
+        for(int i = 0; i < bufferCount; i++) {
+            this.slots.set(i, new byte[bufferSize]);
+        }
+    }
+
+    public byte[] acquire() {
+        int start = (int) (Thread.currentThread().getId() % this.slots.length());
+        for(int i = 0; i < this.slots.length(); i++) {
+            int slot = (start + i) % this.slots.length();
+            byte[] buffer = this.slots.get(slot) == null ? null : this.slots.getAndSet(slot, null);
+            if(buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[this.bufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if(buffer == null || buffer.length != this.bufferSize) {
+            return;
+        }
+        int start = (int) (Thread.currentThread().getId() % this.slots.length());
+        for(int i = 0; i < this.slots.length(); i++) {
+            int slot = (start + i) % this.slots.length();
+            if(this.slots.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+    }
+}
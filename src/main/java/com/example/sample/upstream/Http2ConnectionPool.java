@@ -0,0 +1,437 @@
+package com.example.sample.upstream;
+
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.HttpVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/*
+ * Http2ConnectionPool multiplexes upstream calls over a few HTTP/2 connections per Host when upstream.protocol=h2c
+ *
+ * With HTTP/1.1 every request in flight holds a connection of its own(UpstreamConnectionPool), with HTTP/2 a connection
+ * carries many concurrent streams. Requests are sent in cleartext(h2c) by java.net.http.HttpClient, which upgrades the
+ * connection from HTTP/1.1 on its first request. A client keeps a single HTTP/2 connection per Host, so the pool holds
+ * upstream.http2.connectionsPerHost clients and each of them is one connection to every Host.
+ *
+ * upstream.http2.connectionsPerHost    - HTTP/2 connections opened to a single Host
+ * upstream.http2.maxConcurrentStreams  - streams in flight on a single connection, it should not be more than upstream-server
+ *                                        allows(SETTINGS_MAX_CONCURRENT_STREAMS, 100 for Tomcat) otherwise streams are refused
+ * upstream.http2.threads               - threads completing responses of the clients
+ * upstream.pool.acquireTimeoutMillis   - how long a request waits for a free stream of a Host
+ *
+ * A request goes to the connection of its Host with the fewest streams in flight. A new connection is upgraded with an OPTIONS
+ * request first and carries a single stream till it has been answered, so a burst of first requests does not open a connection
+ * each while the upgrade is in progress. If all streams of a Host are taken requests queue in the order they came.
+ *
+ * execute() blocks till the response head has arrived and returns it the way UpstreamConnectionPool does, the stream is
+ * given back when its body has been read or closed. sendAsync() is used by AsyncUpstreamClient.
+ *
+ * A Host which refuses the upgrade is still called, java.net.http then keeps sending it HTTP/1.1 over connections of its own.
+ */
+@Log4j2
+@Component
+public class Http2ConnectionPool {
+    public static final String HTTP1_PROTOCOL = "http1";
+    public static final String H2C_PROTOCOL = "h2c";
+
+    private final boolean enabled;
+    private final int maxConcurrentStreams;
+    private final long acquireTimeoutMillis;
+    private final Duration responseTimeout;
+    private final ExecutorService executor;
+    private final HttpClient[] clients;
+    private final ConcurrentMap<Host, HostStreams> streams = new ConcurrentHashMap<>();
+    private final ProxyMetrics proxyMetrics;
+
+    @Autowired
+    public Http2ConnectionPool(ProxyMetrics proxyMetrics, @Value("${upstream.protocol:http1}") String protocol,
+        @Value("${upstream.http2.connectionsPerHost:2}") int connectionsPerHost,
+        @Value("${upstream.http2.maxConcurrentStreams:100}") int maxConcurrentStreams,
+        @Value("${upstream.http2.threads:4}") int threads,
+        @Value("${upstream.pool.acquireTimeoutMillis:500}") long acquireTimeoutMillis,
+        @Value("${upstream.connectTimeoutMillis:100}") int connectTimeoutMillis,
+        @Value("${upstream.socketTimeoutMillis:5000}") int socketTimeoutMillis) {
+        if(!HTTP1_PROTOCOL.equals(protocol) && !H2C_PROTOCOL.equals(protocol)) {
+            throw new IllegalArgumentException("unknown upstream.protocol " + protocol + ", expected http1 or h2c");
+        }
+        if(connectionsPerHost < 1 || maxConcurrentStreams < 1) {
+            throw new IllegalArgumentException("upstream.http2.connectionsPerHost and maxConcurrentStreams have to be positive");
+        }
+        this.enabled = H2C_PROTOCOL.equals(protocol);
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.responseTimeout = Duration.ofMillis(socketTimeoutMillis);
+        this.proxyMetrics = proxyMetrics;
+        if(!this.enabled) {
+            this.executor = null;
+            this.clients = new HttpClient[0];
+            return;
+        }
+        this.executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("upstream-h2-%d").setDaemon(true).build());
+        this.clients = new HttpClient[connectionsPerHost];
+        for(int i = 0; i < connectionsPerHost; i++) {
+            this.clients[i] = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(this.executor)
+                .build();
+        }
+        log.info("h2c upstream connections created connectionsPerHost {} maxConcurrentStreams {}", connectionsPerHost,
+            maxConcurrentStreams);
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /*
+     * sends the request on a stream of the Host and waits for the response head. Caller has to read the response entity till
+     * its end or close the response so that the stream is given back.
+     */
+    public CloseableHttpResponse execute(Host host, UpstreamRequest upstreamRequest) throws IOException {
+        long start = System.nanoTime();
+        HostStreams hostStreams = getStreams(host);
+        int connection = hostStreams.acquire(this.acquireTimeoutMillis);
+        long sent = System.nanoTime();
+        this.proxyMetrics.recordAcquire(host, sent - start);
+        HttpResponse<InputStream> upstreamResponse;
+        try {
+            HttpRequest httpRequest = AsyncUpstreamClient.toHttpRequest(host, upstreamRequest, this.responseTimeout);
+            if(!hostStreams.isAnswered(connection)) {
+                HttpResponse<Void> upgraded = this.clients[connection].send(newUpgradeRequest(host),
+                    HttpResponse.BodyHandlers.discarding());
+                hostStreams.answered(connection, upgraded.version());
+            }
+            upstreamResponse = this.clients[connection].send(httpRequest,
+                responseInfo -> {
+                    hostStreams.answered(connection, responseInfo.version());
+                    return HttpResponse.BodySubscribers.ofInputStream();
+                });
+        } catch(InterruptedException e) {
+            hostStreams.release(connection);
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch(IOException | RuntimeException e) {
+            hostStreams.release(connection);
+            throw e;
+        }
+        this.proxyMetrics.recordTimeToFirstByte(host, System.nanoTime() - sent);
+        return new Http2Response(upstreamResponse, HttpMethod.HEAD.matches(upstreamRequest.getMethod()),
+            () -> hostStreams.release(connection));
+    }
+
+    /*
+     * sends httpRequest on a stream of the Host once one is free, the stream is given back when the returned future completes.
+     * Future fails with ConnectionPoolTimeoutException if no stream got free in upstream.pool.acquireTimeoutMillis.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(Host host, HttpRequest httpRequest,
+        HttpResponse.BodyHandler<T> bodyHandler) {
+        HostStreams hostStreams = getStreams(host);
+        CompletableFuture<Integer> stream = hostStreams.acquire();
+        if(!stream.isDone()) {
+            stream.orTimeout(this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return stream.handle((connection, e) -> {
+            if(e != null) {
+                return CompletableFuture.<HttpResponse<T>>failedFuture(newTimeoutException(host));
+            }
+            CompletableFuture<HttpResponse<T>> call;
+            try {
+                HttpClient client = this.clients[connection];
+                CompletableFuture<?> upgraded = hostStreams.isAnswered(connection)
+                    ? CompletableFuture.completedFuture(null)
+                    : client.sendAsync(newUpgradeRequest(host), HttpResponse.BodyHandlers.discarding())
+                    .thenAccept(response -> hostStreams.answered(connection, response.version()));
+                call = upgraded.thenCompose(ignored -> client.sendAsync(httpRequest, responseInfo -> {
+                    hostStreams.answered(connection, responseInfo.version());
+                    return bodyHandler.apply(responseInfo);
+                }));
+            } catch(RuntimeException sendFailure) {
+                hostStreams.release(connection);
+                throw sendFailure;
+            }
+            return call.whenComplete((response, failure) -> hostStreams.release(connection));
+        }).thenCompose(Function.identity());
+    }
+
+    //streams in flight to the Host across its connections
+    public int getActiveStreams(Host host) {
+        HostStreams hostStreams = this.streams.get(host);
+        return hostStreams == null ? 0 : hostStreams.getActive();
+    }
+
+    //requests waiting for a free stream of the Host
+    public int getWaiting(Host host) {
+        HostStreams hostStreams = this.streams.get(host);
+        return hostStreams == null ? 0 : hostStreams.getWaiting();
+    }
+
+    private HostStreams getStreams(Host host) {
+        HostStreams hostStreams = this.streams.get(host);
+        return hostStreams != null ? hostStreams : this.streams.computeIfAbsent(host, HostStreams::new);
+    }
+
+    /*
+     * java.net.http upgrades a connection to h2c with its first request, this one has no body as Tomcat answers an upgrade which
+     * carries one with a GOAWAY. upstream-server answers it right away so requests waiting for the new connection do not wait
+     * for a response of the service as well.
+     */
+    private HttpRequest newUpgradeRequest(Host host) {
+        return HttpRequest.newBuilder(AsyncUpstreamClient.toUri(host, "/"))
+            .timeout(this.responseTimeout)
+            .method(HttpMethod.OPTIONS.name(), HttpRequest.BodyPublishers.noBody())
+            .build();
+    }
+
+    private ConnectionPoolTimeoutException newTimeoutException(Host host) {
+        return new ConnectionPoolTimeoutException("no HTTP/2 stream of " + host + " got free in " + this.acquireTimeoutMillis
+            + " ms");
+    }
+
+    /*
+     * streams of every connection to a Host, guarded by its monitor. A waiter is completed outside of it as the upload of its
+     * request may start right away.
+     */
+    private final class HostStreams {
+        private final Host host;
+        private final int[] active;
+        private final boolean[] answered;
+        private final ArrayDeque<CompletableFuture<Integer>> waiting = new ArrayDeque<>();
+        private volatile boolean http1Logged;
+
+        private HostStreams(Host host) {
+            this.host = host;
+            this.active = new int[clients.length];
+            this.answered = new boolean[clients.length];
+        }
+
+        //connection of a free stream, completed once one is free if there is none now
+        private CompletableFuture<Integer> acquire() {
+            synchronized(this) {
+                int connection = pick();
+                if(connection >= 0) {
+                    this.active[connection]++;
+                    return CompletableFuture.completedFuture(connection);
+                }
+                CompletableFuture<Integer> waiter = new CompletableFuture<>();
+                this.waiting.add(waiter);
+                return waiter;
+            }
+        }
+
+        private int acquire(long timeoutMillis) throws IOException {
+            CompletableFuture<Integer> waiter = acquire();
+            try {
+                return waiter.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch(TimeoutException e) {
+                //a stream may have been handed over meanwhile
+                if(!waiter.cancel(false)) {
+                    release(waiter.join());
+                }
+                throw newTimeoutException(this.host);
+            } catch(InterruptedException e) {
+                if(!waiter.cancel(false)) {
+                    release(waiter.join());
+                }
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch(ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        //response head of a stream of connection has arrived, the connection may carry all its streams from now on
+        private void answered(int connection, HttpClient.Version version) {
+            if(version == HttpClient.Version.HTTP_1_1 && !this.http1Logged) {
+                this.http1Logged = true;
+                log.warn("host {} did not upgrade to h2c, it is called over HTTP/1.1", this.host);
+            }
+            List<HandedOver> handedOver;
+            synchronized(this) {
+                if(this.answered[connection]) {
+                    return;
+                }
+                this.answered[connection] = true;
+                handedOver = handOver();
+            }
+            complete(handedOver);
+        }
+
+        private synchronized boolean isAnswered(int connection) {
+            return this.answered[connection];
+        }
+
+        private void release(int connection) {
+            List<HandedOver> handedOver;
+            synchronized(this) {
+                this.active[connection]--;
+                handedOver = handOver();
+            }
+            complete(handedOver);
+        }
+
+        //waiters which have been given a stream, their streams are already counted in active
+        private List<HandedOver> handOver() {
+            List<HandedOver> handedOver = null;
+            int connection;
+            while(!this.waiting.isEmpty() && (connection = pick()) >= 0) {
+                CompletableFuture<Integer> waiter = this.waiting.poll();
+                //a waiter which timed out or was cancelled has gone
+                if(!waiter.isDone()) {
+                    this.active[connection]++;
+                    if(handedOver == null) {
+                        handedOver = new ArrayList<>();
+                    }
+                    handedOver.add(new HandedOver(waiter, connection));
+                }
+            }
+            return handedOver;
+        }
+
+        private void complete(List<HandedOver> handedOver) {
+            if(handedOver == null) {
+                return;
+            }
+            for(HandedOver next: handedOver) {
+                //waiter timed out after it was polled
+                if(!next.waiter.complete(next.connection)) {
+                    release(next.connection);
+                }
+            }
+        }
+
+        //connection with the fewest streams in flight which can take one more, -1 if there is none
+        private int pick() {
+            int picked = -1;
+            for(int connection = 0; connection < this.active.length; connection++) {
+                int limit = this.answered[connection] ? maxConcurrentStreams : 1;
+                if(this.active[connection] < limit && (picked < 0 || this.active[connection] < this.active[picked])) {
+                    picked = connection;
+                }
+            }
+            return picked;
+        }
+
+        private synchronized int getActive() {
+            int sum = 0;
+            for(int count: this.active) {
+                sum += count;
+            }
+            return sum;
+        }
+
+        private synchronized int getWaiting() {
+            int count = 0;
+            for(CompletableFuture<Integer> waiter: this.waiting) {
+                if(!waiter.isDone()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private static final class HandedOver {
+        private final CompletableFuture<Integer> waiter;
+        private final int connection;
+
+        private HandedOver(CompletableFuture<Integer> waiter, int connection) {
+            this.waiter = waiter;
+            this.connection = connection;
+        }
+    }
+
+    /*
+     * HTTP/2 response in the shape of an Apache response so UpstreamForwarder relays it the same way. Headers are passed
+     * without the :status pseudo header, the body is streamed as it arrives and onClose gives the stream back once.
+     */
+    private static final class Http2Response extends BasicHttpResponse implements CloseableHttpResponse {
+        private final InputStream body;
+
+        private Http2Response(HttpResponse<InputStream> response, boolean head, Runnable onClose) {
+            super(HttpVersion.HTTP_1_1, response.statusCode(), null);
+            response.headers().map().forEach((name, values) -> {
+                if(!name.startsWith(":")) {
+                    values.forEach(value -> addHeader(name, value));
+                }
+            });
+            AtomicBoolean closed = new AtomicBoolean();
+            this.body = new FilterInputStream(response.body()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if(closed.compareAndSet(false, true)) {
+                            onClose.run();
+                        }
+                    }
+                }
+            };
+            int statusCode = response.statusCode();
+            //same as Apache, a response which can not have a body has no entity
+            if(head || statusCode == 204 || statusCode == 304) {
+                closeQuietly();
+                return;
+            }
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(this.body);
+            entity.setContentLength(response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1));
+            setEntity(entity);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.body.close();
+        }
+
+        private void closeQuietly() {
+            try {
+                close();
+            } catch(IOException e) {
+                log.debug("could not close empty HTTP/2 response {}", e.toString());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if(this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.sample.upstream;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * ProxyHeaders decides which headers are passed between client and upstream-server
+ *
+ * hop-by-hop headers(RFC 7230 section 6.1) describe one connection and are never passed on: Connection, Keep-Alive,
+ * Proxy-Authenticate, Proxy-Authorization, TE, Trailer, Transfer-Encoding, Upgrade and every header named in Connection.
+ * Host, Content-Length and Expect of the client are not passed either, the upstream client sets them for its own connection.
+ *
+ * X-Forwarded-For(client address appended to the one sent by the client), X-Forwarded-Proto, X-Forwarded-Host and
+ * X-Forwarded-Port tell upstream-server who the original client was.
+ *
+ * Headers are immutable BasicHeaders, X-Forwarded-Proto and X-Forwarded-Port are the same few for every request so they are
+ * shared instead of being made per request.
+ */
+public final class ProxyHeaders {
+    public static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    public static final String X_FORWARDED_PROTO = "X-Forwarded-Proto";
+    public static final String X_FORWARDED_HOST = "X-Forwarded-Host";
+    public static final String X_FORWARDED_PORT = "X-Forwarded-Port";
+    private static final Set<String> HOP_BY_HOP = caseInsensitive(HttpHeaders.CONNECTION, "Keep-Alive",
+        HttpHeaders.PROXY_AUTHENTICATE, HttpHeaders.PROXY_AUTHORIZATION, HttpHeaders.TE, HttpHeaders.TRAILER,
+        HttpHeaders.TRANSFER_ENCODING, HttpHeaders.UPGRADE);
+    private static final Set<String> NOT_FORWARDED = caseInsensitive(HttpHeaders.HOST, HttpHeaders.CONTENT_LENGTH,
+        HttpHeaders.EXPECT, X_FORWARDED_FOR, X_FORWARDED_PROTO, X_FORWARDED_HOST, X_FORWARDED_PORT);
+    private static final Header FORWARDED_PROTO_HTTP = new BasicHeader(X_FORWARDED_PROTO, "http");
+    private static final Header FORWARDED_PROTO_HTTPS = new BasicHeader(X_FORWARDED_PROTO, "https");
+    //client headers and the 4 X-Forwarded-* of a typical request fit without growing the list
+    private static final int EXPECTED_HEADERS = 16;
+    //X-Forwarded-Port of the last port seen, a proxy listens on one or two ports
+    private static volatile Header forwardedPort = new BasicHeader(X_FORWARDED_PORT, "80");
+
+    private ProxyHeaders() {
+    }
+
+    //headers of the client request which are sent upstream, X-Forwarded-* included
+    public static Header[] getRequestHeaders(HttpServletRequest request) {
+        List<Header> headers = new ArrayList<>(EXPECTED_HEADERS);
+        Set<String> connectionHeaders = getConnectionHeaders(request.getHeader(HttpHeaders.CONNECTION));
+        Enumeration<String> names = request.getHeaderNames();
+        while(names.hasMoreElements()) {
+            String name = names.nextElement();
+            if(isHopByHop(name, connectionHeaders) || NOT_FORWARDED.contains(name)) {
+                continue;
+            }
+            Enumeration<String> values = request.getHeaders(name);
+            while(values.hasMoreElements()) {
+                headers.add(new BasicHeader(name, values.nextElement()));
+            }
+        }
+        String forwardedFor = request.getHeader(X_FORWARDED_FOR);
+        headers.add(new BasicHeader(X_FORWARDED_FOR,
+            forwardedFor == null ? request.getRemoteAddr() : forwardedFor + ", " + request.getRemoteAddr()));
+        String forwardedHost = request.getHeader(HttpHeaders.HOST);
+        headers.add(getForwardedProto(request.getScheme()));
+        headers.add(new BasicHeader(X_FORWARDED_HOST, forwardedHost == null ? request.getServerName() : forwardedHost));
+        headers.add(getForwardedPort(request.getServerPort()));
+        return headers.toArray(new Header[0]);
+    }
+
+    /*
+     * whether a header of an upstream response is passed to the client, connectionHeaders are the headers named
+     * in Connection of that response(getConnectionHeaders())
+     */
+    public static boolean isEndToEnd(String name, Set<String> connectionHeaders) {
+        return !isHopByHop(name, connectionHeaders) && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+    }
+
+    //header names listed in a Connection header e.g. "close, X-Trace", empty set if there is none
+    public static Set<String> getConnectionHeaders(String connection) {
+        if(connection == null) {
+            return ImmutableSet.of();
+        }
+        Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Splitter.on(',').trimResults().omitEmptyStrings().split(connection).forEach(names::add);
+        return names;
+    }
+
+    private static Header getForwardedProto(String scheme) {
+        if("http".equals(scheme)) {
+            return FORWARDED_PROTO_HTTP;
+        }
+        return "https".equals(scheme) ? FORWARDED_PROTO_HTTPS : new BasicHeader(X_FORWARDED_PROTO, scheme);
+    }
+
+    private static Header getForwardedPort(int port) {
+        Header header = forwardedPort;
+        if(Integer.parseInt(header.getValue()) != port) {
+            header = new BasicHeader(X_FORWARDED_PORT, String.valueOf(port));
+            forwardedPort = header;
+        }
+        return header;
+    }
+
+    private static boolean isHopByHop(String name, Set<String> connectionHeaders) {
+        return HOP_BY_HOP.contains(name) || connectionHeaders.contains(name);
+    }
+
+    private static Set<String> caseInsensitive(String... names) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(Arrays.asList(names));
+        return set;
+    }
+}
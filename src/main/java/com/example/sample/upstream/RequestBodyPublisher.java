@@ -0,0 +1,105 @@
+package com.example.sample.upstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * RequestBodyPublisher streams the body of a client request to java.net.http as it is read
+ *
+ * BodyPublishers.ofInputStream() reads the client stream on whichever thread asks for more of the body, that is a thread
+ * of the few upstream.async.threads which then blocks on a slow client and stalls every other call of the client.
+ * Here reading is done on executor(upstream.async.bodyThreads) only: a chunk is read and handed on for every chunk
+ * asked for, a single drain task runs at a time so chunks are signalled in order.
+ *
+ * The client stream can be read once only, a second subscription fails right away.
+ */
+final class RequestBodyPublisher implements Flow.Publisher<ByteBuffer> {
+    private static final int CHUNK_BYTES = 8192;
+    private final UpstreamRequest upstreamRequest;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    RequestBodyPublisher(UpstreamRequest upstreamRequest, Executor executor) {
+        this.upstreamRequest = upstreamRequest;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if(!this.subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("body of the client request can be sent once only"));
+            return;
+        }
+        subscriber.onSubscribe(new BodySubscription(subscriber));
+    }
+
+    private final class BodySubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean done;
+        private InputStream body;
+
+        private BodySubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                cancel();
+                this.subscriber.onError(new IllegalArgumentException("non-positive request " + n));
+                return;
+            }
+            //drain is started by the request which takes demand away from 0, it runs till demand is 0 again
+            long previous = this.demand.getAndAccumulate(n,
+                (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            if(previous == 0) {
+                RequestBodyPublisher.this.executor.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            this.done = true;
+        }
+
+        private void drain() {
+            long requested = this.demand.get();
+            while(requested > 0 && !this.done) {
+                try {
+                    if(this.body == null) {
+                        this.body = RequestBodyPublisher.this.upstreamRequest.openBody();
+                    }
+                    byte[] chunk = new byte[CHUNK_BYTES];
+                    int read = this.body.read(chunk);
+                    if(read < 0) {
+                        this.done = true;
+                        this.body.close();
+                        this.subscriber.onComplete();
+                        return;
+                    }
+                    this.subscriber.onNext(ByteBuffer.wrap(chunk, 0, read));
+                } catch(IOException | RuntimeException e) {
+                    this.done = true;
+                    this.subscriber.onError(e);
+                    return;
+                }
+                requested = this.demand.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.example.sample.upstream;
+
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import lombok.extern.log4j.Log4j2;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseFactory;
+import org.apache.http.ParseException;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.EofSensorInputStream;
+import org.apache.http.conn.EofSensorWatcher;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.DefaultHttpResponseFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.DefaultHttpResponseParserFactory;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicLineParser;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.protocol.ImmutableHttpProcessor;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.util.CharArrayBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * UpstreamConnectionPool keeps keep-alive connections to every Host(upstream-server) and is shared by all ReverseProxy classes
+ *
+ * Connections are pooled per Host(serviceIP and port) so a request to a node reuses an idle socket instead of doing a
+ * TCP handshake on every hop.
+ *
+ * upstream.pool.maxPerHost    - max number of connections (leased + idle) kept to a single Host
+ * upstream.pool.maxTotal      - max number of connections across all Hosts
+ * upstream.pool.idleTimeoutMillis    - idle connections older than this are closed by a background evictor
+ * upstream.pool.acquireTimeoutMillis - how long a request waits in the pending queue for a free connection of a Host
+ *
+ * execute() sends a request on a leased connection itself instead of going through HttpClient, whose exec chain copies and
+ * rewrites the request URI, fills a context, and handles cookies, authentication and redirects on every request. A proxy
+ * passes Set-Cookie and 3xx responses to its client as they are, so only the request line, headers and the response head
+ * are left. The HttpRoute, HttpHost and Host header of every Host are made once(Endpoint) and reused by its requests.
+ *
+ * warmUp() opens connections to a Host ahead of its first request e.g. when it is added to HostRegistry at runtime.
+ *
+ * Pool stats(active, idle, waiting) are published to actuator metrics by UpstreamPoolMetrics. Every execute() records
+ * proxy.upstream.acquire(till a connection is leased and connected) and proxy.upstream.ttfb(till the response head arrived)
+ * of its Host in ProxyMetrics.
+ */
+@Log4j2
+@Component
+public class UpstreamConnectionPool {
+    //Content-Length or Transfer-Encoding of a request with a body, the only header not sent by the client which is needed
+    private static final HttpProcessor REQUEST_PROCESSOR = new ImmutableHttpProcessor(new RequestContent());
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor connectionEvictor;
+    private final HttpRequestExecutor requestExecutor = new HttpRequestExecutor();
+    private final ConcurrentMap<Host, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final long idleTimeoutMillis;
+    private final int acquireTimeoutMillis;
+    private final int connectTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final ProxyMetrics proxyMetrics;
+
+    @Autowired
+    public UpstreamConnectionPool(ProxyMetrics proxyMetrics, HostIndex hostIndex,
+        @Value("${upstream.pool.maxPerHost:20}") int maxPerHost,
+        @Value("${upstream.pool.maxTotal:200}") int maxTotal,
+        @Value("${upstream.pool.idleTimeoutMillis:20000}") long idleTimeoutMillis,
+        @Value("${upstream.pool.acquireTimeoutMillis:500}") int acquireTimeoutMillis,
+        @Value("${upstream.connectTimeoutMillis:100}") int connectTimeoutMillis,
+        @Value("${upstream.socketTimeoutMillis:5000}") int socketTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.proxyMetrics = proxyMetrics;
+        //responses are parsed straight into a PooledResponse, content is relayed as it is sent by the upstream-server
+        this.connectionManager = new PoolingHttpClientConnectionManager(new ManagedHttpClientConnectionFactory(null,
+            new DefaultHttpResponseParserFactory(HeaderParser.INSTANCE, PooledResponse.FACTORY)));
+        this.connectionManager.setDefaultMaxPerRoute(maxPerHost);
+        this.connectionManager.setMaxTotal(maxTotal);
+        //closes expired connections and those idle for longer than idleTimeoutMillis
+        this.connectionEvictor = new IdleConnectionEvictor(this.connectionManager, idleTimeoutMillis, TimeUnit.MILLISECONDS,
+            idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        this.connectionEvictor.start();
+        hostIndex.addListener(this::removeEndpoints);
+        log.info("upstream connection pool created maxPerHost {} maxTotal {} idleTimeoutMillis {}",
+            maxPerHost, maxTotal, idleTimeoutMillis);
+    }
+
+    /*
+     * executes request on a pooled connection of the Host. Caller has to consume the response entity (or close the response)
+     * so that the connection is released back to the pool. Retries are handled by the ReverseProxy classes.
+     */
+    public CloseableHttpResponse execute(Host host, HttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        Endpoint endpoint = getEndpoint(host);
+        HttpClientConnection connection = lease(endpoint.route);
+        try {
+            if(!connection.isOpen()) {
+                HttpClientContext context = HttpClientContext.create();
+                this.connectionManager.connect(connection, endpoint.route, this.connectTimeoutMillis, context);
+                this.connectionManager.routeComplete(connection, endpoint.route, context);
+            }
+            connection.setSocketTimeout(this.socketTimeoutMillis);
+            request.setHeader(endpoint.hostHeader);
+            ExchangeContext context = new ExchangeContext(request);
+            this.requestExecutor.preProcess(request, REQUEST_PROCESSOR, context);
+            long sent = System.nanoTime();
+            this.proxyMetrics.recordAcquire(host, sent - start);
+            PooledResponse response = (PooledResponse) this.requestExecutor.execute(request, connection, context);
+            this.proxyMetrics.recordTimeToFirstByte(host, System.nanoTime() - sent);
+            response.attach(this, connection, getKeepAliveMillis(response, context));
+            return response;
+        } catch(HttpException e) {
+            abort(connection);
+            throw new ClientProtocolException(e);
+        } catch(IOException | RuntimeException e) {
+            abort(connection);
+            throw e;
+        }
+    }
+
+    /*
+     * opens up to connections keep-alive connections to the Host and leaves them idle in the pool, connections which are
+     * already idle count towards it
+     */
+    public void warmUp(Host host, int connections) throws IOException {
+        HttpRoute route = getEndpoint(host).route;
+        List<HttpClientConnection> leased = new ArrayList<>(connections);
+        try {
+            for(int i = 0; i < connections; i++) {
+                HttpClientConnection connection = this.connectionManager.requestConnection(route, null)
+                    .get(this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+                leased.add(connection);
+                if(!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    this.connectionManager.connect(connection, route, this.connectTimeoutMillis, context);
+                    this.connectionManager.routeComplete(connection, route, context);
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch(ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for(HttpClientConnection connection: leased) {
+                //a connection which could not be opened is not kept
+                this.connectionManager.releaseConnection(connection, null,
+                    connection.isOpen() ? this.idleTimeoutMillis : 0, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public PoolStats getStats(Host host) {
+        return this.connectionManager.getStats(getEndpoint(host).route);
+    }
+
+    private Endpoint getEndpoint(Host host) {
+        Endpoint endpoint = this.endpoints.get(host);
+        return endpoint != null ? endpoint : this.endpoints.computeIfAbsent(host, Endpoint::new);
+    }
+
+    //endpoints of hosts removed from HostIndex are dropped, their idle connections are closed by the evictor
+    private void removeEndpoints(Map<String, Host[]> index) {
+        Set<Host> hosts = new HashSet<>();
+        index.values().forEach(serviceHosts -> hosts.addAll(Arrays.asList(serviceHosts)));
+        this.endpoints.keySet().retainAll(hosts);
+    }
+
+    //a free connection of the route, ConnectionPoolTimeoutException if none got free in upstream.pool.acquireTimeoutMillis
+    private HttpClientConnection lease(HttpRoute route) throws IOException {
+        try {
+            return this.connectionManager.requestConnection(route, null).get(this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestAbortedException("Request aborted", e);
+        } catch(ExecutionException e) {
+            throw new RequestAbortedException("Request execution failed", e.getCause());
+        }
+    }
+
+    //how long the connection may be reused for after the response, -1 if it is not to be reused
+    private long getKeepAliveMillis(HttpResponse response, HttpContext context) {
+        if(!DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, context)) {
+            return -1;
+        }
+        long keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        //no Keep-Alive header, the evictor closes it once idle for idleTimeoutMillis
+        return keepAliveMillis > 0 ? Math.min(keepAliveMillis, this.idleTimeoutMillis) : this.idleTimeoutMillis;
+    }
+
+    private void release(HttpClientConnection connection, long keepAliveMillis) {
+        if(keepAliveMillis < 0) {
+            try {
+                connection.close();
+            } catch(IOException e) {
+                log.debug("could not close upstream connection {}", e.toString());
+            }
+        }
+        this.connectionManager.releaseConnection(connection, null, Math.max(keepAliveMillis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    //a connection whose exchange did not finish can not be reused, it is shut down without reading the rest
+    private void abort(HttpClientConnection connection) {
+        try {
+            connection.shutdown();
+        } catch(IOException e) {
+            log.debug("could not shut down upstream connection {}", e.toString());
+        }
+        this.connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+    }
+
+    //what every request to a Host shares
+    private static final class Endpoint {
+        private final HttpRoute route;
+        private final Header hostHeader;
+
+        private Endpoint(Host host) {
+            HttpHost httpHost = new HttpHost(host.getServiceIP(), Integer.parseInt(host.getPort()));
+            this.route = new HttpRoute(httpHost);
+            this.hostHeader = new BasicHeader(HTTP.TARGET_HOST, httpHost.toHostString());
+        }
+    }
+
+    /*
+     * parses a header line into a BasicHeader, BufferedHeader of Apache makes a new String of its value every time it is read
+     * and a response has headers such as Content-Length and Content-Type read a few times on its way to the client
+     */
+    private static final class HeaderParser extends BasicLineParser {
+        private static final HeaderParser INSTANCE = new HeaderParser();
+
+        @Override
+        public Header parseHeader(CharArrayBuffer buffer) throws ParseException {
+            int colon = buffer.indexOf(':');
+            String name = colon > 0 ? buffer.substringTrimmed(0, colon) : "";
+            if(name.isEmpty()) {
+                throw new ParseException("Invalid header: " + buffer.toString());
+            }
+            return new BasicHeader(name, buffer.substringTrimmed(colon + 1, buffer.length()));
+        }
+    }
+
+    /*
+     * response whose connection goes back to the pool once its entity is read till the end or its stream is closed, the
+     * connection is shut down if the response is closed before that
+     */
+    private static final class PooledResponse extends BasicHttpResponse implements CloseableHttpResponse, EofSensorWatcher {
+        private static final HttpResponseFactory FACTORY = new DefaultHttpResponseFactory() {
+            @Override
+            public HttpResponse newHttpResponse(StatusLine statusLine, HttpContext context) {
+                return new PooledResponse(statusLine);
+            }
+        };
+        private UpstreamConnectionPool pool;
+        private HttpClientConnection connection;
+        private long keepAliveMillis;
+
+        private PooledResponse(StatusLine statusLine) {
+            super(statusLine);
+        }
+
+        private void attach(UpstreamConnectionPool pool, HttpClientConnection connection, long keepAliveMillis) {
+            this.pool = pool;
+            this.connection = connection;
+            this.keepAliveMillis = keepAliveMillis;
+            //HEAD, 204 and 304 have no entity, the connection is done with right away
+            HttpEntity entity = getEntity();
+            if(entity instanceof BasicHttpEntity && entity.isStreaming()) {
+                BasicHttpEntity content = (BasicHttpEntity) entity;
+                content.setContent(new EofSensorInputStream(content.getContent(), this));
+            } else {
+                release(keepAliveMillis);
+            }
+        }
+
+        @Override
+        public boolean eofDetected(InputStream wrapped) throws IOException {
+            try {
+                wrapped.close();
+            } finally {
+                release(this.keepAliveMillis);
+            }
+            return false;
+        }
+
+        //rest of the entity is read by closing it, which keeps the connection reusable
+        @Override
+        public boolean streamClosed(InputStream wrapped) throws IOException {
+            return eofDetected(wrapped);
+        }
+
+        @Override
+        public boolean streamAbort(InputStream wrapped) {
+            abort();
+            return false;
+        }
+
+        @Override
+        public void close() {
+            abort();
+        }
+
+        private void release(long keepAliveMillis) {
+            if(this.connection != null) {
+                this.pool.release(this.connection, keepAliveMillis);
+                this.connection = null;
+            }
+        }
+
+        private void abort() {
+            if(this.connection != null) {
+                this.pool.abort(this.connection);
+                this.connection = null;
+            }
+        }
+    }
+
+    /*
+     * context of a single exchange, HttpRequestExecutor sets more attributes but only the request is read back(whether a
+     * response to HEAD can keep its connection) so nothing else is kept
+     */
+    private static final class ExchangeContext implements HttpContext {
+        private final HttpRequest request;
+
+        private ExchangeContext(HttpRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public Object getAttribute(String id) {
+            return HttpCoreContext.HTTP_REQUEST.equals(id) ? this.request : null;
+        }
+
+        @Override
+        public void setAttribute(String id, Object obj) {
+        }
+
+        @Override
+        public Object removeAttribute(String id) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        log.info("closing upstream connection pool");
+        this.connectionEvictor.shutdown();
+        this.connectionManager.shutdown();
+    }
+}
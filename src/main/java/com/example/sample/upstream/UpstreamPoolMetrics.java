@@ -0,0 +1,104 @@
+package com.example.sample.upstream;
+
+import com.example.sample.model.Host;
+import com.example.sample.loadBalance.HostIndex;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * UpstreamPoolMetrics publishes stats of UpstreamConnectionPool for every Host to the actuator metrics endpoint
+ *
+ * http://localhost:8080/actuator/metrics/upstream.pool.active  - connections leased by in-flight requests
+ * http://localhost:8080/actuator/metrics/upstream.pool.idle    - keep-alive connections waiting to be reused
+ * http://localhost:8080/actuator/metrics/upstream.pool.waiting - requests queued for a connection
+ * ?tag=host:127.0.0.1:9090 narrows it down to a single Host
+ *
+ * With upstream.protocol=h2c streams of Http2ConnectionPool are published instead
+ * http://localhost:8080/actuator/metrics/upstream.http2.streams - streams in flight across the HTTP/2 connections of a Host
+ * http://localhost:8080/actuator/metrics/upstream.http2.waiting - requests queued for a free stream
+ *
+ * Gauges are registered for hosts of HostIndex and follow it when hosts are added or removed at runtime.
+ */
+@Component
+public class UpstreamPoolMetrics implements MeterBinder {
+
+    private final UpstreamConnectionPool connectionPool;
+    private final Http2ConnectionPool http2ConnectionPool;
+    private final HostIndex hostIndex;
+    private final Map<Host, List<Meter>> meters = new HashMap<>();
+    private MeterRegistry registry;
+
+    @Autowired
+    public UpstreamPoolMetrics(UpstreamConnectionPool connectionPool, Http2ConnectionPool http2ConnectionPool,
+        HostIndex hostIndex) {
+        this.connectionPool = connectionPool;
+        this.http2ConnectionPool = http2ConnectionPool;
+        this.hostIndex = hostIndex;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        synchronized(this.meters) {
+            this.registry = registry;
+        }
+        this.hostIndex.addListener(this::update);
+    }
+
+    //gauges follow hosts of HostRegistry, a Host which is removed at runtime loses its gauges
+    private void update(Map<String, Host[]> index) {
+        synchronized(this.meters) {
+            Set<Host> hosts = new HashSet<>();
+            index.values().forEach(serviceHosts -> hosts.addAll(Arrays.asList(serviceHosts)));
+            for(Iterator<Map.Entry<Host, List<Meter>>> it = this.meters.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Host, List<Meter>> entry = it.next();
+                if(!hosts.contains(entry.getKey())) {
+                    entry.getValue().forEach(this.registry::remove);
+                    it.remove();
+                }
+            }
+            for(Host host: hosts) {
+                this.meters.computeIfAbsent(host, this::register);
+            }
+        }
+    }
+
+    private List<Meter> register(Host host) {
+        String hostTag = host.getServiceIP() + ":" + host.getPort();
+        if(this.http2ConnectionPool.isEnabled()) {
+            return Arrays.asList(
+                Gauge.builder("upstream.http2.streams", this.http2ConnectionPool, pool -> pool.getActiveStreams(host))
+                    .description("HTTP/2 streams of in-flight requests")
+                    .tag("service", host.getServiceName()).tag("host", hostTag)
+                    .register(this.registry),
+                Gauge.builder("upstream.http2.waiting", this.http2ConnectionPool, pool -> pool.getWaiting(host))
+                    .description("requests waiting for a free HTTP/2 stream")
+                    .tag("service", host.getServiceName()).tag("host", hostTag)
+                    .register(this.registry));
+        }
+        return Arrays.asList(
+            Gauge.builder("upstream.pool.active", this.connectionPool, pool -> pool.getStats(host).getLeased())
+                .description("upstream connections leased by in-flight requests")
+                .tag("service", host.getServiceName()).tag("host", hostTag)
+                .register(this.registry),
+            Gauge.builder("upstream.pool.idle", this.connectionPool, pool -> pool.getStats(host).getAvailable())
+                .description("idle keep-alive upstream connections")
+                .tag("service", host.getServiceName()).tag("host", hostTag)
+                .register(this.registry),
+            Gauge.builder("upstream.pool.waiting", this.connectionPool, pool -> pool.getStats(host).getPending())
+                .description("requests waiting for an upstream connection")
+                .tag("service", host.getServiceName()).tag("host", hostTag)
+                .register(this.registry));
+    }
+}
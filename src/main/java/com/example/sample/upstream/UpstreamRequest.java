@@ -0,0 +1,97 @@
+package com.example.sample.upstream;
+
+import com.google.common.collect.ImmutableSet;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.apache.http.Header;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/*
+ * UpstreamRequest is what is sent to upstream-server for a client request
+ *
+ * method  - method of the client request
+ * target  - request_uri and query string of the client request, passed as they are
+ * headers - end-to-end headers of the client request and X-Forwarded-*(ProxyHeaders), not to be changed
+ * body    - read from the client request only while it is being sent upstream(openBody()), it is never held in memory
+ *           except for a small body AsyncUpstreamClient reads up front(readBody())
+ *
+ * A request with a body can be sent once only, its stream is gone afterwards. Only a request without a body whose method
+ * is idempotent(GET, HEAD, OPTIONS, PUT and DELETE without a body) is replayable, which means it may be retried after upstream-server
+ * has seen it or hedged.
+ */
+@Getter
+public final class UpstreamRequest {
+    private static final Set<String> IDEMPOTENT_METHODS = ImmutableSet.of(HttpMethod.GET.name(), HttpMethod.HEAD.name(),
+        HttpMethod.OPTIONS.name(), HttpMethod.PUT.name(), HttpMethod.DELETE.name());
+    private final String method;
+    private final String target;
+    private final Header[] headers;
+    private final long contentLength;
+    @Getter(AccessLevel.NONE)
+    private final ServletRequest body;
+    //body read by readBody(), kept so that a retry after a failed connect sends it again
+    @Getter(AccessLevel.NONE)
+    private byte[] bufferedBody;
+
+    private UpstreamRequest(String method, String target, Header[] headers, long contentLength, ServletRequest body) {
+        this.method = method;
+        this.target = target;
+        this.headers = headers;
+        this.contentLength = contentLength;
+        this.body = body;
+    }
+
+    public static UpstreamRequest from(HttpServletRequest request) {
+        //a body is either of known length or chunked
+        boolean hasBody = request.getContentLengthLong() > 0 || request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null;
+        return new UpstreamRequest(request.getMethod(), getTarget(request), ProxyHeaders.getRequestHeaders(request),
+            hasBody ? request.getContentLengthLong() : 0, hasBody ? request : null);
+    }
+
+    //request_uri and query string of the client request
+    public static String getTarget(HttpServletRequest request) {
+        String queryString = request.getQueryString();
+        return queryString == null ? request.getRequestURI() : request.getRequestURI() + '?' + queryString;
+    }
+
+    public boolean hasBody() {
+        return this.body != null;
+    }
+
+    //stream of the client body, -1 contentLength means it is chunked
+    public InputStream openBody() throws IOException {
+        return this.body.getInputStream();
+    }
+
+    //whole client body, read once
+    public byte[] readBody() throws IOException {
+        if(this.bufferedBody == null) {
+            try (InputStream inputStream = openBody()) {
+                this.bufferedBody = inputStream.readAllBytes();
+            }
+        }
+        return this.bufferedBody;
+    }
+
+    //Authorization or Cookie of the client is among the headers, its response may be meant for that client only
+    public boolean hasCredentials() {
+        for(Header header: this.headers) {
+            String name = header.getName();
+            if(HttpHeaders.AUTHORIZATION.equalsIgnoreCase(name) || HttpHeaders.COOKIE.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isReplayable() {
+        return this.body == null && IDEMPOTENT_METHODS.contains(this.method);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.sample.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * ResponseCacheTest checks time to live the cache gives upstream responses according to their Cache-Control and to whether
+ * the request had credentials
+ */
+class ResponseCacheTest {
+    private final ResponseCache responseCache = new ResponseCache(true, 10_000, 64 << 20, 1 << 20, 60, 30, ResponseCache.HEAP_STORE,
+        1 << 20, 1 << 16, "cached-sites.dat", "secondChance");
+
+    private long getTimeToLiveSeconds(String cacheControl) {
+        return getTimeToLiveSeconds(cacheControl, false);
+    }
+
+    private long getTimeToLiveSeconds(String cacheControl, boolean credentials) {
+        Map<String, String> headers = new HashMap<>();
+        if(cacheControl != null) {
+            headers.put(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        long timeToLiveNanos = this.responseCache.getTimeToLiveNanos(200, 10, credentials, headers::get);
+        return timeToLiveNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toSeconds(timeToLiveNanos);
+    }
+
+    @Test
+    void sharedMaxAgeWinsOverMaxAge() {
+        assertEquals(30, getTimeToLiveSeconds("max-age=10, s-maxage=30"));
+        assertEquals(30, getTimeToLiveSeconds("s-maxage=30, max-age=10"));
+    }
+
+    @Test
+    void directivesAfterSharedMaxAgeForbidCaching() {
+        assertEquals(-1, getTimeToLiveSeconds("s-maxage=60, private"));
+        assertEquals(-1, getTimeToLiveSeconds("s-maxage=60, no-store"));
+        assertEquals(-1, getTimeToLiveSeconds("s-maxage=60, no-cache"));
+    }
+
+    @Test
+    void responseToRequestWithCredentialsIsCachedOnlyIfShared() {
+        assertEquals(60, getTimeToLiveSeconds(null));
+        assertEquals(-1, getTimeToLiveSeconds(null, true));
+        assertEquals(-1, getTimeToLiveSeconds("max-age=30", true));
+        assertEquals(30, getTimeToLiveSeconds("public, max-age=30", true));
+        assertEquals(30, getTimeToLiveSeconds("s-maxage=30", true));
+        assertEquals(30, getTimeToLiveSeconds("must-revalidate, max-age=30", true));
+        assertEquals(-1, getTimeToLiveSeconds("public", true));
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.sample.loadBalance;
+
+import com.example.sample.ReverseProxyConfigurations;
+import com.example.sample.model.Host;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * RoundRobinSelectorTest lets many threads pick hosts of hostList(application.properties) at the same time.
+ * Every pick takes its own cursor position, so with all hosts available every host is picked exactly as often as the others.
+ */
+class RoundRobinSelectorTest {
+    private static final int THREADS = 16;
+    private static final int PICKS_PER_THREAD = 10_000;
+
+    private AnnotationConfigApplicationContext context;
+    private RoundRobinSelector roundRobinSelector;
+    private HostStateRegistry hostStateRegistry;
+    private Host[] hosts;
+
+    @BeforeEach
+    void setUp() {
+        this.context = new AnnotationConfigApplicationContext(ReverseProxyConfigurations.class, HostIndex.class,
+            HostStateRegistry.class, RoundRobinSelector.class);
+        this.roundRobinSelector = this.context.getBean(RoundRobinSelector.class);
+        this.hostStateRegistry = this.context.getBean(HostStateRegistry.class);
+        this.hosts = this.context.getBean(HostIndex.class).getIndex().values().iterator().next();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.context.close();
+    }
+
+    @Test
+    void concurrentPicksAreSpreadEvenly() throws Exception {
+        String serviceName = this.hosts[0].getServiceName();
+        Map<Host, LongAdder> counts = new ConcurrentHashMap<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    for(int pick = 0; pick < PICKS_PER_THREAD; pick++) {
+                        counts.computeIfAbsent(this.roundRobinSelector.getHostUsingRoundRobin(serviceName), h -> new LongAdder())
+                            .increment();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for(Future<?> future: futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long expected = (long) THREADS * PICKS_PER_THREAD / this.hosts.length;
+        assertEquals(this.hosts.length, counts.size());
+        for(Host host: this.hosts) {
+            assertEquals(expected, counts.get(host).sum(), "picks of " + host);
+            assertTrue(this.hostStateRegistry.get(host).isAvailable(), host + " is marked unavailable");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.sample.rateLimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * TokenBucketTableTest drives the buckets with fixed nowNanos, so refill and the returned wait are exact
+ */
+class TokenBucketTableTest {
+    private static final long START = 1_000_000_000L;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void newKeyStartsWithFullBucket() {
+        TokenBucketTable table = new TokenBucketTable(1, 2, 100, 1);
+        assertEquals(0, table.tryAcquire("client", START));
+        assertEquals(0, table.tryAcquire("client", START));
+        assertEquals(SECOND, table.tryAcquire("client", START));
+    }
+
+    @Test
+    void bucketIsRefilledLazily() {
+        TokenBucketTable table = new TokenBucketTable(2, 1, 100, 1);
+        assertEquals(0, table.tryAcquire("client", START));
+        //half a token after a quarter of a second at 2 tokens a second, the other half comes in another quarter
+        assertEquals(SECOND / 4, table.tryAcquire("client", START + SECOND / 4));
+        assertEquals(0, table.tryAcquire("client", START + SECOND / 2));
+    }
+
+    @Test
+    void refillStopsAtBurst() {
+        TokenBucketTable table = new TokenBucketTable(1, 3, 100, 1);
+        for(int i = 0; i < 3; i++) {
+            assertEquals(0, table.tryAcquire("client", START));
+        }
+        long later = START + 60 * SECOND;
+        for(int i = 0; i < 3; i++) {
+            assertEquals(0, table.tryAcquire("client", later));
+        }
+        assertEquals(SECOND, table.tryAcquire("client", later));
+    }
+
+    @Test
+    void leastRecentlyUsedKeyIsEvicted() {
+        TokenBucketTable table = new TokenBucketTable(1, 1, 2, 1);
+        assertEquals(0, table.tryAcquire("a", START));
+        assertEquals(0, table.tryAcquire("b", START));
+        //a is used after b, so b is the one evicted for c
+        assertEquals(SECOND, table.tryAcquire("a", START));
+        assertEquals(0, table.tryAcquire("c", START));
+        assertEquals(2, table.size());
+
+        //a kept its empty bucket, b comes back with a full one, the bucket of c is reused for it
+        assertEquals(SECOND, table.tryAcquire("a", START));
+        assertEquals(0, table.tryAcquire("b", START));
+        assertEquals(2, table.size());
+        //c was evicted for b
+        assertEquals(0, table.tryAcquire("c", START));
+    }
+}
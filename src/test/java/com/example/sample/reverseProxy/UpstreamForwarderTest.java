@@ -0,0 +1,106 @@
+package com.example.sample.reverseProxy;
+
+import com.example.sample.cache.CachedResponse;
+import com.example.sample.cache.ResponseCache;
+import com.example.sample.compression.ResponseCompressor;
+import com.example.sample.loadBalance.ConcurrencyLimiter;
+import com.example.sample.loadBalance.HostCircuitBreaker;
+import com.example.sample.loadBalance.HostHealthChecker;
+import com.example.sample.loadBalance.HostIndex;
+import com.example.sample.loadBalance.HostStateRegistry;
+import com.example.sample.loadBalance.PowerOfTwoChoices;
+import com.example.sample.loadBalance.ServiceOverloadedException;
+import com.example.sample.metrics.ProxyMetrics;
+import com.example.sample.model.Host;
+import com.example.sample.retry.HedgePolicy;
+import com.example.sample.retry.RetryPolicy;
+import com.example.sample.upstream.AsyncUpstreamClient;
+import com.example.sample.upstream.BufferPool;
+import com.example.sample.upstream.Http2ConnectionPool;
+import com.example.sample.upstream.UpstreamConnectionPool;
+import com.example.sample.upstream.UpstreamRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ * UpstreamForwarderTest sends a request to a Host which answers 503 while every Host of the service is at its limit
+ * of one permit, so the selector(PowerOfTwoChoices) has no Host left for the retry.
+ * The 503 has to be passed to the client and the permit and upstream connection of the call have to be given back.
+ */
+class UpstreamForwarderTest {
+    private static final String SERVICE = "my-service";
+
+    private final Host first = new Host(SERVICE, "10.0.0.1", "9090", 1);
+    private final Host second = new Host(SERVICE, "10.0.0.2", "9090", 1);
+    private HostStateRegistry hostStateRegistry;
+    private PowerOfTwoChoices powerOfTwoChoices;
+    private UpstreamConnectionPool connectionPool;
+    private UpstreamForwarder upstreamForwarder;
+
+    @BeforeEach
+    void setUp() {
+        this.hostStateRegistry = new HostStateRegistry(1, 10);
+        this.powerOfTwoChoices = new PowerOfTwoChoices(new HostIndex(Arrays.asList(this.first, this.second)),
+            this.hostStateRegistry);
+        this.connectionPool = mock(UpstreamConnectionPool.class);
+        HedgePolicy hedgePolicy = mock(HedgePolicy.class);
+        when(hedgePolicy.getHedgeDelayNanos(anyString())).thenReturn(-1L);
+        this.upstreamForwarder = new UpstreamForwarder(this.connectionPool, mock(Http2ConnectionPool.class),
+            mock(BufferPool.class), this.hostStateRegistry, new ConcurrencyLimiter(256, 1, 1, false, 200),
+            mock(ResponseCache.class), mock(AsyncUpstreamClient.class), mock(HostHealthChecker.class),
+            new HostCircuitBreaker(true, 20, 50, 80, 2000, 10000, 3), new RetryPolicy(3, 0, 0, 100, 10),
+            hedgePolicy, mock(ProxyMetrics.class), mock(ResponseCompressor.class));
+    }
+
+    @Test
+    void selectorThrowsServiceOverloadedWhenAllHostsAreSaturated() {
+        assertTrue(this.hostStateRegistry.get(this.first).tryAcquire());
+        assertTrue(this.hostStateRegistry.get(this.second).tryAcquire());
+
+        assertThrows(ServiceOverloadedException.class, () -> this.powerOfTwoChoices.getHostUsingPowerOfTwoChoices(SERVICE));
+    }
+
+    @Test
+    void retryWithAllHostsSaturatedReleasesPermit() throws Exception {
+        //the other Host is busy with a request of its own
+        assertTrue(this.hostStateRegistry.get(this.second).tryAcquire());
+        TestResponse unavailable = new TestResponse(503);
+        when(this.connectionPool.execute(any(Host.class), any())).thenReturn(unavailable);
+
+        CachedResponse response = this.upstreamForwarder.fetch(this.first, this.powerOfTwoChoices::getHostUsingPowerOfTwoChoices,
+            UpstreamRequest.from(new MockHttpServletRequest("GET", "/my-reverse-proxy-service/test")));
+
+        assertEquals(503, response.getStatus());
+        assertEquals(0, this.hostStateRegistry.get(this.first).getInFlight());
+        assertTrue(unavailable.closed, "upstream response is not closed");
+    }
+
+    private static final class TestResponse extends BasicHttpResponse implements CloseableHttpResponse {
+        private boolean closed;
+
+        private TestResponse(int statusCode) {
+            super(HttpVersion.HTTP_1_1, statusCode, null);
+            setEntity(new StringEntity("busy", "UTF-8"));
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+}
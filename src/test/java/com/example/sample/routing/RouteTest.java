@@ -0,0 +1,24 @@
+package com.example.sample.routing;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * RouteTest checks methods of proxy.routes are validated when a route is loaded
+ */
+class RouteTest {
+
+    @Test
+    void knownMethodsAreParsed() {
+        Route route = Route.parse("GET|HEAD api.example.com/orders/**=orders");
+        assertEquals(Route.getMethodBit("GET") | Route.getMethodBit("HEAD"), route.getMethods());
+    }
+
+    @Test
+    void unknownMethodIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> Route.parse("GET|FETCH /orders/**=orders"));
+        assertThrows(IllegalArgumentException.class, () -> Route.parse("get /orders/**=orders"));
+    }
+}